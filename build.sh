@@ -21,3 +21,6 @@ javac -cp $(print $(dirname $0)/lib/**/*.jar | tr ' ' :) -d build src/**/*.java
 (cd build && jar cf $TARGET arkref)
 
 mv build/$TARGET arkref.jar
+
+# mapped WordNet lemma table, see LemmaStore
+java -cp arkref.jar arkref.parsestuff.LemmaStore config/MORPH_CACHE.gz config/MORPH_CACHE.bin
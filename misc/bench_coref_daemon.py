@@ -0,0 +1,55 @@
+#!/usr/bin/python
+
+# bench_coref_daemon.py
+#
+# Compares articles/second for one ./arkref.sh launch per article against a
+# resident "./arkref.sh -server".  Start servers.sh and the arkref server first.
+# Run from the top directory:
+#
+#   python misc/bench_coref_daemon.py [number of articles]
+
+import glob
+import os, sys
+import shutil
+import subprocess
+import tempfile
+import time
+
+sys.path.insert(0, "modules")
+import coref
+
+def articles(n):
+  paths = sorted(glob.glob("Question_Answer_Dataset_v1.1/S*/data/set*/a*.txt"))
+  return paths[:n]
+
+def time_subprocess(paths):
+  # work on copies, so the preprocessed files next to the originals aren't reused
+  tmpdir = tempfile.mkdtemp()
+  try:
+    start = time.time()
+    for i, path in enumerate(paths):
+      copy = os.path.join(tmpdir, "a%d.txt" % i)
+      shutil.copy(path, copy)
+      coref.tag_with_subprocess(copy)
+    return time.time() - start
+  finally:
+    shutil.rmtree(tmpdir)
+
+def time_server(paths):
+  start = time.time()
+  for path in paths:
+    text = open(path).read()
+    if not isinstance(text, type(u"")):
+      text = text.decode("utf-8")
+    if coref.tag_with_server(text) is None:
+      sys.exit("no answer from the arkref server on port %d" % coref.ARKREF_PORT)
+  return time.time() - start
+
+def report(name, n, seconds):
+  print("%-10s %3d docs  %7.1f s  %6.2f docs/s" % (name, n, seconds, n / seconds))
+
+if __name__ == "__main__":
+  n = int(sys.argv[1]) if len(sys.argv) > 1 else 10
+  paths = articles(n)
+  report("server", len(paths), time_server(paths))
+  report("launch", len(paths), time_subprocess(paths))
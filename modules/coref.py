@@ -6,6 +6,7 @@
 import os, sys, errno
 import subprocess
 import re
+import socket
 import itertools
 import nltk
 from nltk.stem import PorterStemmer
@@ -17,19 +18,57 @@ pronouns = set(["he", "she", "it", "its", "it's", "him", "her", "his","they",
 
 resolved_articles = {}
 
+# A resident arkref started with "./arkref.sh -server" (see servers.sh) saves
+# a JVM launch and model load per article.  If it isn't running we fall back
+# to running arkref.sh on the file.
+ARKREF_HOST = "localhost"
+ARKREF_PORT = 5558
+arkref_conn = None
+
+def read_message(conn_file):
+  header = conn_file.readline()
+  if not header:
+    raise IOError("arkref server hung up")
+  return conn_file.read(int(header)).decode("utf-8")
+
+# Sends the raw article text to the arkref server and returns the tagged XML,
+# or None if there is no server.
+def tag_with_server(text):
+  global arkref_conn
+  try:
+    if arkref_conn is None:
+      sock = socket.create_connection((ARKREF_HOST, ARKREF_PORT))
+      arkref_conn = (sock, sock.makefile("rb"))
+    sock, conn_file = arkref_conn
+    body = text.encode("utf-8")
+    sock.sendall(str(len(body)).encode("ascii") + b"\n" + body)
+    tagged = read_message(conn_file)
+  except (IOError, socket.error, ValueError):
+    arkref_conn = None
+    return None
+  if not tagged:
+    return None
+  return tagged
+
+def tag_with_subprocess(path_to_article):
+  fh = open(os.devnull,"w")
+  subprocess.call(["./arkref.sh", "-input", path_to_article], stdout = fh, stderr = fh)
+  fh.close()
+  return open(path_to_article.replace("txt", "tagged")).read()
+
 # Runs coreference resolution on the article using arkref.
-# This still needs to be implemented.
 def process(path_to_article):
   original_path = path_to_article
   try:
     if path_to_article in resolved_articles:
       return resolved_articles[path_to_article]
     # arkref_out = open("arkref_out.txt", "w")
-    fh = open("NUL","w")
-    subprocess.call(["./arkref.sh", "-input", path_to_article], stdout = fh, stderr = fh)
-    fh.close()
-
-    tagged_article = open(path_to_article.replace("txt", "tagged")).read()
+    text = open(path_to_article).read()
+    if not isinstance(text, type(u"")):
+      text = text.decode("utf-8")
+    tagged_article = tag_with_server(text)
+    if tagged_article is None:
+      tagged_article = tag_with_subprocess(path_to_article)
     tagged_article = "<root>"+tagged_article+"</root>" # trick arkref into doing entire doc
     soup = bs4.BeautifulSoup(tagged_article, "html.parser").root
     for entity in soup.find_all(True):
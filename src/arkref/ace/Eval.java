@@ -32,7 +32,7 @@ public class Eval {
 //				U.pl(am1);
 				Set<arkref.data.Mention> corefs = eg.getLinkedMentions(mm1);
 				stuff += U.sf("  %-30s | %-20s | %s\n", am1, corefs.size()==1 ? "singleton" : "entity_"+eg.entName(mm1),   mm1);
-//				if (eg.mention2corefs.get(mm1).size()==1)
+//				if (eg.getLinkedMentions(mm1).size()==1)
 //					U.pl("Resolved as singleton");
 //				else
 //					U.pl("Resolved to  =>  " + eg.entName(mm1));
@@ -46,7 +46,7 @@ public class Eval {
 					if (mm1==null || mm2==null)
 						match = false;
 					else
-						match = eg.mention2corefs.get(mm1).contains(mm2);
+						match = eg.getLinkedMentions(mm1).contains(mm2);
 					if (match)
 						cluster_tp++;
 					else
@@ -170,7 +170,7 @@ public class FindAceMentions {
 			
 			
 			Tree subtree = myDoc.findNodeThatCoversSpan(sent, leftW, rightW);
-			Tree maxProjection = SyntacticPaths.getMaximalProjection(subtree, sent.rootNode());
+			Tree maxProjection = SyntacticPaths.getMaximalProjection(subtree, sent);
 			
 			aceM.myMention = myDoc.newMention(sent, maxProjection);
 			aceM.myMention.aceMention = aceM;
@@ -5,14 +5,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import arkref.ace.AceDocument;
 import arkref.ace.AcePreprocess;
 import arkref.ace.Eval;
 import arkref.ace.FindAceMentions;
 import arkref.data.Document;
+import arkref.data.DocumentSnapshot;
 import arkref.ext.fig.basic.Option;
 import arkref.ext.fig.basic.OptionsParser;
 import arkref.parsestuff.U;
@@ -22,6 +31,8 @@ public class ARKref {
 	public static class Opts {
 		@Option(gloss="Take input from STDIN and produce output on STDOUT")
 		public static boolean stdin = false;
+		@Option(gloss="With -stdin, resolve and write each sentence as soon as it's read, in bounded memory; entity IDs are then the first mention's ID. See StreamingResolver")
+		public static boolean stream = false;
 		@Option(gloss="Input document paths, with or without extentions. e.g. data/*.sent")
 		public static String[] input;
 		//@Option(gloss="Write mention-tagged XML sentence output to .tagged")
@@ -34,8 +45,22 @@ public class ARKref {
 		public static boolean forcePre = false;
 		@Option(gloss="Oracle semantics ... for analysis only")
 		public static boolean oracleSemantics = false;
+		@Option(gloss="Let nouns with different heads match by distributional similarity (CDB, cdbStoreFile)")
+		public static boolean semantics = false;
 		@Option(gloss="Number of sentences in possible antecedent window")
 		public static int sentenceWindow = 999;
+		@Option(gloss="Number of sentences to parse and supersense-tag at once during preprocessing")
+		public static int preprocessThreads = 1;
+		@Option(gloss="Output format: tagged (pseudo-XML), json or binary; see WriteEntityJson and WriteEntityBinary")
+		public static String outputFormat = "tagged";
+		@Option(gloss="Number of -input documents to resolve at once")
+		public static int batchThreads = 1;
+		@Option(gloss="Stay up and resolve documents sent to -serverPort, instead of reading -input")
+		public static boolean server = false;
+		@Option(gloss="Port for -server; 0 means framed requests on STDIN and responses on STDOUT")
+		public static int serverPort = 5558;
+		@Option(gloss="Write one tab-separated line per resolution decision to this file; see ResolutionTrace")
+		public static String traceFile = null;
 		@Option(gloss="Properties file path")
 		public static String propertiesFile = "config/arkref.properties";
 	}
@@ -58,9 +83,18 @@ public class ARKref {
 			ARKref.loadProperties(Opts.propertiesFile);
 		}
 		
+		if (Opts.traceFile != null) {
+			ResolutionTrace.open(Opts.traceFile);
+		}
+		
+		if (Opts.server) {
+			ResolutionServer.go(Opts.serverPort);
+			return;
+		}
+		
 		if (!Opts.stdin && (Opts.input == null || Opts.input.length==0)) {
 			System.err.println(
-			"Please specify -input or -stdin for input.\n"+
+			"Please specify -input or -stdin for input, or run with -server.\n"+
 //			"\nLeaving off extension is OK.  "+
 //			"We assume other files are in same directory with different extensions; "+
 //			"if they don't exist we will make them." +
@@ -73,8 +107,25 @@ public class ARKref {
 		//	System.exit(-1);
 		//}
 		
+		if (!Opts.outputFormat.matches("tagged|json|binary")) {
+			System.err.println("-outputFormat must be tagged, json or binary");
+			System.exit(-1);
+		}
+		
 		U.pl("=Options=\n" + op.doGetOptionPairs());
 		
+		if (Opts.stream) {
+			if (!Opts.stdin || Opts.ace || !Opts.outputFormat.equals("tagged")) {
+				System.err.println("-stream needs -stdin and the tagged output format, without -ace");
+				System.exit(-1);
+			}
+			ResolutionTrace.setDocument("stdin");
+			StreamingResolver resolver = new StreamingResolver(new OutputStreamWriter(System.out, "UTF-8"));
+			resolver.go(new InputStreamReader(System.in, "UTF-8"));
+			ResolutionTrace.close();
+			return;
+		}
+		
 		//take input on stdin, store parses, split sentences, and SS tags
 		//in temporary files.
 		if(Opts.stdin){ 
@@ -91,6 +142,7 @@ public class ARKref {
 			tmpSSTFile.deleteOnExit();
 			File tmpSentFile = new File(tmpPrefix + ".osent");
 			tmpSentFile.deleteOnExit();
+			new File(tmpPrefix + DocumentSnapshot.EXTENSION).deleteOnExit();
 						
 			PrintWriter pw = new PrintWriter(new FileOutputStream(tmpFile));
 			BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
@@ -107,57 +159,123 @@ public class ARKref {
 		}
 		
 		boolean dots = Opts.input.length > 1;
-		for (String path : Opts.input) {
-			path = Preprocess.shortPath(path);
-			if (dots) System.err.print("."); 
-
-			U.pl("\n***  Input "+path+"  ***\n");
-			
-			Document d;
-
-			if (Opts.ace) {
-				if (Opts.forcePre || !Preprocess.alreadyPreprocessed(path)) {
-					AcePreprocess.go(path);
-					Preprocess.go(path);
+		long start = System.currentTimeMillis();
+		int numThreads = Math.max(1, Opts.batchThreads);
+		if (numThreads > 1 && Opts.debug) {
+			// the debug output of different documents would be interleaved
+			System.err.println("-debug resolves one document at a time, ignoring -batchThreads");
+			numThreads = 1;
+		}
+		if (numThreads == 1 || Opts.input.length == 1) {
+			for (String path : Opts.input) {
+				if (dots) System.err.print("."); 
+				processDocument(path);
+			}
+		} else {
+			resolveInParallel(numThreads);
+		}
+		if (dots) {
+			System.err.println("");
+			double seconds = (System.currentTimeMillis() - start) / 1000.0;
+			System.err.printf("%d documents in %.1f s, %.2f documents/s\n",
+					Opts.input.length, seconds, Opts.input.length / seconds);
+		}
+		ResolutionTrace.close();
+	}
+	
+	/**
+	 * Resolves -input documents on a pool of threads, each document's output written as soon
+	 * as it's done.  Documents are independent, and the shared resources (AnalysisUtilities,
+	 * TregexPatternFactory, FirstNames, properties) are safe to use from several threads.
+	 */
+	private static void resolveInParallel(int numThreads) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		CompletionService<String> done = new ExecutorCompletionService<String>(pool);
+		for (final String path : Opts.input) {
+			done.submit(new Callable<String>() {
+				public String call() throws Exception {
+					processDocument(path);
+					return path;
 				}
-				d = Document.loadFiles(path);
-				AceDocument aceDoc = AceDocument.load(path);
-				d.ensureSurfaceSentenceLoad(path);
-				FindAceMentions.go(d, aceDoc);
-				Resolve.go(d);
-				RefsToEntities.go(d);
-				Eval.pairwise(aceDoc, d.entGraph());
-			} else {
-				if (Opts.forcePre || !Preprocess.alreadyPreprocessed(path)) {
-					Preprocess.go(path);
+			});
+		}
+		try {
+			for (int i=0; i < Opts.input.length; i++) {
+				try {
+					done.take().get();
+				} catch (ExecutionException e) {
+					// keep going with the other documents, like a failed server request
+					e.getCause().printStackTrace();
 				}
-				d = Document.loadFiles(path);
-				FindMentions.go(d);
-				Resolve.go(d);
-				RefsToEntities.go(d);
+				System.err.print(".");
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/** preprocesses if needed, resolves, and writes the output (or debug report) for one -input path **/
+	private static void processDocument(String path) throws Exception {
+		path = Preprocess.shortPath(path);
+
+		U.pf("\n***  Input %s  ***\n\n", path);
+		ResolutionTrace.setDocument(path);
+		
+		Document d;
+
+		if (Opts.ace) {
+			if (Opts.forcePre || !Preprocess.alreadyPreprocessed(path)) {
+				AcePreprocess.go(path);
+				Preprocess.go(path);
+			}
+			d = Document.loadFiles(path);
+			AceDocument aceDoc = AceDocument.load(path);
+			d.ensureSurfaceSentenceLoad(path);
+			FindAceMentions.go(d, aceDoc);
+			Resolve.go(d);
+			RefsToEntities.go(d);
+			Eval.pairwise(aceDoc, d.entGraph());
+		} else {
+			if (Opts.forcePre || !Preprocess.alreadyPreprocessed(path)) {
+				Preprocess.go(path);
 			}
+			d = Document.loadFiles(path);
+			FindMentions.go(d);
+			Resolve.go(d);
+			RefsToEntities.go(d);
+		}
+		
+//		if (Opts.writeEntityMentionXml){
+//			WriteEntityMentionXml.go(d.entGraph(), path);
+//		}
+		if (!Opts.debug){
+			OutputStream os = null;
 			
-//			if (Opts.writeEntityMentionXml){
-//				WriteEntityMentionXml.go(d.entGraph(), path);
-//			}
-			if (!Opts.debug){
-				PrintWriter pw = null;
-				
-				if(Opts.stdin){
-					pw = new PrintWriter(System.out);
-				}else{
-					String filename = path + ".tagged";
-					File file = new File(filename);
-					pw = new PrintWriter(new FileOutputStream(file));
-					U.pl("Writng resolutions to " + filename);
-				}
-				WriteEntityXml.writeTaggedDocument(d, pw);
+			if(Opts.stdin){
+				os = System.out;
+			}else{
+				String filename = path + outputExtension();
+				File file = new File(filename);
+				os = new FileOutputStream(file);
+				U.pl("Writng resolutions to " + filename);
+			}
+			if (Opts.outputFormat.equals("json")) {
+				WriteEntityJson.writeDocument(d, os);
+			} else if (Opts.outputFormat.equals("binary")) {
+				WriteEntityBinary.writeDocument(d, os);
+			} else {
+				WriteEntityXml.writeTaggedDocument(d, os);
 			}
 		}
-		if (dots) System.err.println("");
 	}
 
-	public static Properties getProperties() {
+	private static String outputExtension() {
+		if (Opts.outputFormat.equals("json")) return ".json";
+		if (Opts.outputFormat.equals("binary")) return ".tagged.bin";
+		return ".tagged";
+	}
+
+	public static synchronized Properties getProperties() {
 		if(properties == null){
 			loadProperties(ARKref.Opts.propertiesFile);
 		}
@@ -1,10 +1,16 @@
 package arkref.analysis;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import arkref.data.ConstructionTable;
 import arkref.data.Document;
+import arkref.data.Mention;
 import arkref.data.Sentence;
+import arkref.data.TreeIndex;
 import arkref.parsestuff.TregexPatternFactory;
 import arkref.parsestuff.U;
 
@@ -21,6 +27,105 @@ public class FindMentions {
 				d.newMention(s, match);
 			}
 		}
+		d.setConstructions(findConstructions(d));
+	}
+	
+	/** 
+	 * Finds the mentions in one sentence just added to d, and their constructions,
+	 * for resolving a sentence at a time (StreamingResolver).
+	 * @return the new mentions 
+	 */
+	public static List<Mention> go(Document d, Sentence s) {
+		ConstructionTable table = d.constructions();
+		List<Mention> mentions = new ArrayList<Mention>();
+		for(Tree match: findMentionNodes(s.rootNode())){
+			mentions.add(d.newMention(s, match));
+		}
+		findConstructions(s, mentions, table);
+		d.setConstructions(table);
+		return mentions;
+	}
+	
+	/**
+	 * Finds the appositive, role-appositive and predicate-nominative links with one pass over
+	 * each sentence, so Resolve can look them up instead of matching patterns and scanning
+	 * the document's mentions for every mention.
+	 */
+	public static ConstructionTable findConstructions(Document d) {
+		ConstructionTable table = new ConstructionTable();
+		Map<Sentence,List<Mention>> bySentence = new LinkedHashMap<Sentence,List<Mention>>();
+		for (Mention m : d.mentions()) {
+			List<Mention> ms = bySentence.get(m.getSentence());
+			if (ms == null) {
+				ms = new ArrayList<Mention>();
+				bySentence.put(m.getSentence(), ms);
+			}
+			ms.add(m);
+		}
+		for (Map.Entry<Sentence,List<Mention>> e : bySentence.entrySet()) {
+			findConstructions(e.getKey(), e.getValue(), table);
+		}
+		return table;
+	}
+	
+	/** adds the links for one sentence, given its mentions in document order **/
+	private static void findConstructions(Sentence s, List<Mention> mentions, ConstructionTable table) {
+		// Resolve used to take the first mention in the document on a node
+		Map<Tree,Mention> firstMention = new IdentityHashMap<Tree,Mention>();
+		for (Mention m : mentions) {
+			if (m.node() != null && !firstMention.containsKey(m.node())) {
+				firstMention.put(m.node(), m);
+			}
+		}
+		findAppositives(mentions, s, table);
+		findRoleAppositives(s, firstMention, table);
+		findPredicateNominatives(s, firstMention, table);
+	}
+	
+	private static void findAppositives(List<Mention> mentions, Sentence s, ConstructionTable table) {
+		TreeIndex index = s.treeIndex();
+		Map<Tree,Mention> latest = new IdentityHashMap<Tree,Mention>();
+		for (Mention m : mentions) {
+			if (m.node() == null) continue;
+			if (Resolve.inAppositiveConstruction(m)) {
+				Mention ante = latest.get(index.parent(m.node()));
+				if (ante != null) table.addAppositive(m.node(), ante);
+			}
+			latest.put(m.node(), m);
+		}
+	}
+	
+	/**
+	 * Note: This is slightly different than what is described in H&K EMNLP 09.
+	 * I think the head rules they used were slightly different (or possibly their description is a little off).
+	 */
+	private static void findRoleAppositives(Sentence s, Map<Tree,Mention> firstMention, ConstructionTable table) {
+		TreeIndex index = s.treeIndex();
+		TregexPattern pat = TregexPatternFactory.getPattern("NP=parent <<# (NNP=head ,, NP=mention)");
+		TregexMatcher matcher = pat.matcher(s.rootNode());
+		while (matcher.find()) {
+			Tree parent = matcher.getNode("parent");
+			Tree node = matcher.getNode("mention");
+			// the mention has to be a child of the NP, and not its last one
+			if (index.parent(node) != parent || parent.indexOf(node)+1 >= parent.numChildren()) {
+				continue;
+			}
+			//find the mention for the maximal projection of the head of the parent
+			Tree maxProj = SyntacticPaths.getMaximalProjection(matcher.getNode("head"), s);
+			Mention cand = firstMention.get(maxProj);
+			if (cand != null && Types.personhood(cand) == Types.Personhood.Person) {
+				table.addRoleAppositive(node, cand);
+			}
+		}
+	}
+	
+	private static void findPredicateNominatives(Sentence s, Map<Tree,Mention> firstMention, ConstructionTable table) {
+		TregexPattern pat = TregexPatternFactory.getPattern("S < NP=np1 <+(VP) (VP < (/^VB.*/ < be|is|was|were|are|being|been) < NP=np2)");
+		TregexMatcher matcher = pat.matcher(s.rootNode());
+		while (matcher.find()) {
+			Mention ante = firstMention.get(matcher.getNode("np1"));
+			if (ante != null) table.addPredicateNominative(matcher.getNode("np2"), ante);
+		}
 	}
 	
 	public static List<Tree> findMentionNodes(Tree root){
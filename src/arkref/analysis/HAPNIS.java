@@ -44,7 +44,7 @@ public class HAPNIS {
 		
 	}
 	
-	public static HAPNIS getInstance(){
+	public static synchronized HAPNIS getInstance(){
 		if(instance == null){
 			instance = new HAPNIS();
 		}
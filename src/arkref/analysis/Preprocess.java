@@ -5,9 +5,16 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import arkref.parsestuff.AnalysisUtilities;
+import arkref.parsestuff.PreprocessCache;
 import arkref.parsestuff.U;
 import arkref.sent.SentenceBreaker;
 
@@ -87,19 +94,99 @@ public class Preprocess {
 			}
 		} else { assert false; }
 		
-		for(String sentence : sentenceTexts) {
-			AnalysisUtilities.ParseResult res = AnalysisUtilities.getInstance().parseSentence(sentence);
-			List<String> supersenses = AnalysisUtilities.getInstance().annotateSentenceWithSupersenses(res.parse);
-			U.pf("%s\t%s\t%s\n", res.success ? "PARSE" : "ERROR", res.score, res.parse);
-			pwParse.printf("%s\t%s\t%s\n", res.success ? "PARSE" : "ERROR", res.score, res.parse);
+		for (PreprocessedSentence ps : preprocessSentences(sentenceTexts)) {
+			U.pf("%s\n", ps.parseLine());
+			pwParse.printf("%s\n", ps.parseLine());
+			pwSST.printf("%s\n", ps.sstLine());
+		}
+		pwSST.close();
+		pwParse.close();
+		
+		PreprocessCache cache = PreprocessCache.getInstance();
+		if (cache != null) {
+			U.pf("preprocessing cache: %d hits, %d misses, %d entries\n", cache.hits(), cache.misses(), cache.size());
+		}
+	}
+	
+	/**
+	 * Sentence-breaks raw text and preprocesses it without touching the disk.
+	 * Feed the .parse/.sst lines to Document.loadLines().
+	 */
+	public static List<PreprocessedSentence> preprocessText(String text) throws IOException {
+		List<SentenceBreaker.Sentence> sentences = AnalysisUtilities.cleanAndBreakSentences(text);
+		String[] sentenceTexts = new String[sentences.size()];
+		for(int i=0; i < sentences.size(); i++) {
+			sentenceTexts[i] = sentences.get(i).cleanText;
+		}
+		return preprocessSentences(sentenceTexts);
+	}
+	
+	/** results are in the same order as the input, however many threads ARKref.Opts.preprocessThreads asks for **/
+	public static List<PreprocessedSentence> preprocessSentences(String[] sentenceTexts) throws IOException {
+		List<PreprocessedSentence> results = new ArrayList<PreprocessedSentence>();
+		int numThreads = Math.max(1, ARKref.Opts.preprocessThreads);
+		if (numThreads == 1) {
+			for(String sentence : sentenceTexts) {
+				results.add(preprocessSentence(sentence));
+			}
+			return results;
+		}
+		
+		// sentences are independent, so fan them out, but collect them back in order
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<PreprocessedSentence>> futures = new ArrayList<Future<PreprocessedSentence>>();
+		for(final String sentence : sentenceTexts) {
+			futures.add(pool.submit(new Callable<PreprocessedSentence>() {
+				public PreprocessedSentence call() {
+					return preprocessSentence(sentence);
+				}
+			}));
+		}
+		try {
+			for (Future<PreprocessedSentence> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted during preprocessing");
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return results;
+	}
+	
+	/** parse and supersense tags for one sentence **/
+	public static class PreprocessedSentence {
+		public final AnalysisUtilities.ParseResult parse;
+		public final List<String> supersenses;
+		public PreprocessedSentence(AnalysisUtilities.ParseResult parse, List<String> supersenses) {
+			this.parse = parse;
+			this.supersenses = supersenses;
+		}
+		
+		/** this sentence's line in the .parse file **/
+		public String parseLine() {
+			return String.format("%s\t%s\t%s", parse.success ? "PARSE" : "ERROR", parse.score, parse.parse);
+		}
+		
+		/** this sentence's line in the .sst file **/
+		public String sstLine() {
+			StringBuilder sb = new StringBuilder();
+			List<Tree> leaves = parse.parse.getLeaves();
 			for(int i=0; i < supersenses.size(); i++){
 				String ss = supersenses.get(i);
-				if(i>0) pwSST.print(" ");
-				pwSST.print(res.parse.getLeaves().get(i) + "/" + ss.substring(ss.indexOf("-")+1));
+				if(i>0) sb.append(" ");
+				sb.append(leaves.get(i) + "/" + ss.substring(ss.indexOf("-")+1));
 			}
-			pwSST.println();
+			return sb.toString();
 		}
-		pwSST.close();
-		pwParse.close();
+	}
+	
+	/** thread-safe; does the server round trips (or local model calls) for one sentence **/
+	public static PreprocessedSentence preprocessSentence(String sentence) {
+		AnalysisUtilities.ParseResult res = AnalysisUtilities.getInstance().parseSentence(sentence);
+		List<String> supersenses = AnalysisUtilities.getInstance().annotateSentenceWithSupersenses(res.parse);
+		return new PreprocessedSentence(res, supersenses);
 	}
 }
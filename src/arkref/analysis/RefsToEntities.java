@@ -18,6 +18,7 @@ public class RefsToEntities {
 		
 		d.setEntGraph(eg);
 		
+		if (!ARKref.showDebug()) return;
 		U.pl("\n*** Entity Report ***\n");
 		int s=-1;
 		for (Mention m : d.mentions()){
@@ -0,0 +1,157 @@
+package arkref.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import arkref.data.Document;
+import arkref.data.FirstNames;
+import arkref.parsestuff.AnalysisUtilities;
+
+/**
+ * Keeps ARKref loaded and resolves documents sent to it, so callers don't pay
+ * for a JVM launch and model loading on every article.  Documents never touch
+ * the disk: raw text goes in, the same XML that .tagged files hold comes out.
+ *
+ * Messages in both directions are framed the same way: a line holding the
+ * number of UTF-8 bytes that follow, then the bytes.  A connection can carry
+ * any number of documents.  A request that fails gets an empty response.
+ *
+ * With -serverPort 0 it reads framed requests on STDIN and writes responses
+ * on STDOUT instead of listening on a socket.
+ */
+public class ResolutionServer {
+
+	private static final String ENCODING = "UTF-8";
+
+	/** longest message we'll accept, so a bad header can't make us allocate without bound **/
+	static final int MAX_MESSAGE_BYTES = 64 * 1024 * 1024;
+
+	public static void go(int port) throws IOException {
+		if (port == 0 && ARKref.Opts.debug) {
+			// U.pl and friends would corrupt the framed output
+			System.err.println("-debug writes to STDOUT, so it can't be combined with -serverPort 0");
+			System.exit(-1);
+		}
+		warmUp();
+		if (port == 0) {
+			serve(new BufferedInputStream(System.in), new BufferedOutputStream(System.out));
+			return;
+		}
+
+		ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+		ExecutorService connections = Executors.newCachedThreadPool();
+		System.err.println("ARKref resolution server waiting on port " + port);
+		while (true) {
+			final Socket clientSocket = serverSocket.accept();
+			connections.execute(new Runnable() {
+				public void run() {
+					try {
+						serve(new BufferedInputStream(clientSocket.getInputStream()),
+								new BufferedOutputStream(clientSocket.getOutputStream()));
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						try {
+							clientSocket.close();
+						} catch (IOException e) {
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/** Runs preprocessing through resolution on raw text, returning the tagged XML. **/
+	public static String resolveText(String text) throws IOException {
+		List<Preprocess.PreprocessedSentence> sentences = Preprocess.preprocessText(text);
+		List<String> parseLines = new ArrayList<String>();
+		List<String> sstLines = new ArrayList<String>();
+		for (Preprocess.PreprocessedSentence ps : sentences) {
+			parseLines.add(ps.parseLine());
+			sstLines.add(ps.sstLine());
+		}
+
+		// documents are independent, so connections are resolved concurrently (see ARKref -batchThreads)
+		StringWriter sw = new StringWriter();
+		Document d = Document.loadLines(parseLines, sstLines);
+		FindMentions.go(d);
+		Resolve.go(d);
+		RefsToEntities.go(d);
+		WriteEntityXml.writeTaggedDocument(d, new PrintWriter(sw));
+		return sw.toString();
+	}
+
+	/** loads the lazily-initialized resources now, rather than on the first request **/
+	private static void warmUp() {
+		FirstNames.getInstance();
+		AnalysisUtilities.getInstance().getLemma("running", "VBG");
+	}
+
+	private static void serve(InputStream in, OutputStream out) throws IOException {
+		String request;
+		while ((request = readMessage(in)) != null) {
+			String response;
+			try {
+				response = resolveText(request);
+			} catch (Exception e) {
+				e.printStackTrace();
+				response = "";
+			}
+			writeMessage(out, response);
+		}
+	}
+
+	/** @return null at end of stream **/
+	static String readMessage(InputStream in) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				return null;
+			}
+			if (header.size() > 20) {
+				throw new IOException("bad message header: " + header.toString(ENCODING));
+			}
+			header.write(b);
+		}
+		int length;
+		try {
+			length = Integer.parseInt(header.toString(ENCODING).trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("bad message header: " + header.toString(ENCODING));
+		}
+		if (length < 0 || length > MAX_MESSAGE_BYTES) {
+			throw new IOException("bad message length: " + length);
+		}
+		byte[] body = new byte[length];
+		int off = 0;
+		while (off < length) {
+			int n = in.read(body, off, length - off);
+			if (n == -1) {
+				throw new IOException("connection closed in the middle of a message");
+			}
+			off += n;
+		}
+		return new String(body, ENCODING);
+	}
+
+	static void writeMessage(OutputStream out, String message) throws IOException {
+		byte[] body = message.getBytes(ENCODING);
+		out.write((body.length + "\n").getBytes(ENCODING));
+		out.write(body);
+		out.flush();
+	}
+}
@@ -0,0 +1,65 @@
+package arkref.analysis;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import arkref.data.Mention;
+
+/**
+ * Machine-readable record of every resolution decision, one tab-separated line each:
+ *
+ *   document  mention  sentence  reason  antecedent  antecedent_sentence  eval  head  antecedent_head
+ *
+ * antecedent columns are "-" for mentions left unresolved, and eval is "-" without ACE gold data.
+ * Meant for scripts, where the -debug output is meant for people.  Turned on with -traceFile;
+ * when it's off, enabled() is false and callers shouldn't build anything for it.
+ */
+public class ResolutionTrace {
+	private static PrintWriter out = null;
+	/** per-thread, since -batchThreads resolves several documents at once **/
+	private static final ThreadLocal<String> document = new ThreadLocal<String>();
+
+	public static boolean enabled() {
+		return out != null;
+	}
+
+	public static synchronized void open(String path) throws IOException {
+		close();
+		out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(path), "UTF-8"));
+		out.println("#document\tmention\tsentence\treason\tantecedent\tantecedent_sentence\teval\thead\tantecedent_head");
+	}
+
+	/** what to put in the document column from now on **/
+	public static void setDocument(String name) {
+		document.set(name);
+	}
+
+	public static synchronized void record(String reason, Mention mention, Mention ref, String eval) {
+		if (out == null) return;
+		out.printf("%s\t%d\t%d\t%s\t%s\t%s\t%s\t%s\t%s\n",
+				document.get() == null ? "-" : document.get(), mention.ID(), mention.getSentence().ID(), reason,
+				ref == null ? "-" : Integer.toString(ref.ID()),
+				ref == null ? "-" : Integer.toString(ref.getSentence().ID()),
+				eval.length() == 0 ? "-" : eval,
+				head(mention), ref == null ? "-" : head(ref));
+	}
+
+	public static synchronized void flush() {
+		if (out != null) out.flush();
+	}
+
+	public static synchronized void close() {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	private static String head(Mention m) {
+		if (m.node() == null) return "-";
+		String h = m.getHeadWord();
+		return (h == null) ? "-" : h.replaceAll("\\s+", "_");
+	}
+}
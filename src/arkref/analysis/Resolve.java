@@ -20,16 +20,41 @@ import edu.stanford.nlp.trees.tregex.TregexMatcher;
 import edu.stanford.nlp.trees.tregex.TregexPattern;
 
 public class Resolve {
+	/** how much work the candidate loops did during the last go() on this thread **/
+	public static class CandidateCounts {
+		public long seen = 0;
+		public long checked = 0;
+	}
+	private static final ThreadLocal<CandidateCounts> candidateCounts = new ThreadLocal<CandidateCounts>() {
+		protected CandidateCounts initialValue() {
+			return new CandidateCounts();
+		}
+	};
+	
+	public static CandidateCounts candidateCounts() {
+		return candidateCounts.get();
+	}
+	
 	public static void go(Document d) {
+		go(d, d.mentions());
+	}
+	
+	/** resolves just these mentions, in order, against everything before them in d **/
+	public static void go(Document d, List<Mention> mentions) {
 		U.pl("\n***  Resolve ***\n");
+		CandidateCounts counts = new CandidateCounts();
+		candidateCounts.set(counts);
 		Mention antecedent;
 		Sentence curS = null;
-		for (Mention m : d.mentions()) {
+		for (Mention m : mentions) {
 			if (m.getSentence() != curS) {
 				curS = m.getSentence();
-				U.pf("\n== S%-2s  %s\n", curS.ID(), curS.text());
+				if (ARKref.showDebug()) {
+					U.pf("\n== S%-2s  %s\n", curS.ID(), curS.text());
+				}
 			}
-			U.pl("\n= Resolving\t" + m);
+			// pf only calls m.toString(), which does the Types lookups, under -debug
+			U.pf("\n= Resolving\t%s\n", m);
 			if (m.node()==null) {
 				U.pl("No parse node, skipping");
 				continue;
@@ -60,6 +85,9 @@ public class Resolve {
 				}
 			}
 		}
+		U.pf("\nResolve: %d mentions, %d candidates seen, %d given the syntactic checks\n",
+				mentions.size(), counts.seen, counts.checked);
+		ResolutionTrace.flush();
 	}
 	
 	public static void reportResolution(String reason, Mention mention, Mention ref) {
@@ -67,6 +95,7 @@ public class Resolve {
 	}
 	/** really anal-retentive output format to enable grep-based statistical analysis **/
 	public static void reportResolution(String reason, Mention mention, Mention ref, boolean hadAChance) {
+		if (!ARKref.showDebug() && !ResolutionTrace.enabled()) return;
 		String eval = null;
 		if (mention.aceMention!=null && ref==null) {
 			eval = mention.aceMention.isSingleton() ? "RIGHT " : (hadAChance ? "WRONG " : "NOCHANCE ");
@@ -75,6 +104,8 @@ public class Resolve {
 		} else {
 			eval = "";
 		}
+		ResolutionTrace.record(reason, mention, ref, eval.trim());
+		if (!ARKref.showDebug()) return;
 		if (ref==null) {
 			U.pf("%sresolved %-15s: M%-2d           %20s\n",
 					eval, reason, mention.ID(), AnalysisUtilities.abbrevTree(mention.node()));
@@ -137,79 +168,14 @@ public class Resolve {
 	}
 	 */
 
-	/**
-	 * 
-	 * Note: This is slightly different than what is described in H&K EMNLP 09.
-	 * I think the head rules they used were slightly different (or possibly their description is a little off).
-	 * 
-	 * @param m
-	 * @param d
-	 * @return
-	 */
+	/** see FindMentions.findConstructions **/
 	private static Mention findAntecedentInRoleAppositiveConstruction(Mention m, Document d) {
-		Tree root = m.getSentence().rootNode();
-		Tree node = m.node();
-		Tree parent = node.parent(root);
-		
-		//System.err.println("mention:"+node.yield().toString()+"\thead:"+node.headTerminal(AnalysisUtilities.getInstance().getHeadFinder()).yield().toString());
-		if(!parent.label().value().equals("NP")){
-			return null;
-		}
-		
-		int index = parent.indexOf(node);
-		if(index+1 >= parent.numChildren()){
-			return null;
-		}
-		
-		
-		TregexPattern pat = TregexPatternFactory.getPattern("NP=parent !> __ <<# (NNP=head ,, NP=mention)");
-		TregexMatcher matcher = pat.matcher(parent);
-		while (matcher.find()) {
-			if (matcher.getNode("mention") == node){
-				Tree head = matcher.getNode("head");
-
-				//find maximal projection of the head of the parent
-				Tree maxProj = SyntacticPaths.getMaximalProjection(head, root);
-				
-				//find the mention for the parent
-				for(Mention cand:d.mentions()){
-					if(cand.node() == maxProj){
-						if(Types.personhood(cand) == Types.Personhood.Person){
-							return cand;
-						}
-						break;
-					}
-				}
-			}
-		}
-		
-		return null;
+		return d.constructions().roleAppositiveAntecedent(m.node());
 	}
 
-	/**
-	 * returns the antecedent NP or null
-	 * The way this method is called could be made more efficient.  
-	 * It doesn't really need to get called for every mention
-	 * 
-	 */
+	/** returns the antecedent NP or null; see FindMentions.findConstructions **/
 	private static Mention findAntecendentInPredicateNominativeConstruction(Mention m, Document d) {
-		Tree root = m.getSentence().rootNode();
-		Tree node = m.node();
-		
-		TregexPattern pat = TregexPatternFactory.getPattern("S < NP=np1 <+(VP) (VP < (/^VB.*/ < be|is|was|were|are|being|been) < NP=np2)");
-		TregexMatcher matcher = pat.matcher(root);
-		while (matcher.find()) {
-			if(matcher.getNode("np2") == node){
-				Tree ante  = matcher.getNode("np1");
-				for(Mention m2: d.mentions()){
-					if(ante == m2.node()){
-						return m2;
-					}
-				}
-			}
-		}
-		
-		return null;
+		return d.constructions().predicateNominativeAntecedent(m.node());
 	}
 
 	
@@ -220,11 +186,10 @@ public class Resolve {
 	 * @param m
 	 * @return
 	 */
-	private static boolean inAppositiveConstruction(Mention m) {
+	static boolean inAppositiveConstruction(Mention m) {
 		if (m.node()==null) return false;
-		Tree root = m.getSentence().rootNode();
 		Tree node = m.node();
-		Tree parent = node.parent(root);
+		Tree parent = m.getSentence().treeIndex().parent(node);
 		
 		if(parent.numChildren()<3){
 			return false;
@@ -248,16 +213,10 @@ public class Resolve {
 
 	
 	public static void resolveAppositive(Mention mention, Document d) {
-		Tree root = mention.getSentence().rootNode();
-		Tree node = mention.node();
-		Tree parent = node.parent(root);
-		
-		for (Mention cand : d.prevMentions(mention)) {
-			if(cand.node() == parent) {
-				d.refGraph().setRef(mention, cand);
-				reportResolution("appos", mention, cand);
-				break;
-			}
+		Mention cand = d.constructions().appositiveAntecedent(mention.node());
+		if (cand != null) {
+			d.refGraph().setRef(mention, cand);
+			reportResolution("appos", mention, cand);
 		}
 		
 	}
@@ -266,13 +225,23 @@ public class Resolve {
 		U.pl("trying to resolve as a pronoun");
 		
 		ArrayList<Mention> candidates = new ArrayList<Mention>();
+		CandidateCounts counts = candidateCounts.get();
 	
 		for (Mention cand : d.prevMentions(mention)) {
+			counts.seen++;
+			// cheap cached gender/number/personhood test first; the syntactic ones only matter if it passes
 			boolean match = Types.checkPronominalMatch(mention, cand);
 			
-			if (cand.node() == null) {
+			if (match && cand.node() == null) {
 				match = false;
-			}else if (SyntacticPaths.aIsDominatedByB(mention, cand)){
+			}
+			if (match) {
+				counts.checked++;
+			}
+			
+			if (!match) {
+				// already rejected
+			} else if (SyntacticPaths.aIsDominatedByB(mention, cand)){
 				 // I-within-I constraint
 				//U.pl("fails A dominates B test");
 				match = false;
@@ -325,9 +294,14 @@ public class Resolve {
 		
 		ArrayList<Mention> candidates = new ArrayList<Mention>();
 		
-		boolean haveSemInfo = false;//Sem.haveNP(mention);
+		boolean haveSemInfo = Opts.semantics && Sem.haveNP(mention);
 		
-		for (Mention cand : d.prevMentions(mention)) {
+		// Without the semantic tests, only candidates sharing (a prefix of) the head word can match,
+		// so only look at those.
+		Iterable<Mention> prev = (haveSemInfo || Opts.oracleSemantics) ? d.prevMentions(mention) : d.prevMentionsSharingHead(mention);
+		CandidateCounts counts = candidateCounts.get();
+		for (Mention cand : prev) {
+			counts.seen++;
 			Boolean match = null;
 			// do while(false): it's GOTO in java.  fun, eh?
 			
@@ -339,6 +313,7 @@ public class Resolve {
 					// we only do pronoun-nominal matching in the other direction
 					match = false; break DecideCandidate;
 				}
+				counts.checked++;
 				if (SyntacticPaths.aIsDominatedByB(mention, cand)){// I-within-I constraint
 					//U.pl("rejected due to I within I");
 					match = false; break DecideCandidate;
@@ -413,9 +388,7 @@ public class Resolve {
 	private static boolean substringMatch(Mention mention, Mention cand) {
 		String mHead = mention.getHeadWord();
 		String cHead = cand.getHeadWord();
-		String mYield = mention.node().yield().toString();
-		String cYield = cand.node().yield().toString();
-		
+
 		/*if(mHead.length() >= 5 && cHead.length() >= 5){
 			if(mHead.subSequence(0, 5).equals(cHead.subSequence(0, 5))){
 				return true;
@@ -423,8 +396,8 @@ public class Resolve {
 		}*/
 		
 		//both must be proper nouns
-		if(mention.node().headPreTerminal(AnalysisUtilities.getInstance().getHeadFinder()).label().toString().indexOf("NNP") != 0
-			 && cand.node().headPreTerminal(AnalysisUtilities.getInstance().getHeadFinder()).label().toString().indexOf("NNP") != 0){
+		if(mention.features().headTag.indexOf("NNP") != 0
+			 && cand.features().headTag.indexOf("NNP") != 0){
 				 return false;
 		}
 
@@ -432,7 +405,7 @@ public class Resolve {
 			return true;
 		}*/
 		
-		int matchLen = 4;
+		int matchLen = Document.HEAD_PREFIX_LENGTH;
 		if(mHead.length() >= matchLen && cHead.length() >= matchLen){
 			if(mHead.subSequence(0, matchLen).equals(cHead.subSequence(0, matchLen))){// && LevenshteinDistance.getLevenshteinDistance(mHead, cHead) <= 5){
 				return true;
@@ -11,7 +11,8 @@ import arkref.parsestuff.U;
 public class Sem {
 
 	public static boolean haveNP(Mention mention) {
-		return CDB.I().haveNP(getNPString(mention));
+		String np = getNPString(mention);
+		return np != null && CDB.I().haveNP(np);
 	}
 	
 	public static String getNPString(Mention mention) {
@@ -29,6 +30,7 @@ public class Sem {
 		
 		FV fv1 = CDB.I().getContextVector(np1);
 		FV fv2 = CDB.I().getContextVector(np2);
+		if (fv1 == null || fv2 == null) return false;
 		
 		return FV.cos(fv1,fv2) > 0.30;
 		
@@ -0,0 +1,147 @@
+package arkref.analysis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import arkref.data.Document;
+import arkref.data.Mention;
+import arkref.data.Sentence;
+import arkref.parsestuff.AnalysisUtilities;
+import arkref.sent.SentenceBreaker;
+
+/**
+ * Resolves a document a sentence at a time as its text arrives (-stdin -stream), writing
+ * each sentence's .tagged line as soon as it's resolved.  Only the last sentenceWindow
+ * sentences can hold antecedents, so older ones are dropped and memory stays bounded
+ * however long the input runs.
+ *
+ * A tagged line can be written right away because every resolution links a new mention to
+ * an earlier one, which only ever adds mentions to an entity; two existing entities never
+ * merge.  So entities are named by the ID of their first mention, which no later sentence
+ * can change.  (The batch output names them by all their mention IDs, e.g. "3_7_12",
+ * which isn't known until the end.)
+ *
+ * Sentence breaking is done on what has been read so far; the last sentence found
+ * is held back until more text shows whether it's complete.
+ */
+public class StreamingResolver {
+	private final Document d = new Document();
+	private final Writer out;
+	private final int window;
+	/** entity name of each mention still in d **/
+	private final Map<Mention,Integer> entityIds = new IdentityHashMap<Mention,Integer>();
+	private int numSentences = 0;
+	/** what cleanAndBreakSentences() strips before it breaks; it can't span lines **/
+	private static final Pattern MARKUP = Pattern.compile("<\\S+>");
+
+	public StreamingResolver(Writer out) {
+		this.out = out;
+		this.window = Math.max(1, ARKref.Opts.sentenceWindow);
+	}
+
+	/** reads text until the end of the stream, resolving and writing sentences as they're complete **/
+	public void go(Reader in) throws IOException {
+		BufferedReader br = new BufferedReader(in);
+		StringBuilder pending = new StringBuilder();
+		String line;
+		while ((line = br.readLine()) != null) {
+			// stripped here so that sentence offsets are offsets into pending
+			pending.append(MARKUP.matcher(line).replaceAll("")).append('\n');
+			List<SentenceBreaker.Sentence> sentences = AnalysisUtilities.cleanAndBreakSentences(pending.toString());
+			if (sentences.size() < 2) continue;
+			// the last one might go on, or get split differently, given the next line
+			SentenceBreaker.Sentence last = sentences.remove(sentences.size()-1);
+			addSentences(sentences);
+			pending.delete(0, last.charStart);
+		}
+		addSentences(AnalysisUtilities.cleanAndBreakSentences(pending.toString()));
+		out.flush();
+	}
+
+	private void addSentences(List<SentenceBreaker.Sentence> sentences) throws IOException {
+		if (sentences.size() == 0) return;
+		String[] sentenceTexts = new String[sentences.size()];
+		for (int i=0; i < sentences.size(); i++) {
+			sentenceTexts[i] = sentences.get(i).cleanText;
+		}
+		for (Preprocess.PreprocessedSentence ps : Preprocess.preprocessSentences(sentenceTexts)) {
+			addSentence(ps.parseLine(), ps.sstLine());
+		}
+		out.flush();
+	}
+
+	/** resolves one preprocessed sentence against the window and writes its tagged line **/
+	public void addSentence(String parseLine, String sstLine) throws IOException {
+		Sentence s = d.addSentence(parseLine, sstLine);
+		List<Mention> mentions = FindMentions.go(d, s);
+		Resolve.go(d, mentions);
+
+		Map<Mention,String> entityNames = new IdentityHashMap<Mention,String>();
+		for (Mention m : mentions) {
+			entityNames.put(m, Integer.toString(nameEntity(m, mentions)));
+		}
+		WriteEntityXml.writeTaggedSentence(s, mentions, entityNames, out);
+		numSentences++;
+
+		// forget the oldest sentences once there are twice as many as can matter, so it's rarely done
+		if (d.sentences().size() > 2*(window+1)) {
+			int keepFrom = s.ID() - window;
+			for (Mention m : d.mentions()) {
+				if (m.getSentence().ID() >= keepFrom) break;
+				entityIds.remove(m);
+			}
+			d.forgetSentencesBefore(keepFrom);
+		}
+	}
+
+	/**
+	 * The smallest first-mention ID reachable from m over this sentence's resolutions.
+	 * Links within the sentence can point either way (e.g. role appositives), but at most
+	 * one earlier entity is reachable, and its name is smaller than any new mention's ID.
+	 */
+	private int nameEntity(Mention m, List<Mention> sentenceMentions) {
+		Integer known = entityIds.get(m);
+		if (known != null) return known;
+		Map<Mention,Boolean> seen = new IdentityHashMap<Mention,Boolean>();
+		List<Mention> component = new ArrayList<Mention>();
+		component.add(m);
+		seen.put(m, true);
+		int name = m.ID();
+		for (int i=0; i < component.size(); i++) {
+			Mention cur = component.get(i);
+			List<Mention> linked = new ArrayList<Mention>();
+			Mention ref = d.refGraph().getFinalResolutions().get(cur);
+			if (ref != null) linked.add(ref);
+			for (Mention other : sentenceMentions) {
+				if (d.refGraph().getFinalResolutions().get(other) == cur) linked.add(other);
+			}
+			for (Mention next : linked) {
+				if (seen.containsKey(next)) continue;
+				seen.put(next, true);
+				Integer earlier = entityIds.get(next);
+				if (earlier != null && next.getSentence() != m.getSentence()) {
+					// an earlier sentence's entity
+					name = Math.min(name, earlier);
+				} else {
+					name = Math.min(name, next.ID());
+					component.add(next);
+				}
+			}
+		}
+		for (Mention member : component) {
+			entityIds.put(member, name);
+		}
+		return name;
+	}
+
+	public int numSentences() {
+		return numSentences;
+	}
+}
@@ -6,11 +6,11 @@ import java.util.List;
 
 import arkref.data.Document;
 import arkref.data.Mention;
-import arkref.parsestuff.AnalysisUtilities;
+import arkref.data.Sentence;
+import arkref.data.TreeIndex;
 import arkref.parsestuff.TregexPatternFactory;
 
 
-import edu.stanford.nlp.trees.HeadFinder;
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.trees.tregex.TregexMatcher;
 import edu.stanford.nlp.trees.tregex.TregexPattern;
@@ -36,11 +36,7 @@ public class SyntacticPaths {
 		int tmp;
 		for(int i=0; i<pathLengths.size(); i++){
 			tmp = pathLengths.get(i);
-			String tmpS = "";
-			if(candidates.get(i).node() != null){
-				tmpS = candidates.get(i).node().yield().toString();
-			}
-//			U.pl("distance:"+tmp+"\t"+tmpS);
+//			U.pl("distance:"+tmp+"\t"+candidates.get(i).node().yield());
 			
 			if(tmp < minLength){
 				minLength = tmp;
@@ -61,7 +57,7 @@ public class SyntacticPaths {
 		Mention tmpCandidate;
 		while(iter.hasNext()){
 			tmpCandidate = iter.next();
-			pathLengths.add(computePathLength(mention.node(), tmpCandidate.node(), doc.getTree()));
+			pathLengths.add(computePathLength(mention, tmpCandidate));
 
 		}
 
@@ -71,6 +67,26 @@ public class SyntacticPaths {
 
 
 
+	/**
+	 * Same as computePathLength(m1.node(), m2.node(), doc.getTree()), in constant time.
+	 * 
+	 * getTree() hangs the root of the i'th sentence under a chain of i+1 DOCROOT nodes,
+	 * so a path between sentences goes up from the earlier node to its sentence's DOCROOT
+	 * (depth+1 edges), down the chain one step per sentence in between, and then down
+	 * into the later sentence (depth+2 edges).  Sentence IDs are consecutive, so their
+	 * difference is the number of DOCROOT steps.
+	 */
+	public static int computePathLength(Mention m1, Mention m2) {
+		Sentence s1 = m1.getSentence();
+		Sentence s2 = m2.getSentence();
+		if (s1 == s2) {
+			return s1.treeIndex().pathLength(m1.node(), m2.node());
+		}
+		return s1.treeIndex().depth(m1.node()) + s2.treeIndex().depth(m2.node()) + 2 
+			+ Math.abs(s1.ID() - s2.ID());
+	}
+
+
 	/**
 	 * 
 	 * @param node1
@@ -110,25 +126,28 @@ public class SyntacticPaths {
 
 
 	public static boolean aIsDominatedByB(Mention A, Mention B) {
-		boolean bDominatesA = B.node().dominates(A.node());
+		if (A.getSentence() != B.getSentence()) {
+			return false;
+		}
+		boolean bDominatesA = B.getSentence().treeIndex().dominates(B.node(), A.node());
 
 
 		return bDominatesA;
 	}
 
 
-	public static Tree getMaximalProjection(Tree parent, Tree root) {
+	public static Tree getMaximalProjection(Tree parent, Sentence sent) {
+		TreeIndex index = sent.treeIndex();
 		Tree res = parent;
 		Tree tmp = parent;
-		HeadFinder hf = AnalysisUtilities.getInstance().getHeadFinder();
-		Tree parentHead = parent.headTerminal(hf);
+		Tree parentHead = index.headTerminal(parent);
 		while(tmp != null){
-			if(tmp.headTerminal(hf) == parentHead && tmp.parent(root) != null){
+			if(index.headTerminal(tmp) == parentHead && index.parent(tmp) != null){
 				res = tmp;
 			}else{
 				break;
 			}
-			tmp = res.parent(root);
+			tmp = index.parent(res);
 			//System.err.println("\tp:"+parent.toString()+"\tpHead:"+parentHead+"\ttmp:"+tmp);
 		}
 		//System.err.println("node:"+parent.toString()+"\tmaxProjection:"+res.toString());
@@ -155,7 +174,8 @@ public class SyntacticPaths {
 		if(root != m1.getSentence().rootNode()){
 			return false;
 		}
-		Tree ancestor = t.parent(root);
+		TreeIndex index = m2.getSentence().treeIndex();
+		Tree ancestor = index.parent(t);
 
 		//find the subject of the clause that m2 is part of (try to do so even if there is embedding)
 		while(ancestor != null && ancestor != root){
@@ -171,7 +191,7 @@ public class SyntacticPaths {
 				//This accounts for cases like Nintendo introduced its new console
 				return false;
 			}
-			ancestor = ancestor.parent(root);
+			ancestor = index.parent(ancestor);
 		}
 
 		return false;
@@ -192,9 +212,8 @@ public class SyntacticPaths {
 	 */
 	public static boolean isSubjectAndMentionInAdjunctPhrase(Mention m1, Mention m2) {
 		Tree t = m1.node();
-		Tree root = m1.getSentence().rootNode();
 
-		Tree clause = t.parent(root);
+		Tree clause = m1.getSentence().treeIndex().parent(t);
 		if(!clause.label().value().equals("S")){
 			return false;
 		}
@@ -217,7 +236,7 @@ public class SyntacticPaths {
 		TregexMatcher matcher = pat.matcher(m.getSentence().rootNode());
 		while(matcher.find()) {
 			Tree quote = matcher.getMatch();
-			if(cCommands(quote, m.node(), m.getSentence().rootNode())){
+			if(cCommands(quote, m.node(), m.getSentence())){
 				return true;
 			}
 		}	
@@ -229,15 +248,16 @@ public class SyntacticPaths {
 	 * There is a bug in the stanford Tree.cCommands method, I think
 	 * @return
 	 */
-	public static boolean cCommands(Tree n1, Tree n2, Tree root){
-		Tree n1Parent = n1.parent(root);
+	public static boolean cCommands(Tree n1, Tree n2, Sentence sent){
+		TreeIndex index = sent.treeIndex();
+		Tree n1Parent = index.parent(n1);
 		
 		for(Tree sibling: n1Parent.getChildrenAsList()){
 			if(sibling == n1){
 				continue;
 			}
 			
-			if(sibling.dominates(n2)){
+			if(index.dominates(sibling, n2)){
 				return true;
 			}
 		}
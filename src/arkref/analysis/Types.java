@@ -4,9 +4,9 @@ import java.util.*;
 import arkref.analysis.Types.Gender;
 import arkref.data.FirstNames;
 import arkref.data.Mention;
+import arkref.data.TreeIndex;
 import arkref.parsestuff.AnalysisUtilities;
 import arkref.parsestuff.TregexPatternFactory;
-import edu.stanford.nlp.trees.HeadFinder;
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.trees.tregex.TregexMatcher;
 import edu.stanford.nlp.trees.tregex.TregexPattern;
@@ -66,6 +66,58 @@ public class Types {
 
 	
 	
+	/**
+	 * Everything about a mention that the candidate loops in Resolve keep asking for.
+	 * Computed once per mention (see Mention.features()), since each piece costs
+	 * Tregex matching or head finding.
+	 */
+	public static class Features {
+		public final boolean isPronominal;
+		/** lowercased, or null if not pronominal **/
+		public final String pronoun;
+		public final Gender gender;
+		public final Number number;
+		public final Personhood personhood;
+		public final String headWord;
+		/** label of the head preterminal, or null if there is no parse node **/
+		public final String headTag;
+		public final boolean isReflexive;
+		public final boolean isPossessive;
+		
+		private Features(Mention m) {
+			isPronominal = computeIsPronominal(m);
+			pronoun = isPronominal ? computePronoun(m) : null;
+			headWord = m.computeHeadWord();
+			headTag = (m.node()==null) ? null : m.node().headPreTerminal(AnalysisUtilities.getInstance().getHeadFinder()).label().toString();
+			Gender nameGender = genderByFirstNamesOrTitles(m);
+			gender = computeGender(m, pronoun, nameGender);
+			number = computeNumber(m, pronoun, headTag);
+			personhood = computePersonhood(m, pronoun, nameGender);
+			isReflexive = REFLEXIVES.contains(headWord);
+			isPossessive = POSSESSIVES.contains(headWord);
+		}
+	}
+	
+	/** use Mention.features() instead, which caches this **/
+	public static Features computeFeatures(Mention m) {
+		return new Features(m);
+	}
+	
+	private static Set<String> wordSet(String... words) {
+		return new HashSet<String>(Arrays.asList(words));
+	}
+	
+	private static final Set<String> REFLEXIVES = wordSet("itself","yourself","myself","himself","herself","themselves","ourselves");
+	private static final Set<String> POSSESSIVES = wordSet("its","his","her","their","our","my");
+	private static final Set<String> MALE_PRONOUNS = wordSet("he","him","his","himself");
+	private static final Set<String> FEMALE_PRONOUNS = wordSet("she","her","hers","herself");
+	private static final Set<String> PLURAL_PRONOUNS = wordSet("they","them","these","those","we","us","their","ours","our","theirs","themselves","ourselves");
+	private static final Set<String> PERSON_PRONOUNS = wordSet("me","he","him","his","she","her","hers","we","us","our","ours","i","my","mine","you","yours","himself","herself","ourselves","myself");
+	private static final Set<String> NONPERSON_PRONOUNS = wordSet("it","its","itself");
+	private static final Set<String> MAYBEPERSON_PRONOUNS = wordSet("they","their","theirs","them","these","those","themselves");
+	private static final Set<String> FIRST_PERSON_PRONOUNS = wordSet("i","me","my","mine","we","our","ours","ourselves","myself");
+	private static final Set<String> SECOND_PERSON_PRONOUNS = wordSet("you","yours","y'all","y'alls","yinz","yourself");
+	
 	public static <T> boolean relaxedEquals(T x, T y) {
 		if (x==null || y==null)
 			return true;
@@ -123,16 +175,24 @@ public class Types {
 	}
 	
 	public static boolean isReflexive(Mention m) {
-		return m.getHeadWord().matches("^(itself|yourself|myself|himself|herself|themselves|ourselves)$");
+		return m.features().isReflexive;
 	}
 
 	public static boolean isPronominal(Mention m) {
+		return m.features().isPronominal;
+	}
+	
+	private static boolean computeIsPronominal(Mention m) {
 		if (m.node()==null) return false;
 		TregexMatcher matcher = TregexPatternFactory.getPattern("NP <<# /^PRP/ !>> NP").matcher(m.node());
 		return matcher.find();
 	}
 	
 	public static String pronoun(Mention m) {
+		return m.features().pronoun;
+	}
+	
+	private static String computePronoun(Mention m) {
 		TregexPattern pat = TregexPatternFactory.getPattern("NP=np <<# /^PRP/=pronoun !>> NP");
 		TregexMatcher matcher = pat.matcher(m.node());
 		if (matcher.find()) {
@@ -151,14 +211,18 @@ public class Types {
 	}
 	
 	public static Gender gender(Mention m) {
+		return m.features().gender;
+	}
+	
+	/** @param pronoun null unless m is pronominal **/
+	private static Gender computeGender(Mention m, String pronoun, Gender nameGender) {
 		if (m.node()==null) return null;
-		if (isPronominal(m)) {
-			String p = pronoun(m);
-			if (p.matches("^(he|him|his|himself)$")) {
+		if (pronoun != null) {
+			if (MALE_PRONOUNS.contains(pronoun)) {
 				return Gender.Male;
-			} else if (p.matches("^(she|her|hers|herself)$")) {
+			} else if (FEMALE_PRONOUNS.contains(pronoun)) {
 				return Gender.Female;
-			} else if (p.matches("^(it|its|itself)$")) {
+			} else if (NONPERSON_PRONOUNS.contains(pronoun)) {
 				return null;
 //				return Gender.Neuter;
 			} else {
@@ -173,9 +237,7 @@ public class Types {
 			return null;
 		}
 		
-		Gender firstNameGender = genderByFirstNamesOrTitles(m);
-		
-		return firstNameGender;
+		return nameGender;
 	}
 
 
@@ -187,12 +249,13 @@ public class Types {
 		//Note: this will fail for ambiguous month/person names like "April"
 		
 		Tree head = m.node().headPreTerminal(AnalysisUtilities.getInstance().getHeadFinder());
-		Tree root = m.getSentence().rootNode();
+		TreeIndex index = m.getSentence().treeIndex();
 		
 		for(Tree leaf : m.node().getLeaves()){
-			//System.err.println(head+"\t"+leaf+"\t"+head.parent(root)+"\t"+leaf.parent(root));
-			if(!leaf.parent(m.node()).label().value().equals("NNP") 
-					|| leaf.parent(root).parent(root) != head.parent(root)) //must be a sibling of the head node, as in "(NP (NNP John) (POS 's))"
+			//System.err.println(head+"\t"+leaf+"\t"+index.parent(head)+"\t"+index.parent(leaf));
+			Tree preterm = index.parent(leaf);
+			if(!preterm.label().value().equals("NNP") 
+					|| index.parent(preterm) != index.parent(head)) //must be a sibling of the head node, as in "(NP (NNP John) (POS 's))"
 			{
 				continue;
 			}
@@ -210,19 +273,14 @@ public class Types {
 	private static Personhood personhoodByTitle(Mention m) {
 		if (m.node()==null) return null;  // TODO we can still figure something out, right
 		
-		if(personTitles == null){
-			personTitles = new HashSet<String>();
-			String [] personTitlesArray  = {"Mr.","Mrs.","Dr.","Fr.","Drs.","Ms."};
-			for(int i=0; i<personTitlesArray.length; i++) personTitles.add(personTitlesArray[i].toLowerCase());
-		}
-		
 		Tree head = m.node().headPreTerminal(AnalysisUtilities.getInstance().getHeadFinder());
-		Tree root = m.getSentence().rootNode();
+		TreeIndex index = m.getSentence().treeIndex();
 		
 		for(Tree leaf : m.node().getLeaves()){
-			//System.err.println(head+"\t"+leaf+"\t"+head.parent(root)+"\t"+leaf.parent(root));
-			if(!leaf.parent(m.node()).label().value().equals("NNP") 
-					|| leaf.parent(root).parent(root) != head.parent(root)) //must be a sibling of the head node, as in "(NP (NNP John) (POS 's))"
+			//System.err.println(head+"\t"+leaf+"\t"+index.parent(head)+"\t"+index.parent(leaf));
+			Tree preterm = index.parent(leaf);
+			if(!preterm.label().value().equals("NNP") 
+					|| index.parent(preterm) != index.parent(head)) //must be a sibling of the head node, as in "(NP (NNP John) (POS 's))"
 			{
 				continue;
 			}
@@ -236,14 +294,17 @@ public class Types {
 	
 	
 	public static Personhood personhood(Mention m) {
-		if (isPronominal(m)) {
-			String p = pronoun(m);
-			return personhood(p);
+		return m.features().personhood;
+	}
+	
+	private static Personhood computePersonhood(Mention m, String pronoun, Gender nameGender) {
+		if (pronoun != null) {
+			return personhood(pronoun);
 		}
 		String t = m.neType();
 		if (t.equalsIgnoreCase("PERSON") || t.equalsIgnoreCase("noun.person")
 			// || NounTypes.getInstance().getType(m.getHeadWord()).equals("person")
-			 || genderByFirstNamesOrTitles(m) != null
+			 || nameGender != null
 			 || personhoodByTitle(m) == Personhood.Person)
 			return Personhood.Person;
 		if (t.equals("O")) 
@@ -254,11 +315,11 @@ public class Types {
 
 
 	public static Personhood personhood(String pronoun) {
-		if (pronoun.matches("^(me|he|him|his|she|her|hers|we|us|our|ours|i|my|mine|you|yours|himself|herself|ourselves|myself)$")) {
+		if (PERSON_PRONOUNS.contains(pronoun)) {
 			return Personhood.Person;
-		} else if (pronoun.matches("^(it|its|itself)$")) {
+		} else if (NONPERSON_PRONOUNS.contains(pronoun)) {
 			return Personhood.NotPerson;
-		}else if (pronoun.matches("^(they|their|theirs|them|these|those|themselves)$")) {
+		}else if (MAYBEPERSON_PRONOUNS.contains(pronoun)) {
 			return Personhood.MaybePerson;
 		}
 		return null;
@@ -266,9 +327,9 @@ public class Types {
 	
 	/** what the heck is the real name for this? at least it is nice and reliably deterministic **/
 	public static Perspective perspective(String pronoun) {
-		if (pronoun.matches("^(i|me||my|mine|we|our|ours|ourselves|myself)$")) {
+		if (FIRST_PERSON_PRONOUNS.contains(pronoun)) {
 			return Perspective.First;
-		} else if (pronoun.matches("^(you|yours|y'all|y'alls|yinz|yourself)$")) {
+		} else if (SECOND_PERSON_PRONOUNS.contains(pronoun)) {
 			return Perspective.Second;
 		} else {
 			return Perspective.Third;
@@ -281,6 +342,10 @@ public class Types {
 
 	
 	public static Number number(Mention m) {
+		return m.features().number;
+	}
+	
+	private static Number computeNumber(Mention m, String pronoun, String headTag) {
 		if (m.node()==null) return null;
 		TregexPattern pat = TregexPatternFactory.getPattern("NP < CC|CONJP !>> NP");
 		TregexMatcher matcher = pat.matcher(m.node());
@@ -289,17 +354,14 @@ public class Types {
 		}
 		
 		
-		if (isPronominal(m)) {
-			String p = pronoun(m);
-			if (p.matches("^(they|them|these|those|we|us|their|ours|our|theirs|themselves|ourselves)$")) {
+		if (pronoun != null) {
+			if (PLURAL_PRONOUNS.contains(pronoun)) {
 				return Number.Plural;
 			} else {  //if (p.matches("^(it|its|that|this|he|him|his|she|her)$")) {
 				return Number.Singular;
 			}
 		} else {
-			HeadFinder hf = AnalysisUtilities.getInstance().getHeadFinder();
-			Tree head = m.node().headPreTerminal(hf);
-			String tag = head.label().toString();
+			String tag = headTag;
 
 			// Disable the organization type check -- gives only slim gains on ACE eval
 			// and potentially complicates other analysis.
@@ -311,8 +373,8 @@ public class Types {
 
 			// plural vs singular tags: http://bulba.sdsu.edu/jeanette/thesis/PennTags.html
 
-			if (tag.matches("^NNP?S$")) return Number.Plural;
-			if (tag.matches("^NNP?$"))  return Number.Singular;
+			if (tag.equals("NNS") || tag.equals("NNPS")) return Number.Plural;
+			if (tag.equals("NN") || tag.equals("NNP"))  return Number.Singular;
 			// TODO mass nouns?
 		}
 		return null;
@@ -320,9 +382,10 @@ public class Types {
 
 
 	public static boolean isPossessive(Mention mention) {
-		return mention.getHeadWord().matches("^(its|his|her|their|our|my)$");
+		return mention.features().isPossessive;
 	}
 
-	private static Set<String> personTitles;
+	private static final Set<String> personTitles = new HashSet<String>(Arrays.asList(
+			"mr.", "mrs.", "dr.", "fr.", "drs.", "ms."));
 	
 }
@@ -0,0 +1,77 @@
+package arkref.analysis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import arkref.data.Document;
+import arkref.data.EntityGraph;
+import arkref.data.Mention;
+import arkref.data.Sentence;
+import arkref.data.TreeIndex;
+import arkref.data.EntityGraph.Entity;
+
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Compact binary version of the .tagged file, written with DataOutputStream
+ * (big-endian ints, strings in modified UTF-8 via writeUTF):
+ * 
+ * <pre>
+ * int    MAGIC, int VERSION
+ * int    number of entities
+ *        for each entity, in sortedEntities() order: UTF id
+ * int    number of sentences
+ *        for each sentence:
+ *          int sentence id
+ *          int number of tokens, then UTF token for each
+ *          int number of mentions, then for each: int mention id, int entity number,
+ *              int start token (inclusive), int end token (exclusive)
+ * </pre>
+ */
+public class WriteEntityBinary {
+	public static final int MAGIC = 0x41524b54; // "ARKT"
+	public static final int VERSION = 1;
+
+	/** closes the stream **/
+	public static void writeDocument(Document d, OutputStream os) throws IOException {
+		EntityGraph eg = d.entGraph();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		
+		List<Entity> ents = eg.sortedEntities();
+		Map<String,Integer> entityNumbers = new HashMap<String,Integer>();
+		out.writeInt(ents.size());
+		for (Entity e : ents) {
+			entityNumbers.put(e.id, entityNumbers.size());
+			out.writeUTF(e.id);
+		}
+		
+		List<List<Mention>> sentMentions = WriteEntityXml.mentionsBySentence(d);
+		out.writeInt(d.sentences().size());
+		for (int si=0; si < d.sentences().size(); si++) {
+			Sentence s = d.sentences().get(si);
+			TreeIndex index = s.treeIndex();
+			out.writeInt(s.ID());
+			List<Tree> leaves = index.leaves();
+			out.writeInt(leaves.size());
+			for (Tree leaf : leaves) {
+				out.writeUTF(leaf.value());
+			}
+			List<Mention> mentions = sentMentions.get(si);
+			out.writeInt(mentions.size());
+			for (Mention m : mentions) {
+				out.writeInt(m.ID());
+				out.writeInt(entityNumbers.get(eg.entName(m)));
+				out.writeInt(index.leafStart(m.node()));
+				out.writeInt(index.leafEnd(m.node()));
+			}
+		}
+		out.close();
+	}
+}
@@ -0,0 +1,113 @@
+package arkref.analysis;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import arkref.data.Document;
+import arkref.data.EntityGraph;
+import arkref.data.Mention;
+import arkref.data.Sentence;
+import arkref.data.TreeIndex;
+import arkref.data.EntityGraph.Entity;
+
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Same information as the .tagged file, as JSON, so consumers don't have to
+ * parse the pseudo-XML:
+ * 
+ * <pre>
+ * {"sentences": [{"id": 1, "tokens": ["This", "film", ...],
+ *                 "mentions": [{"id": 1, "entity": "1_2_9", "start": 0, "end": 2}, ...]}, ...],
+ *  "entities": [{"id": "1_2_9", "mentions": [1, 2, 9]}, ...]}
+ * </pre>
+ * 
+ * Token offsets are within the sentence; start is inclusive, end exclusive.
+ */
+public class WriteEntityJson {
+
+	/** closes the writer **/
+	public static void writeDocument(Document d, Writer w) throws IOException {
+		EntityGraph eg = d.entGraph();
+		Writer out = new BufferedWriter(w);
+		List<List<Mention>> sentMentions = WriteEntityXml.mentionsBySentence(d);
+		
+		out.write("{\"sentences\": [");
+		for (int si=0; si < d.sentences().size(); si++) {
+			Sentence s = d.sentences().get(si);
+			TreeIndex index = s.treeIndex();
+			if (si > 0) out.write(",");
+			out.write("\n{\"id\": ");
+			out.write(Integer.toString(s.ID()));
+			out.write(", \"tokens\": [");
+			List<Tree> leaves = index.leaves();
+			for (int i=0; i < leaves.size(); i++) {
+				if (i > 0) out.write(", ");
+				writeString(out, leaves.get(i).value());
+			}
+			out.write("], \"mentions\": [");
+			boolean first = true;
+			for (Mention m : sentMentions.get(si)) {
+				if (!first) out.write(", ");
+				first = false;
+				out.write("{\"id\": ");
+				out.write(Integer.toString(m.ID()));
+				out.write(", \"entity\": ");
+				writeString(out, eg.entName(m));
+				out.write(", \"start\": ");
+				out.write(Integer.toString(index.leafStart(m.node())));
+				out.write(", \"end\": ");
+				out.write(Integer.toString(index.leafEnd(m.node())));
+				out.write("}");
+			}
+			out.write("]}");
+		}
+		out.write("],\n\"entities\": [");
+		boolean firstEnt = true;
+		for (Entity e : eg.sortedEntities()) {
+			if (!firstEnt) out.write(",");
+			firstEnt = false;
+			out.write("\n{\"id\": ");
+			writeString(out, e.id);
+			out.write(", \"mentions\": [");
+			boolean first = true;
+			for (Mention m : e.sortedMentions()) {
+				if (!first) out.write(", ");
+				first = false;
+				out.write(Integer.toString(m.ID()));
+			}
+			out.write("]}");
+		}
+		out.write("]}\n");
+		out.close();
+	}
+	
+	public static void writeDocument(Document d, OutputStream os) throws IOException {
+		writeDocument(d, new OutputStreamWriter(os, "UTF-8"));
+	}
+	
+	private static void writeString(Writer out, String s) throws IOException {
+		out.write('"');
+		for (int i=0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': out.write("\\\""); break;
+			case '\\': out.write("\\\\"); break;
+			case '\n': out.write("\\n"); break;
+			case '\r': out.write("\\r"); break;
+			case '\t': out.write("\\t"); break;
+			default:
+				if (c < 0x20) {
+					out.write(String.format("\\u%04x", (int) c));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+}
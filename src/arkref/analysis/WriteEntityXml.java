@@ -1,12 +1,16 @@
 package arkref.analysis;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringEscapeUtils;
 
@@ -14,9 +18,8 @@ import arkref.data.Document;
 import arkref.data.EntityGraph;
 import arkref.data.Mention;
 import arkref.data.Sentence;
-import arkref.data.Word;
+import arkref.data.TreeIndex;
 import arkref.data.EntityGraph.Entity;
-import arkref.parsestuff.U;
 
 
 import edu.stanford.nlp.trees.Tree;
@@ -53,50 +56,81 @@ public class WriteEntityXml {
 		
 	}
 	
-	public static void writeTaggedDocument(Document d, PrintWriter pw) throws FileNotFoundException {
+	/**
+	 * Writes the .tagged format: one sentence per line, tokens separated by spaces,
+	 * mentions wrapped in &lt;mention mentionid=".." entityid=".."&gt; tags.
+	 * Closes the writer.
+	 */
+	public static void writeTaggedDocument(Document d, Writer w) throws IOException {
 		EntityGraph eg = d.entGraph();
-
-		//pw.printf("<doc>\n");
+		Writer out = new BufferedWriter(w);
 		
-		int sentnum = 0;
-		for(Sentence s: d.sentences()){
-			//pw.printf("<sentence>\n");
-			int wordnum = 0;
-			for(Tree leaf : s.rootNode().getLeaves()){
-
-				if(wordnum > 0){
-					pw.printf(" ");
-				}
-				
-				for (Mention m : d.mentions()){
-					List<Tree> mentionLeaves = m.node().getLeaves();
-					if(mentionLeaves.get(0) == leaf){
-						pw.printf("<mention mentionid=\"%d\" entityid=\"%s\">", m.ID(), eg.entName(m));
-					}
-				}
-				
-				pw.printf(leaf.yield().toString());
-				
-				for (Mention m : d.mentions()){
-					List<Tree> mentionLeaves = m.node().getLeaves();
-					if(mentionLeaves.get(mentionLeaves.size()-1) == leaf){
-						pw.printf("</mention>", eg.entName(m));
-					}
-				}
-				
-				
-				wordnum++;
+		List<List<Mention>> sentMentions = mentionsBySentence(d);
+		for (int si=0; si < d.sentences().size(); si++) {
+			Map<Mention,String> entityNames = new IdentityHashMap<Mention,String>();
+			for (Mention m : sentMentions.get(si)) {
+				entityNames.put(m, eg.entName(m));
 			}
-			
-			pw.printf("\n");
-			//pw.printf("</sentence>\n");
-			sentnum++;
+			writeTaggedSentence(d.sentences().get(si), sentMentions.get(si), entityNames, out);
 		}
-
-		//pw.printf("</doc>\n");
+		out.close();
+	}
+	
+	/** one line of the .tagged format; the mentions all need parse nodes **/
+	public static void writeTaggedSentence(Sentence s, List<Mention> mentions, Map<Mention,String> entityNames, Writer out) throws IOException {
+		TreeIndex index = s.treeIndex();
+		List<Tree> leaves = index.leaves();
 		
-		pw.close();
+		// which mentions open and close at each leaf, in one pass over the mentions
+		List<List<Mention>> opens = new ArrayList<List<Mention>>(leaves.size());
+		int[] closes = new int[leaves.size()];
+		for (int i=0; i < leaves.size(); i++) opens.add(null);
+		for (Mention m : mentions) {
+			int start = index.leafStart(m.node());
+			if (opens.get(start) == null) opens.set(start, new ArrayList<Mention>());
+			opens.get(start).add(m);
+			closes[index.leafEnd(m.node())-1]++;
+		}
 		
+		for (int i=0; i < leaves.size(); i++) {
+			if (i > 0) out.write(' ');
+			if (opens.get(i) != null) {
+				for (Mention m : opens.get(i)) {
+					out.write("<mention mentionid=\"");
+					out.write(Integer.toString(m.ID()));
+					out.write("\" entityid=\"");
+					out.write(entityNames.get(m));
+					out.write("\">");
+				}
+			}
+			out.write(leaves.get(i).value());
+			for (int c=0; c < closes[i]; c++) {
+				out.write("</mention>");
+			}
+		}
+		out.write('\n');
+	}
+	
+	public static void writeTaggedDocument(Document d, OutputStream os) throws IOException {
+		writeTaggedDocument(d, new OutputStreamWriter(os, "UTF-8"));
+	}
+	
+	/**
+	 * Each sentence's mentions, in document order.  Mentions without a parse node
+	 * (possible with -ace) can't be placed on the tokens and are left out.
+	 */
+	static List<List<Mention>> mentionsBySentence(Document d) {
+		Map<Sentence,Integer> sentIndex = new IdentityHashMap<Sentence,Integer>();
+		List<List<Mention>> res = new ArrayList<List<Mention>>();
+		for (Sentence s : d.sentences()) {
+			sentIndex.put(s, res.size());
+			res.add(new ArrayList<Mention>());
+		}
+		for (Mention m : d.mentions()) {
+			if (m.node() == null) continue;
+			res.get(sentIndex.get(m.getSentence())).add(m);
+		}
+		return res;
 	}
 	
 }
@@ -1,208 +1,210 @@
 package arkref.data;
 
 import java.util.*;
-import java.util.regex.Pattern;
 import java.io.*;
 
+import arkref.analysis.ARKref;
 import arkref.parsestuff.U;
 //import org.apache.commons.math.stat.correlation.SpearmansCorrelation;
 //import jsc.correlation.SpearmanCorrelation;
 //import jsc.datastructures.PairedData;
 
 
-/** experimental, doesn't work well **/
+/** 
+ * experimental, doesn't work well
+ * 
+ * NP context vectors, from a ContextStore (the cdbStoreFile property, built from
+ * the text files in BASE if it isn't there yet).  The most recently used vectors are kept,
+ * up to cdbCacheSize of them.
+ **/
 public class CDB {
 	public static String BASE = "/d/rtw/databig/categories";
-	public Map<String,Integer> npIndex, contextCounts, npCounts;
-	RandomAccessFile npContextsFile;
-	static Pattern TAB = Pattern.compile("\t");
-	static Pattern DASH= Pattern.compile("---");
+	ContextStore store;
 	Map<String,FV> cache;
 	
 	private static CDB INSTANCE=null;
-	public static CDB I() { if(INSTANCE==null) INSTANCE = new CDB(); return INSTANCE; }
+	public static synchronized CDB I() { if(INSTANCE==null) INSTANCE = new CDB(); return INSTANCE; }
 
 	public CDB() {
+		File storeFile = new File(ARKref.getProperties().getProperty("cdbStoreFile", BASE + "/np_contexts.bin"));
+		final int cacheSize = Integer.parseInt(ARKref.getProperties().getProperty("cdbCacheSize", "10000"));
 		try {
-			U.pf("loading CDB index/count files... ");
-			npIndex = loadNumberFile(BASE + "/np2c.index");
-			contextCounts = loadNumberFile(BASE + "/context_counts");
-			npCounts = loadNumberFile(BASE + "/np_counts");
-			U.pf("done.\n");
-			npContextsFile = new RandomAccessFile(BASE + "/cat_pairs_np-idx.txt", "r");
-			cache = new HashMap();
+			if (!storeFile.exists()) {
+				U.pf("building %s from %s... ", storeFile, BASE);
+				ContextStore.write(new File(BASE), storeFile);
+				U.pf("done.\n");
+			}
+			store = new ContextStore(storeFile);
 		} catch (IOException e) {
-			e.printStackTrace();
+			e.printStackTrace();  System.exit(-1);
 		}
+		cache = new LinkedHashMap<String,FV>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String,FV> eldest) {
+				return size() > cacheSize;
+			}
+		};
 	}
 	public boolean haveNP(String np) {
-		return npIndex.containsKey(np);
+		return store.haveNP(np);
 	}
 	public Set<String> getContexts(String np) {
-		String line = getContextLine(np);
-		HashSet<String> contexts = new HashSet();
-		for (String part : TAB.split(line)) {
-			String[] ctx_count = DASH.split(part);
-			contexts.add(ctx_count[0]);
+		HashSet<String> contexts = new HashSet<String>();
+		FV fv = getContextVector(np);
+		for (int id : fv.ids) {
+			contexts.add(contextName(id));
 		}
 		return contexts;
 	}
-	public String getContextLine(String np) {
-		assert haveNP(np);
-		
-		int offset = npIndex.get(np);
-		try {
-			npContextsFile.seek(offset);
-			return npContextsFile.readLine();
-		} catch (IOException e) {
-			e.printStackTrace();  System.exit(-1);
-		}
-		return null;
-	}
 	
+	/** @return null if we don't have the NP **/
 	public FV getContextVector(String np) {
-		if (cache.containsKey(np)) return cache.get(np);
-		String line = getContextLine(np);
-		FV fv = new FV();
-		String[]parts = TAB.split(line);
-		for (int i=1; i < parts.length; i++) {
-			String[] ctx_count = DASH.split(parts[i]);
-			if (ctx_count.length != 2) {
-				U.pl("BAD ENTRY: " + parts[i]);
-				continue;
-			}
-			if (ctx_count[0].equals("1")) continue; //bug in data
-			fv.map.put(ctx_count[0], Integer.parseInt(ctx_count[1]));
+		synchronized (cache) {
+			FV fv = cache.get(np);
+			if (fv != null) return fv;
+		}
+		FV fv = store.getContextVector(np);
+		if (fv == null) return null;
+		synchronized (cache) {
+			cache.put(np, fv);
 		}
-		cache.put(np, fv);
 		return fv;
 	}
-
-	private Map<String,Integer> loadNumberFile(String filename) throws IOException {
-		Map<String,Integer> counts = new HashMap();
-		BufferedReader br = new BufferedReader(new FileReader(filename));
-		String line;
-		while((line= br.readLine()) != null) {
-			String[] parts = line.split("\t");
-			counts.put(parts[0],Integer.parseInt(parts[1]));
-		}
-		return counts;
+	
+	public String contextName(int id) {
+		return store.contextName(id);
+	}
+	/** how often the context occurs over all NPs, -1 if unknown **/
+	public int contextCount(int id) {
+		return store.contextCount(id);
+	}
+	/** -1 if unknown **/
+	public int npCount(String np) {
+		return store.npCount(np);
 	}
 	
-	/** sparse feature vector, supporting some set-like semantics ... just for fun? **/
+	/** 
+	 * sparse feature vector: context IDs in ascending order, with parallel counts.
+	 * Set-like operations are merges of the two ID lists.
+	 **/
 	public static class FV {
-		public HashMap<String,Integer> map;
-		public double norm = -1;
-		public FV(){ map = new HashMap(); }
+		public final int[] ids;
+		public final int[] counts;
+		public final double norm;
+		public FV(int[] ids, int[] counts, double norm) {
+			this.ids = ids;
+			this.counts = counts;
+			this.norm = norm;
+		}
+		
+		/** count for a context ID, 0 if absent **/
+		public int get(int id) {
+			int i = Arrays.binarySearch(ids, id);
+			return i >= 0 ? counts[i] : 0;
+		}
 		
-		public static Set<String> keyIntersect(FV fv1, FV fv2) {
-			Set<String> keys = new HashSet();
-			keys.addAll( fv1.map.keySet() );
-			keys.retainAll( fv2.map.keySet() );
-			return keys;
+		public static int[] keyIntersect(FV fv1, FV fv2) {
+			int[] keys = new int[Math.min(fv1.ids.length, fv2.ids.length)];
+			int n=0;
+			for (int i=0, j=0; i < fv1.ids.length && j < fv2.ids.length; ) {
+				if (fv1.ids[i] < fv2.ids[j]) i++;
+				else if (fv1.ids[i] > fv2.ids[j]) j++;
+				else { keys[n++] = fv1.ids[i]; i++; j++; }
+			}
+			return Arrays.copyOf(keys, n);
+		}
+		public static int[] keyUnion(FV fv1, FV fv2) {
+			int[] keys = new int[fv1.ids.length + fv2.ids.length];
+			int n=0;
+			int i=0, j=0;
+			while (i < fv1.ids.length || j < fv2.ids.length) {
+				if (j == fv2.ids.length || (i < fv1.ids.length && fv1.ids[i] < fv2.ids[j])) keys[n++] = fv1.ids[i++];
+				else if (i == fv1.ids.length || fv1.ids[i] > fv2.ids[j]) keys[n++] = fv2.ids[j++];
+				else { keys[n++] = fv1.ids[i]; i++; j++; }
+			}
+			return Arrays.copyOf(keys, n);
 		}
-		public static Set<String> keyUnion(FV fv1, FV fv2) {
-			Set<String> keys = new HashSet();
-			keys.addAll( fv1.map.keySet() );
-			keys.addAll( fv2.map.keySet() );
-			return keys;
+		public static double jaccard(FV fv1, FV fv2) {
+			int x_and_y = keyIntersect(fv1, fv2).length;
+			return x_and_y*1.0 / (fv1.ids.length + fv2.ids.length - x_and_y);
 		}
 
 		public String toString() {
-			String[] keys = map.keySet().toArray(new String[0]);
-			sortBy(keys, new Scorer<String>(){
+			Integer[] order = order(box(counts), new Scorer<Integer>(){
 				@Override
-				public double score(String key) {
-					return -map.get(key);
+				public double score(Integer count) {
+					return -count;
 				}});
 			StringBuffer ret = new StringBuffer();
 			int maxlen = 50;
-			if (keys.length > maxlen)
-				ret.append(U.sf("top %d of %d\n", maxlen, keys.length));
+			if (order.length > maxlen)
+				ret.append(U.sf("top %d of %d\n", maxlen, order.length));
 			else
-				ret.append(U.sf("size %d\n", keys.length));
-			for (int i=0; i < Math.min(maxlen, keys.length); i++) {
-				String key = keys[i];
-				ret.append(map.get(key) + " " + key);
-				if (i < Math.min(maxlen,keys.length) - 1)  ret.append(" | ");
+				ret.append(U.sf("size %d\n", order.length));
+			for (int i=0; i < Math.min(maxlen, order.length); i++) {
+				ret.append(counts[order[i]] + " " + I().contextName(ids[order[i]]));
+				if (i < Math.min(maxlen,order.length) - 1)  ret.append(" | ");
 			}
 			return ret.toString();
 		}
 		public static void pairReport(final FV fv1, FV fv2) {
 			int max=50;
-			String[]keys = keyIntersect(fv1,fv2).toArray(new String[0]);
-			sortBy(keys, new Scorer<String>(){public double score(String k){ 
-				return -fv1.map.get(k); }} );
+			Integer[] keys = box(keyIntersect(fv1,fv2));
+			sortBy(keys, new Scorer<Integer>(){public double score(Integer k){ 
+				return -fv1.get(k); }} );
 //			U.pf("RHO %.3f\n", spearman(fv1,fv2));
 			U.pf("%8s  %4s %4s\n", "global", "fv1c", "fv2c");
 			U.pf("%8s  %4s %4s\n", "------", "----", "----");
 			int i=0;
-			for (String k : keys) {
+			for (int k : keys) {
 				if (i++ > max) break;
-				Integer c = I().contextCounts.get(k);
-				String sc = c==null ? "null" : U.sf("%.1e", c*1.0);
-				U.pf("%8s  %4d %4d | %s\n", sc, fv1.map.get(k), fv2.map.get(k), k);
+				int c = I().contextCount(k);
+				String sc = c==-1 ? "null" : U.sf("%.1e", c*1.0);
+				U.pf("%8s  %4d %4d | %s\n", sc, fv1.get(k), fv2.get(k), I().contextName(k));
 			}
 		}
-		public static <T, S> T getDefault(Map<S,T> map, S key, T def) {
-			if (map.containsKey(key))  return map.get(key);
-			return def;
-		}
-		static Map<String,Double> cosCache = new HashMap(); 
 		public static double cos(FV fv1, FV fv2) {
-//			String ckey = fv1.hashCode() + " " + fv2.hashCode();
-//			if (cosCache.containsKey(ckey)) return cosCache.get(ckey);
-			
-			double norm1 = norm(fv1);
-			double norm2 = norm(fv2);
 			double dotprod = 0;
-			for (String k : keyIntersect(fv1,fv2)) {
-				dotprod += fv1.map.get(k) * fv2.map.get(k);
+			for (int i=0, j=0; i < fv1.ids.length && j < fv2.ids.length; ) {
+				if (fv1.ids[i] < fv2.ids[j]) i++;
+				else if (fv1.ids[i] > fv2.ids[j]) j++;
+				else { dotprod += (double) fv1.counts[i] * fv2.counts[j]; i++; j++; }
 			}
-			double cos = dotprod / norm1 / norm2;
-//			cosCache.put(ckey, cos);
-			return cos;
+			return dotprod / fv1.norm / fv2.norm;
 		}
 		public static double norm(FV fv) {
-			if (fv.norm != -1) return fv.norm;
-			double n=0;
-			for (Integer v : fv.map.values()) {
-				n += v*v;
-			}
-			fv.norm = Math.sqrt(n);
 			return fv.norm;
 		}
 		public static double lcos(FV fv1, FV fv2) {
 			double norm1 = lnorm(fv1);
 			double norm2 = lnorm(fv2);
 			double dotprod = 0;
-			for (String k : keyIntersect(fv1,fv2)) {
-				dotprod += Math.log(1+fv1.map.get(k)) * Math.log(1+fv2.map.get(k));
+			for (int i=0, j=0; i < fv1.ids.length && j < fv2.ids.length; ) {
+				if (fv1.ids[i] < fv2.ids[j]) i++;
+				else if (fv1.ids[i] > fv2.ids[j]) j++;
+				else { dotprod += Math.log(1+fv1.counts[i]) * Math.log(1+fv2.counts[j]); i++; j++; }
 			}
 			return dotprod / norm1 / norm2;
 		}
 		public static double lnorm(FV fv) {
 			double n=0;
-			for (Integer v : fv.map.values()) {
+			for (int v : fv.counts) {
 				n += Math.log(1+v)*Math.log(1+v);
 			}
 			return Math.sqrt(n);
 		}
 		public static double spearman_and(FV fv1, FV fv2) {
-			String[] keys = FV.keyIntersect(fv1,fv2).toArray(new String[0]);
-			return _spearman(keys, fv1, fv2);
+			return _spearman(keyIntersect(fv1,fv2), fv1, fv2);
 		}
 		public static double spearman_or(FV fv1, FV fv2) {
-			String[] keys = FV.keyUnion(fv1,fv2).toArray(new String[0]);
-			return _spearman(keys, fv1, fv2);
+			return _spearman(keyUnion(fv1,fv2), fv1, fv2);
 		}
-		public static double _spearman(String[] keys, FV fv1, FV fv2) {
+		public static double _spearman(int[] keys, FV fv1, FV fv2) {
 			assert false : "disabled!";
 			double[] vals1 = new double[keys.length];
 			double[] vals2 = new double[keys.length];
 			for (int i=0; i < keys.length; i++) {
-				vals1[i] = getDefault(fv1.map, keys[i], 0) + 1;
-				vals2[i] = getDefault(fv2.map, keys[i], 0) + 1;
+				vals1[i] = fv1.get(keys[i]) + 1;
+				vals2[i] = fv2.get(keys[i]) + 1;
 			}
 //			U.pl(StringUtils.join(box(vals1), " "));
 //			U.pl(StringUtils.join(box(vals2)," "));
@@ -300,7 +302,7 @@ public class CDB {
 			FV fv2 = I().getContextVector(np2);
 //			U.pl("LOOKUP DONE");
 //			U.pf("Intersection size = %d\n", FV.keyIntersect(fv1, fv2).size());
-			U.pf("jacc=%.5f ", jaccard(fv1.map.keySet(), fv2.map.keySet()));
+			U.pf("jacc=%.5f ", FV.jaccard(fv1, fv2));
 //			U.pf("rho_and=%.5f ", FV.spearman_and(fv1,fv2));		
 			U.pf("rho_or=%.5f ", FV.spearman_or(fv1,fv2));
 			U.pf("cos=%.5f ", FV.cos(fv1,fv2));
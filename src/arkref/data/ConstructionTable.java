@@ -0,0 +1,59 @@
+package arkref.data;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * The syntactic constructions that link a mention straight to its antecedent
+ * (appositives, role appositives, predicate nominatives), found once per sentence
+ * by FindMentions.findConstructions.  Keyed by the mention's parse node, by identity.
+ */
+public class ConstructionTable {
+	private final Map<Tree,Mention> appositive = new IdentityHashMap<Tree,Mention>();
+	private final Map<Tree,Mention> roleAppositive = new IdentityHashMap<Tree,Mention>();
+	private final Map<Tree,Mention> predicateNominative = new IdentityHashMap<Tree,Mention>();
+
+	/** for the third child in NP -> NP , NP ..., the closest earlier mention on the parent NP **/
+	public Mention appositiveAntecedent(Tree node) {
+		return appositive.get(node);
+	}
+
+	/** for the title in e.g. "painter Pablo Picasso", the person mention it describes **/
+	public Mention roleAppositiveAntecedent(Tree node) {
+		return roleAppositive.get(node);
+	}
+
+	/** for np2 in "np1 is np2", the mention on np1 **/
+	public Mention predicateNominativeAntecedent(Tree node) {
+		return predicateNominative.get(node);
+	}
+
+	/** the first link found for a node wins, as when the patterns were matched per mention **/
+	public void addAppositive(Tree node, Mention antecedent) {
+		if (!appositive.containsKey(node)) appositive.put(node, antecedent);
+	}
+
+	public void addRoleAppositive(Tree node, Mention antecedent) {
+		if (!roleAppositive.containsKey(node)) roleAppositive.put(node, antecedent);
+	}
+
+	public void addPredicateNominative(Tree node, Mention antecedent) {
+		if (!predicateNominative.containsKey(node)) predicateNominative.put(node, antecedent);
+	}
+
+	/** the links never cross sentences, so this drops every link in the earlier ones **/
+	public void forgetSentencesBefore(int sentenceId) {
+		forget(appositive, sentenceId);
+		forget(roleAppositive, sentenceId);
+		forget(predicateNominative, sentenceId);
+	}
+
+	private static void forget(Map<Tree,Mention> links, int sentenceId) {
+		for (Iterator<Mention> it = links.values().iterator(); it.hasNext(); ) {
+			if (it.next().getSentence().ID() < sentenceId) it.remove();
+		}
+	}
+}
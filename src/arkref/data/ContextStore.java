@@ -0,0 +1,322 @@
+package arkref.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The NP -> context count vectors behind CDB, compiled into a memory-mapped file.
+ * Contexts are interned to integer IDs, each NP's vector is stored as sorted ID and count
+ * arrays with its norm, and NPs are found through an open-addressing hash table,
+ * so a lookup decodes only the one vector asked for.
+ *
+ * Layout, big-endian:
+ *   int MAGIC, int VERSION
+ *   int number of contexts, int offset of the context section
+ *   int number of NPs, int number of slots (a power of two), int[] slots
+ *     holding entry offsets, 0 for empty; linear probing from np.hashCode()
+ *   entries: int np.hashCode(), int NP count (-1 if unknown), double norm, int number of contexts,
+ *     short length, NP chars, int[] context IDs (ascending), int[] counts
+ *   context section: int[] name offsets, int[] global counts (-1 if unknown),
+ *     then the names, each short length, chars
+ *
+ * Offsets are ints, so a store tops out at 2GB.
+ *
+ * To build it from the text files CDB used to read:
+ *   java arkref.data.ContextStore /d/rtw/databig/categories np_contexts.bin
+ */
+public class ContextStore {
+	public static final int MAGIC = 0x41524b43; // "ARKC"
+	public static final int VERSION = 1;
+
+	private final MappedByteBuffer buf;
+	private final int numContexts;
+	private final int contextsAt;
+	private final int numNPs;
+	private final int slotsAt;
+	private final int slotMask;
+
+	public ContextStore(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+			throw new IOException("not a version " + VERSION + " context store: " + path);
+		}
+		numContexts = buf.getInt(8);
+		contextsAt = buf.getInt(12);
+		numNPs = buf.getInt(16);
+		slotMask = buf.getInt(20) - 1;
+		slotsAt = 24;
+	}
+
+	public boolean haveNP(String np) {
+		return find(np) != 0;
+	}
+
+	/** @return null if the NP isn't in the store **/
+	public CDB.FV getContextVector(String np) {
+		int at = find(np);
+		if (at == 0) return null;
+		double norm = buf.getDouble(at + 8);
+		int n = buf.getInt(at + 16);
+		at += 20;
+		at += 2 + 2*buf.getShort(at);
+		int[] ids = new int[n];
+		int[] counts = new int[n];
+		for (int k=0; k < n; k++) {
+			ids[k] = buf.getInt(at + 4*k);
+			counts[k] = buf.getInt(at + 4*(n + k));
+		}
+		return new CDB.FV(ids, counts, norm);
+	}
+
+	/** @return -1 if unknown **/
+	public int npCount(String np) {
+		int at = find(np);
+		return (at == 0) ? -1 : buf.getInt(at + 4);
+	}
+
+	public String contextName(int id) {
+		int at = buf.getInt(contextsAt + 4*id);
+		return readChars(at + 2, buf.getShort(at));
+	}
+
+	/** @return -1 if unknown **/
+	public int contextCount(int id) {
+		return buf.getInt(contextsAt + 4*(numContexts + id));
+	}
+
+	public int numNPs() {
+		return numNPs;
+	}
+
+	public int numContexts() {
+		return numContexts;
+	}
+
+	private int find(String np) {
+		int hash = np.hashCode();
+		for (int slot = slotFor(hash, slotMask); ; slot = (slot + 1) & slotMask) {
+			int at = buf.getInt(slotsAt + 4*slot);
+			if (at == 0) return 0;
+			if (buf.getInt(at) == hash && sameChars(at + 20, np)) return at;
+		}
+	}
+
+	private static int slotFor(int hash, int slotMask) {
+		int h = hash ^ (hash >>> 16);
+		return (h * 0x9e3779b1) & slotMask;
+	}
+
+	private boolean sameChars(int at, String s) {
+		int len = buf.getShort(at);
+		if (len != s.length()) return false;
+		at += 2;
+		for (int k=0; k < len; k++) {
+			if (buf.getChar(at + 2*k) != s.charAt(k)) return false;
+		}
+		return true;
+	}
+
+	private String readChars(int at, int len) {
+		char[] chars = new char[len];
+		for (int k=0; k < len; k++) {
+			chars[k] = buf.getChar(at + 2*k);
+		}
+		return new String(chars);
+	}
+
+	static final Pattern TAB = Pattern.compile("\t");
+	static final Pattern DASH = Pattern.compile("---");
+
+	/**
+	 * Reads np2c.index, np_counts, context_counts and cat_pairs_np-idx.txt from dir, the way
+	 * CDB did: each NP's vector is the line np2c.index points it at, skipping the first field,
+	 * malformed "context---count" pairs and the bogus context "1".
+	 *
+	 * The store is written next to out and renamed into place when it's complete, so an
+	 * interrupted build never leaves a partial store at out.
+	 */
+	public static void write(File dir, File out) throws IOException {
+		File part = File.createTempFile(out.getName(), ".part", out.getAbsoluteFile().getParentFile());
+		try {
+			writeTo(dir, part);
+			if (!part.renameTo(out) && !(out.delete() && part.renameTo(out))) {
+				throw new IOException("could not rename " + part + " to " + out);
+			}
+		} finally {
+			part.delete();
+		}
+	}
+
+	private static void writeTo(File dir, File out) throws IOException {
+		Map<String,Integer> npIndex = loadNumberFile(new File(dir, "np2c.index"));
+		Map<String,Integer> npCounts = loadNumberFile(new File(dir, "np_counts"));
+		Map<String,Integer> contextCounts = loadNumberFile(new File(dir, "context_counts"));
+
+		Map<Long,List<String>> npsAt = new HashMap<Long,List<String>>();
+		for (Map.Entry<String,Integer> e : npIndex.entrySet()) {
+			long offset = e.getValue();
+			if (!npsAt.containsKey(offset)) npsAt.put(offset, new ArrayList<String>());
+			npsAt.get(offset).add(e.getKey());
+		}
+
+		int numSlots = 1;
+		while (numSlots < 2*npIndex.size()) numSlots *= 2;
+		long entriesAt = 24 + 4L*numSlots;
+
+		// entries go to a temp file first, since the slots in front of them need their offsets
+		File tmp = File.createTempFile("contexts", ".tmp", out.getAbsoluteFile().getParentFile());
+		tmp.deleteOnExit();
+		DataOutputStream entries = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		Map<String,Integer> contextIds = new HashMap<String,Integer>();
+		List<String> contexts = new ArrayList<String>();
+		int[] slots = new int[numSlots];
+
+		InputStream in = new BufferedInputStream(new FileInputStream(new File(dir, "cat_pairs_np-idx.txt")));
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long lineStart = 0, pos = 0;
+		int c;
+		do {
+			c = in.read();
+			if (c != -1 && c != '\n') {
+				line.write(c);
+				pos++;
+				continue;
+			}
+			List<String> nps = npsAt.get(lineStart);
+			if (nps != null) {
+				TreeMap<Integer,Integer> vector = new TreeMap<Integer,Integer>();
+				String text = line.toString("UTF-8");
+				if (text.endsWith("\r")) text = text.substring(0, text.length() - 1);
+				String[] parts = TAB.split(text);
+				for (int i=1; i < parts.length; i++) {
+					String[] ctx_count = DASH.split(parts[i]);
+					if (ctx_count.length != 2) continue;
+					if (ctx_count[0].equals("1")) continue; //bug in data
+					Integer id = contextIds.get(ctx_count[0]);
+					if (id == null) {
+						id = contexts.size();
+						contextIds.put(ctx_count[0], id);
+						contexts.add(ctx_count[0]);
+					}
+					vector.put(id, Integer.parseInt(ctx_count[1]));
+				}
+				double norm = 0;
+				for (int v : vector.values()) norm += (double) v*v;
+				norm = Math.sqrt(norm);
+				for (String np : nps) {
+					long at = entriesAt + entries.size();
+					if (at + 22 + 2*np.length() + 8L*vector.size() > Integer.MAX_VALUE) {
+						throw new IOException("too big for a context store");
+					}
+					int slot = slotFor(np.hashCode(), numSlots - 1);
+					while (slots[slot] != 0) slot = (slot + 1) & (numSlots - 1);
+					slots[slot] = (int) at;
+					Integer npCount = npCounts.get(np);
+					entries.writeInt(np.hashCode());
+					entries.writeInt(npCount == null ? -1 : npCount);
+					entries.writeDouble(norm);
+					entries.writeInt(vector.size());
+					writeChars(entries, np);
+					for (int id : vector.keySet()) entries.writeInt(id);
+					for (int v : vector.values()) entries.writeInt(v);
+				}
+			}
+			line.reset();
+			pos++;
+			lineStart = pos;
+		} while (c != -1);
+		in.close();
+		entries.close();
+
+		long contextsAt = entriesAt + tmp.length();
+		int[] nameOffsets = new int[contexts.size()];
+		long nameAt = contextsAt + 8L*contexts.size();
+		for (int i=0; i < contexts.size(); i++) {
+			if (nameAt > Integer.MAX_VALUE) throw new IOException("too big for a context store");
+			nameOffsets[i] = (int) nameAt;
+			nameAt += 2 + 2*contexts.get(i).length();
+		}
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeInt(contexts.size());
+		dos.writeInt((int) contextsAt);
+		dos.writeInt(npIndex.size());
+		dos.writeInt(numSlots);
+		for (int slot : slots) {
+			dos.writeInt(slot);
+		}
+		DataInputStream tmpIn = new DataInputStream(new BufferedInputStream(new FileInputStream(tmp)));
+		byte[] chunk = new byte[1 << 16];
+		int n;
+		while ((n = tmpIn.read(chunk)) != -1) {
+			dos.write(chunk, 0, n);
+		}
+		tmpIn.close();
+		tmp.delete();
+		for (int offset : nameOffsets) {
+			dos.writeInt(offset);
+		}
+		for (String context : contexts) {
+			Integer count = contextCounts.get(context);
+			dos.writeInt(count == null ? -1 : count);
+		}
+		for (String context : contexts) {
+			writeChars(dos, context);
+		}
+		dos.close();
+	}
+
+	private static Map<String,Integer> loadNumberFile(File file) throws IOException {
+		Map<String,Integer> counts = new HashMap<String,Integer>();
+		BufferedReader br = new BufferedReader(new FileReader(file));
+		String line;
+		while((line= br.readLine()) != null) {
+			String[] parts = TAB.split(line);
+			counts.put(parts[0],Integer.parseInt(parts[1]));
+		}
+		br.close();
+		return counts;
+	}
+
+	private static void writeChars(DataOutputStream dos, String s) throws IOException {
+		if (s.length() > Short.MAX_VALUE) throw new IOException("too long for the context store: " + s);
+		dos.writeShort(s.length());
+		dos.writeChars(s);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: ContextStore CATEGORIES_DIR np_contexts.bin");
+			System.exit(-1);
+		}
+		write(new File(args[0]), new File(args[1]));
+		ContextStore store = new ContextStore(new File(args[1]));
+		System.err.println("wrote " + store.numNPs() + " NPs and " + store.numContexts() + " contexts to " + args[1]);
+	}
+}
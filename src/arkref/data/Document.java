@@ -31,6 +31,17 @@ public class Document implements Serializable{
 	private RefGraph refGraph;
 	private Tree docTree = null; //tree that includes all the trees for the sentences, in order, under a dummy node	
 	private EntityGraph entGraph;
+	/** position of each mention in mentions **/
+	private Map<Mention,Integer> mentionPositions = new IdentityHashMap<Mention,Integer>();
+	/** mention positions keyed by lowercased head word, and by the head word's first HEAD_PREFIX_LENGTH characters; built on first use **/
+	private transient Map<String,List<Integer>> headWordIndex = null;
+	private transient Map<String,List<Integer>> headPrefixIndex = null;
+	public static final int HEAD_PREFIX_LENGTH = 4;
+	/** appositive etc. links, from FindMentions.findConstructions **/
+	private transient ConstructionTable constructions = null;
+	/** IDs handed out so far; more than sentences.size() etc. once forgetSentencesBefore() has been called **/
+	private int numSentencesAdded = 0;
+	private int numMentionsAdded = 0;
 
 
 	public Document() {
@@ -81,7 +92,7 @@ public class Document implements Serializable{
 		
 		do {
 			res = node2mention.get(s, tmpNode);
-			tmpNode = tmpNode.parent(s.rootNode());
+			tmpNode = s.treeIndex().parent(tmpNode);
 		} while(res == null && tmpNode != null);
 			
 		return res;
@@ -106,7 +117,7 @@ public class Document implements Serializable{
 	}
 	
 	public Tree findNodeThatCoversSpan(Sentence sent, int spanStart, int spanEnd) {
-		List<Tree> leaves = sent.rootNode().getLeaves();
+		List<Tree> leaves = sent.treeIndex().leaves();
 		if(spanStart < 0 || leaves.size() == 0 || spanEnd >= leaves.size()) {
 			return null;
 		}
@@ -116,23 +127,51 @@ public class Document implements Serializable{
 		return findNodeThatCoversSpan(sent, startLeaf, endLeaf);
 	}
 	public Tree findNodeThatCoversSpan(Sentence sent, Tree startLeaf, Tree endLeaf) {
+		TreeIndex index = sent.treeIndex();
 		Tree cur = startLeaf;
 		while(cur != null) {
-			if (cur.dominates(startLeaf) && cur.dominates(endLeaf))
+			if (index.dominates(cur, startLeaf) && index.dominates(cur, endLeaf))
 				return cur;
-			cur = cur.parent(sent.rootNode());
+			cur = index.parent(cur);
 		}
 		assert false : "got to top without finding covering span";
 		return cur;
 	}
 	public Tree getLeaf(int sentenceIndex, int leafIndex) {
 		Sentence sent = sentences.get(sentenceIndex);
-		List<Tree> leaves = sent.rootNode().getLeaves();
-		return leaves.get(leafIndex);
+		return sent.treeIndex().leaves().get(leafIndex);
 	}
 
 
+	/**
+	 * Loads path's .parse and .sst files, or its DocumentSnapshot if they haven't changed since it was made.
+	 * When the text files are read, a snapshot is written for next time, unless the
+	 * documentSnapshots property is false.
+	 */
 	public static Document loadFiles(String path) throws IOException {
+		boolean useSnapshots = !ARKref.getProperties().getProperty("documentSnapshots", "true").equals("false");
+		if (useSnapshots && DocumentSnapshot.isFresh(path)) {
+			try {
+				return DocumentSnapshot.read(DocumentSnapshot.fileFor(path));
+			} catch (IOException e) {
+				// e.g. from an older version; it gets rewritten below
+				U.pl("Can't read " + DocumentSnapshot.fileFor(path) + ": " + e);
+			}
+		}
+		long[] stamp = DocumentSnapshot.sourceStamp(path);
+		Document d = loadText(path);
+		if (useSnapshots) {
+			try {
+				DocumentSnapshot.write(d, DocumentSnapshot.fileFor(path), stamp);
+			} catch (IOException e) {
+				U.pl("Can't write " + DocumentSnapshot.fileFor(path) + ": " + e);
+			}
+		}
+		return d;
+	}
+	
+	/** loadFiles() without the snapshot: always parses the .parse and .sst text **/
+	public static Document loadText(String path) throws IOException {
 		Document d = new Document();
 
 		String shortpath = Preprocess.shortPath(path);
@@ -143,31 +182,87 @@ public class Document implements Serializable{
 		BufferedReader sstR = new BufferedReader(new FileReader(neFilename));
 		
 		String parseLine, sst;
-		int curSentId = 0;
 		while ( (parseLine = parseR.readLine()) != null) {
-			Sentence sent = new Sentence(++curSentId);
-			
-			parseLine = parseLine.replace("=H ", " ");
-			Tree tree = null;
-			if (parseLine.split("\t").length == 1) {
-				// old version: just the parse
-				tree = AnalysisUtilities.getInstance().readTreeFromString(parseLine);
-				sent.hasParse = true;
-			} else {
-				tree = AnalysisUtilities.getInstance().readTreeFromString(parseLine.split("\t")[2]);
-				sent.hasParse = !parseLine.split("\t")[0].equals("ERROR");
-			}
-			
-			Document.addNPsAbovePossessivePronouns(tree);
-			Document.addInternalNPStructureForRoleAppositives(tree);
-
 			sst = sstR.readLine();
-			sent.setStuff(tree, sst, sent.hasParse);
-			d.sentences.add(sent);
+			d.addSentence(parseLine, sst);
+		}
+		parseR.close();
+		sstR.close();
+		return d;
+	}
+	
+	/**
+	 * Same as loadFiles(), but from .parse and .sst lines already in memory,
+	 * e.g. straight out of Preprocess.preprocessText().
+	 */
+	public static Document loadLines(List<String> parseLines, List<String> sstLines) {
+		Document d = new Document();
+		for (int i=0; i < parseLines.size(); i++) {
+			d.addSentence(parseLines.get(i), sstLines.get(i));
 		}
 		return d;
 	}
 	
+	/** one line of a .parse file and the matching line of the .sst file **/
+	public Sentence addSentence(String parseLine, String sst) {
+		Sentence sent = new Sentence(++numSentencesAdded);
+		
+		parseLine = parseLine.replace("=H ", " ");
+		Tree tree = null;
+		if (parseLine.split("\t").length == 1) {
+			// old version: just the parse
+			tree = AnalysisUtilities.getInstance().readTreeFromString(parseLine);
+			sent.hasParse = true;
+		} else {
+			tree = AnalysisUtilities.getInstance().readTreeFromString(parseLine.split("\t")[2]);
+			sent.hasParse = !parseLine.split("\t")[0].equals("ERROR");
+		}
+		
+		Document.addNPsAbovePossessivePronouns(tree);
+		Document.addInternalNPStructureForRoleAppositives(tree);
+
+		sent.setStuff(tree, sst, sent.hasParse);
+		sentences.add(sent);
+		docTree = null;
+		return sent;
+	}
+	
+	/** a sentence whose tree has already had the rewrites above, e.g. from a DocumentSnapshot **/
+	public Sentence addSentence(Tree tree, String[] tokens, String[] ssTags, boolean hasParse) {
+		Sentence sent = new Sentence(++numSentencesAdded);
+		sent.hasParse = hasParse;
+		sent.setWords(tree, tokens, ssTags, hasParse);
+		sentences.add(sent);
+		docTree = null;
+		return sent;
+	}
+	
+	/**
+	 * Drops the sentences before sentenceId, and their mentions, so a document can be
+	 * resolved as a stream in bounded memory (see StreamingResolver).  The remaining
+	 * sentences and mentions keep their IDs.
+	 */
+	public void forgetSentencesBefore(int sentenceId) {
+		int numSentences = 0;
+		while (numSentences < sentences.size() && sentences.get(numSentences).ID() < sentenceId) numSentences++;
+		int numMentions = 0;
+		while (numMentions < mentions.size() && mentions.get(numMentions).getSentence().ID() < sentenceId) numMentions++;
+		for (Mention m : mentions.subList(0, numMentions)) {
+			refGraph.forget(m);
+			if (m.node() != null) node2mention.remove(m.getSentence(), m.node());
+		}
+		sentences.subList(0, numSentences).clear();
+		mentions.subList(0, numMentions).clear();
+		mentionPositions.clear();
+		for (int i=0; i < mentions.size(); i++) {
+			mentionPositions.put(mentions.get(i), i);
+		}
+		headWordIndex = null;
+		headPrefixIndex = null;
+		docTree = null;
+		if (constructions != null) constructions.forgetSentencesBefore(sentenceId);
+	}
+	
 	/** do sentence breaking (again) on the .txt file for surface info, after parses etc. have been loaded 
 	 * @throws FileNotFoundException **/
 	public void loadSurfaceSentences(String path) throws FileNotFoundException {
@@ -262,12 +357,7 @@ public class Document implements Serializable{
 		int startingSentence = -1;
 		public MentionRevIterIter(Mention start) {
 			startingSentence = start.getSentence().ID();
-			for (int i=0; i < mentions.size(); i++) {
-				if (mentions.get(i) == start) {
-					this.mi = i;
-					break;
-				}
-			} 
+			this.mi = mentionPosition(start);
 			assert mi != -1;
 		}
 
@@ -331,7 +421,9 @@ public class Document implements Serializable{
 	public void doTokenAlignments(String docText) {
 		U.pl("*** Stanford <-> Raw Text alignment ***\n");
 		for (Sentence s : sentences) {
-			U.pf("S%-2d\t%s\n", s.ID(), StringUtils.join(s.tokens()));
+			if (ARKref.showDebug()) {
+				U.pf("S%-2d\t%s\n", s.ID(), StringUtils.join(s.tokens()));
+			}
 //			U.pl("SENTENCE WORDS     " + s.words);
 //			U.pl("" + s.surfSent);
 //			U.pl("" + s.surfSent.rawText);
@@ -392,9 +484,99 @@ public class Document implements Serializable{
 		return entGraph;
 	}
 
+	/** index of the mention in mentions(), or -1 **/
+	public int mentionPosition(Mention m) {
+		Integer i = mentionPositions.get(m);
+		return (i == null) ? -1 : i;
+	}
+	
+	/**
+	 * Like prevMentions(), but only the ones whose head word is the same as start's
+	 * ignoring case, or starts with the same HEAD_PREFIX_LENGTH characters.
+	 * Those are the only candidates the head-word and substring tests in Resolve can accept.
+	 * Closest first, within the sentence window.
+	 */
+	public List<Mention> prevMentionsSharingHead(Mention start) {
+		if (headWordIndex == null) {
+			headWordIndex = new HashMap<String,List<Integer>>();
+			headPrefixIndex = new HashMap<String,List<Integer>>();
+			for (int i=0; i < mentions.size(); i++) {
+				indexHead(mentions.get(i), i);
+			}
+		}
+		String head = start.getHeadWord();
+		List<Integer> sameHead = headWordIndex.get(head.toLowerCase());
+		List<Integer> samePrefix = (head.length() >= HEAD_PREFIX_LENGTH) ? headPrefixIndex.get(head.substring(0, HEAD_PREFIX_LENGTH)) : null;
+		
+		// merge the two ascending lists, walking backwards from start
+		int startPos = mentionPosition(start);
+		int startingSentence = start.getSentence().ID();
+		int a = lastBefore(sameHead, startPos);
+		int b = lastBefore(samePrefix, startPos);
+		List<Mention> res = new ArrayList<Mention>();
+		while (a >= 0 || b >= 0) {
+			int pa = (a >= 0) ? sameHead.get(a) : -1;
+			int pb = (b >= 0) ? samePrefix.get(b) : -1;
+			int p = (pa > pb) ? pa : pb;
+			if (pa == p) a--;
+			if (pb == p) b--;
+			Mention m = mentions.get(p);
+			if (startingSentence - m.getSentence().ID() > ARKref.Opts.sentenceWindow)
+				break;
+			res.add(m);
+		}
+		return res;
+	}
+	
+	private void indexHead(Mention m, int pos) {
+		String head = m.getHeadWord();
+		addToIndex(headWordIndex, head.toLowerCase(), pos);
+		if (head.length() >= HEAD_PREFIX_LENGTH) {
+			addToIndex(headPrefixIndex, head.substring(0, HEAD_PREFIX_LENGTH), pos);
+		}
+	}
+	
+	private static void addToIndex(Map<String,List<Integer>> index, String key, int pos) {
+		List<Integer> positions = index.get(key);
+		if (positions == null) {
+			positions = new ArrayList<Integer>();
+			index.put(key, positions);
+		}
+		positions.add(pos);
+	}
+	
+	/** index into the ascending list of the last position before pos, or -1 **/
+	private static int lastBefore(List<Integer> positions, int pos) {
+		if (positions == null) return -1;
+		int i = Collections.binarySearch(positions, pos);
+		if (i < 0) i = -i-1;
+		return i-1;
+	}
+
+	/** built on first use if FindMentions didn't already **/
+	public ConstructionTable constructions() {
+		if (constructions == null) {
+			constructions = FindMentions.findConstructions(this);
+		}
+		return constructions;
+	}
+	
+	public void setConstructions(ConstructionTable constructions) {
+		this.constructions = constructions;
+	}
+
 	public Mention newMention(Sentence s, Tree subtree) {
-		Mention mention = new Mention(mentions.size()+1, s, subtree);
+		Mention mention = new Mention(++numMentionsAdded, s, subtree);
+		mentionPositions.put(mention, mentions.size());
 		mentions.add(mention);
+		if (headWordIndex != null && subtree != null) {
+			// mentions arriving between resolutions (StreamingResolver) go straight in
+			indexHead(mention, mentions.size()-1);
+		} else {
+			headWordIndex = null;
+			headPrefixIndex = null;
+		}
+		constructions = null;
 		if (subtree != null)
 			node2mention.put(s, subtree, mention);
 		return mention;
@@ -0,0 +1,308 @@
+package arkref.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import arkref.analysis.Preprocess;
+
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+
+/**
+ * A loaded document's sentences, written so they can be loaded again without any text parsing:
+ * the trees as they are after Document's rewrites (possessive and role appositive NPs), and the
+ * .sst line already split into token and tag columns.  Document.loadFiles() uses one of these
+ * instead of the .parse and .sst files as long as they still have the sizes and modification
+ * times recorded in it (see sourceStamp), so a rewrite in the same second is noticed too.
+ *
+ * Trees are stored in preorder, as label IDs and child counts; labels, tokens and tags all
+ * share one string table.  IDs are two bytes wide unless a document has more than 65535
+ * different strings.
+ *
+ * Layout, big-endian:
+ *   int MAGIC, int VERSION
+ *   int number of strings, int offset of the string section, int ID width (2 or 4)
+ *   int number of sentences
+ *   long .parse size, long .parse mtime, long .sst size, long .sst mtime (all -1 if unknown)
+ *   int[] sentence offsets
+ *   sentences: byte hasParse, int number of nodes, ID[] labels, short[] child counts,
+ *     int number of words, ID[] tokens, ID[] tags
+ *   string section: int[] offsets, then the strings, each short length, chars; string 0 is
+ *     a placeholder, so that label 0 can mean none
+ *
+ * To write them for already-preprocessed documents:
+ *   java arkref.data.DocumentSnapshot data/*.sent
+ */
+public class DocumentSnapshot {
+	public static final int MAGIC = 0x41524b44; // "ARKD"
+	public static final int VERSION = 2;
+	public static final String EXTENSION = ".snapshot";
+	/** the label ID of nodes without one, e.g. the unlabeled root of some treebank trees **/
+	private static final int NO_LABEL = 0;
+	private static final int STAMP_AT = 24;
+	private static final int HEADER_BYTES = STAMP_AT + 32;
+	private static final long[] NO_STAMP = {-1, -1, -1, -1};
+
+	/** where loadFiles() looks for the snapshot of path **/
+	public static File fileFor(String path) {
+		return new File(Preprocess.shortPath(path) + EXTENSION);
+	}
+
+	/**
+	 * The sizes and modification times of path's .parse and .sst files, to be recorded in
+	 * the snapshot made from them.  Take it before reading the files, so that a change made
+	 * while they're being read makes the snapshot stale rather than wrong.
+	 *
+	 * @return null if either file is missing
+	 */
+	public static long[] sourceStamp(String path) {
+		String shortpath = Preprocess.shortPath(path);
+		File parse = new File(shortpath + ".parse");
+		File sst = new File(shortpath + ".sst");
+		if (!parse.exists() || !sst.exists()) {
+			return null;
+		}
+		return new long[]{ parse.length(), parse.lastModified(), sst.length(), sst.lastModified() };
+	}
+
+	/** true if the snapshot exists and the .parse and .sst files are exactly as they were when it was made **/
+	public static boolean isFresh(String path) {
+		File snapshot = fileFor(path);
+		long[] stamp = sourceStamp(path);
+		if (stamp == null || !snapshot.exists()) {
+			return false;
+		}
+		try {
+			RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+			try {
+				if (file.length() < HEADER_BYTES || file.readInt() != MAGIC || file.readInt() != VERSION) {
+					return false;
+				}
+				file.seek(STAMP_AT);
+				for (long value : stamp) {
+					if (file.readLong() != value) return false;
+				}
+				return true;
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public static Document read(File path) throws IOException {
+		MappedByteBuffer buf;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+			throw new IOException("not a version " + VERSION + " document snapshot: " + path);
+		}
+		String[] strings = new String[buf.getInt(8)];
+		int stringsAt = buf.getInt(12);
+		int width = buf.getInt(16);
+		for (int i=0; i < strings.length; i++) {
+			int at = buf.getInt(stringsAt + 4*i);
+			char[] chars = new char[buf.getShort(at)];
+			for (int k=0; k < chars.length; k++) {
+				chars[k] = buf.getChar(at + 2 + 2*k);
+			}
+			strings[i] = new String(chars);
+		}
+
+		// the factory AnalysisUtilities.readTreeFromString() parses with
+		TreeFactory factory = new LabeledScoredTreeFactory();
+		Document d = new Document();
+		int numSentences = buf.getInt(20);
+		for (int s=0; s < numSentences; s++) {
+			int at = buf.getInt(HEADER_BYTES + 4*s);
+			boolean hasParse = buf.get(at) != 0;
+			int numNodes = buf.getInt(at + 1);
+			int labelsAt = at + 5;
+			int childCountsAt = labelsAt + width*numNodes;
+			Tree root = readTree(buf, width, labelsAt, childCountsAt, numNodes, strings, factory);
+			at = childCountsAt + 2*numNodes;
+			int numWords = buf.getInt(at);
+			at += 4;
+			String[] tokens = new String[numWords];
+			String[] ssTags = new String[numWords];
+			for (int i=0; i < numWords; i++) {
+				tokens[i] = strings[readId(buf, width, at + width*i)];
+				ssTags[i] = strings[readId(buf, width, at + width*(numWords + i))];
+			}
+			d.addSentence(root, tokens, ssTags, hasParse);
+		}
+		return d;
+	}
+
+	/** rebuilds the preorder arrays bottom up, so it isn't recursive **/
+	private static Tree readTree(MappedByteBuffer buf, int width, int labelsAt, int childCountsAt, int numNodes,
+			String[] strings, TreeFactory factory) {
+		List<Tree> stack = new ArrayList<Tree>();
+		for (int n = numNodes-1; n >= 0; n--) {
+			int label = readId(buf, width, labelsAt + width*n);
+			String value = (label == NO_LABEL) ? null : strings[label];
+			int numChildren = buf.getShort(childCountsAt + 2*n);
+			if (numChildren == 0) {
+				stack.add(factory.newLeaf(value));
+				continue;
+			}
+			// the children are on top of the stack, first child last
+			List<Tree> children = new ArrayList<Tree>(numChildren);
+			for (int c=0; c < numChildren; c++) {
+				children.add(stack.remove(stack.size()-1));
+			}
+			stack.add(factory.newTreeNode(value, children));
+		}
+		return stack.get(0);
+	}
+
+	private static int readId(MappedByteBuffer buf, int width, int at) {
+		return (width == 2) ? buf.getChar(at) : buf.getInt(at);
+	}
+
+	/** writes a snapshot that is never fresh, e.g. of a document that didn't come from files **/
+	public static void write(Document d, File out) throws IOException {
+		write(d, out, null);
+	}
+
+	/** @param stamp the sourceStamp() of the files d was loaded from, or null if there are none **/
+	public static void write(Document d, File out, long[] stamp) throws IOException {
+		if (stamp == null) stamp = NO_STAMP;
+		Map<String,Integer> stringIds = new HashMap<String,Integer>();
+		List<String> strings = new ArrayList<String>();
+		// so NO_LABEL is never a string's ID
+		strings.add("");
+		List<int[]> labels = new ArrayList<int[]>();
+		List<short[]> childCounts = new ArrayList<short[]>();
+		List<int[]> tokens = new ArrayList<int[]>();
+		List<int[]> ssTags = new ArrayList<int[]>();
+
+		for (Sentence s : d.sentences()) {
+			List<Tree> nodes = new ArrayList<Tree>();
+			for (Tree node : s.rootNode()) {
+				nodes.add(node);
+			}
+			int[] sentLabels = new int[nodes.size()];
+			short[] sentChildCounts = new short[nodes.size()];
+			for (int n=0; n < nodes.size(); n++) {
+				Tree node = nodes.get(n);
+				String value = (node.label() == null) ? null : node.label().value();
+				sentLabels[n] = (value == null) ? NO_LABEL : stringId(value, stringIds, strings);
+				if (node.numChildren() > Short.MAX_VALUE) throw new IOException("too many children for a document snapshot");
+				sentChildCounts[n] = (short) node.numChildren();
+			}
+			int[] sentTokens = new int[s.words.size()];
+			int[] sentTags = new int[s.words.size()];
+			for (int i=0; i < s.words.size(); i++) {
+				sentTokens[i] = stringId(s.words.get(i).token, stringIds, strings);
+				sentTags[i] = stringId(s.words.get(i).ssTag(), stringIds, strings);
+			}
+			labels.add(sentLabels);
+			childCounts.add(sentChildCounts);
+			tokens.add(sentTokens);
+			ssTags.add(sentTags);
+		}
+		int width = (strings.size() > 0xffff) ? 4 : 2;
+		
+		long size = HEADER_BYTES + 4L*d.sentences().size();
+		long[] sentenceOffsets = new long[d.sentences().size()];
+		for (int s=0; s < d.sentences().size(); s++) {
+			sentenceOffsets[s] = size;
+			size += 1 + 4 + (width + 2L)*labels.get(s).length + 4 + 2L*width*tokens.get(s).length;
+		}
+		long stringsAt = size;
+		size += 4L*strings.size();
+		for (String str : strings) size += 2 + 2*str.length();
+		if (size > Integer.MAX_VALUE) throw new IOException("too big for a document snapshot");
+
+		// written to a temp file and renamed, so a reader never sees half of one
+		File tmp = new File(out.getPath() + ".tmp");
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(strings.size());
+			dos.writeInt((int) stringsAt);
+			dos.writeInt(width);
+			dos.writeInt(d.sentences().size());
+			for (long value : stamp) {
+				dos.writeLong(value);
+			}
+			for (long offset : sentenceOffsets) {
+				dos.writeInt((int) offset);
+			}
+			for (int s=0; s < d.sentences().size(); s++) {
+				dos.writeByte(d.sentences().get(s).hasParse ? 1 : 0);
+				dos.writeInt(labels.get(s).length);
+				writeIds(dos, width, labels.get(s));
+				for (short count : childCounts.get(s)) dos.writeShort(count);
+				dos.writeInt(tokens.get(s).length);
+				writeIds(dos, width, tokens.get(s));
+				writeIds(dos, width, ssTags.get(s));
+			}
+			int at = (int) stringsAt + 4*strings.size();
+			for (String str : strings) {
+				dos.writeInt(at);
+				at += 2 + 2*str.length();
+			}
+			for (String str : strings) {
+				if (str.length() > Short.MAX_VALUE) throw new IOException("too long for a document snapshot: " + str);
+				dos.writeShort(str.length());
+				dos.writeChars(str);
+			}
+		} finally {
+			dos.close();
+		}
+		out.delete();
+		if (!tmp.renameTo(out)) {
+			tmp.delete();
+			throw new IOException("couldn't write " + out);
+		}
+	}
+
+	private static void writeIds(DataOutputStream dos, int width, int[] ids) throws IOException {
+		for (int id : ids) {
+			if (width == 2) dos.writeChar(id);
+			else dos.writeInt(id);
+		}
+	}
+
+	private static int stringId(String s, Map<String,Integer> stringIds, List<String> strings) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			stringIds.put(s, id);
+			strings.add(s);
+		}
+		return id;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("usage: DocumentSnapshot DOCUMENT.sent ...");
+			System.exit(-1);
+		}
+		for (String path : args) {
+			File out = fileFor(path);
+			long[] stamp = sourceStamp(path);
+			write(Document.loadText(path), out, stamp);
+			System.err.println("wrote " + out);
+		}
+	}
+}
@@ -19,12 +19,24 @@ import arkref.parsestuff.U;
 /**
  * progressively add pairwise equivalences to this data structure.  
  * internally, it builds the transitive closure. 
+ * 
+ * The closure is a union-find forest over the document's mentions (union by size,
+ * path compression), so each addPair() is nearly constant time.  The coreference
+ * sets themselves are only built when somebody asks for them.
  **/
 public class EntityGraph implements Serializable {
-	private static final long serialVersionUID = -3407431672317709104L;
-	public Map<Mention, HashSet<Mention>> mention2corefs;
+	private static final long serialVersionUID = -3407431672317709105L;
 	public Set<Entity> entities = null;
 	
+	private List<Mention> mentions;
+	private Map<Mention,Integer> mentionIndex;
+	/** union-find forest over positions in mentions **/
+	private int[] parent;
+	private int[] size;
+	/** coreference set and name of each root; null when stale **/
+	private Map<Integer, Set<Mention>> rootMembers = null;
+	private Map<Integer, String> rootNames = null;
+	
 	public class Entity implements Serializable{
 		private static final long serialVersionUID = -6664324222677207904L;
 		public String id;
@@ -61,55 +73,94 @@ public class EntityGraph implements Serializable {
 
 	}
 	public EntityGraph(Document d) {
-		mention2corefs = new HashMap<Mention, HashSet<Mention>>();
-		for (Mention m : d.mentions()) { 
-			mention2corefs.put(m, new HashSet<Mention>());
-			mention2corefs.get(m).add(m);
+		mentions = new ArrayList<Mention>(d.mentions());
+		mentionIndex = new HashMap<Mention,Integer>();
+		parent = new int[mentions.size()];
+		size = new int[mentions.size()];
+		for (int i=0; i < mentions.size(); i++) { 
+			mentionIndex.put(mentions.get(i), i);
+			parent[i] = i;
+			size[i] = 1;
+		}
+	}
+	
+	private int find(int i) {
+		int root = i;
+		while (parent[root] != root) root = parent[root];
+		while (parent[i] != root) {
+			int next = parent[i];
+			parent[i] = root;
+			i = next;
 		}
+		return root;
 	}
 	
 	public void addPair(Mention m1, Mention m2) {
 		assert entities==null : "we're frozen, please don't addPair() anymore";
-		// Strategy: always keep mention2corefs a complete record of all coreferents for that mention
-		// So all we do is merge
-		Set<Mention> corefs1 = (Set<Mention>) mention2corefs.get(m1).clone();
-		Set<Mention> corefs2 = (Set<Mention>) mention2corefs.get(m2).clone();
-		for (Mention n1 : corefs1) {
-			for (Mention n2 : corefs2) {
-				mention2corefs.get(n1).add(n2);
-				mention2corefs.get(n2).add(n1);
+		int r1 = find(mentionIndex.get(m1));
+		int r2 = find(mentionIndex.get(m2));
+		if (r1 == r2) return;
+		if (size[r1] < size[r2]) {
+			int tmp = r1; r1 = r2; r2 = tmp;
+		}
+		parent[r2] = r1;
+		size[r1] += size[r2];
+		rootMembers = null;
+		rootNames = null;
+	}
+	
+	/** builds every coreference set in one pass over the mentions **/
+	private void materialize() {
+		if (rootMembers != null) return;
+		rootMembers = new HashMap<Integer, Set<Mention>>();
+		rootNames = new HashMap<Integer, String>();
+		for (int i=0; i < mentions.size(); i++) {
+			int root = find(i);
+			Set<Mention> members = rootMembers.get(root);
+			if (members == null) {
+				members = new HashSet<Mention>();
+				rootMembers.put(root, members);
 			}
+			members.add(mentions.get(i));
 		}
 	}
 	
 	/** Call this only once, and only after all addPair()ing is done. **/
 	public void freezeEntities() {
 		assert entities == null : "call freezeEntities() only once please";
+		materialize();
 		entities = new HashSet<Entity>();
-		Set<String> bla = new HashSet<String>();
-		for (Mention m : mention2corefs.keySet()) {
-			Entity e = makeEntity(m);
+		for (Integer root : rootMembers.keySet()) {
+			Entity e = new Entity();
+			e.id = rootName(root);
+			e.mentions = rootMembers.get(root);
 			entities.add(e);
 		}
 	}
-	/** helper for freezeEntities() **/
-	private Entity makeEntity(Mention m) {
-		Entity e = new Entity();
-		e.id = entName(m);
-		e.mentions = mention2corefs.get(m);
-		return e;
-	}
 	
 	public Set<Mention> getLinkedMentions(Mention m){
-		return mention2corefs.get(m);
+		Integer i = mentionIndex.get(m);
+		if (i == null) return null;
+		materialize();
+		return rootMembers.get(find(i));
 	}
 	
 	public boolean isSingleton(Mention m) {
-		return mention2corefs.get(m).size()==1;
+		return size[find(mentionIndex.get(m))]==1;
 	}
 	
 	public String entName(Mention m) {
-		return entName(mention2corefs.get(m));
+		materialize();
+		return rootName(find(mentionIndex.get(m)));
+	}
+	
+	private String rootName(int root) {
+		String name = rootNames.get(root);
+		if (name == null) {
+			name = entName(rootMembers.get(root));
+			rootNames.put(root, name);
+		}
+		return name;
 	}
 	
 	public String entName(Set<Mention> corefs) {
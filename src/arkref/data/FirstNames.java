@@ -105,7 +105,7 @@ public class FirstNames {
 	}
 	
 
-	public static FirstNames getInstance() {
+	public static synchronized FirstNames getInstance() {
 		if(instance == null){
 			instance = new FirstNames();
 		}
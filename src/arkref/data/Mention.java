@@ -21,6 +21,7 @@ public class Mention implements Serializable{
 	private Sentence sentence;
 	private int id;
 	public AceDocument.Mention aceMention;  // for convenience
+	private transient Types.Features features;
 	
 	public Mention(int id, Sentence sentence, Tree node) { this.id=id; this.sentence=sentence; this.node=node; }
 	
@@ -33,7 +34,7 @@ public class Mention implements Serializable{
 			// TODO wrong!!!  can get from Word alignment
 			return "O";
 		}
-		Tree head = node.headTerminal(AnalysisUtilities.getInstance().getHeadFinder()); 
+		Tree head = sentence.treeIndex().headTerminal(node);
 		return sentence.neType(head);
 	}
 	
@@ -59,7 +60,20 @@ public class Mention implements Serializable{
 		return node;
 	}
 	
+	/** gender, number, head word etc., computed the first time anyone asks **/
+	public Types.Features features() {
+		if (features == null) {
+			features = Types.computeFeatures(this);
+		}
+		return features;
+	}
+	
 	public String getHeadWord(){
+		return features().headWord;
+	}
+	
+	/** uncached; see getHeadWord() **/
+	public String computeHeadWord(){
 		Tree headTerminalNode = getHeadNode();
 		if (headTerminalNode==null) {
 			// TODO tricky: use the token span alignments and do guesswork if length>1.
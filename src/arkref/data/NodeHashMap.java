@@ -1,7 +1,7 @@
 package arkref.data;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 import edu.stanford.nlp.trees.Tree;
 
@@ -11,37 +11,35 @@ import edu.stanford.nlp.trees.Tree;
  * If you try to do this with Stanford Node's, it thinks e.g.
  * (DT the) in multiple sentences can sometimes be the same.
  * This class is a workaround because we care about cross-sentence comparisons.
- * You have to pass the node's enclosing sentence to compute the key.
  * 
- * Theoretically we could wrap all hashmap operations here.
+ * Nodes are compared by identity, so lookups neither allocate nor walk the tree.
+ * The sentence argument is only kept so callers don't have to change.
  *  
  * @author brendano
  * @param <ValueT>
  *
  */
 public class NodeHashMap<ValueT> implements Serializable {
-	private static final long serialVersionUID = -381382347554050836L;
-	private HashMap<String, ValueT> map;
+	private static final long serialVersionUID = -381382347554050837L;
+	private IdentityHashMap<Tree, ValueT> map;
 	public NodeHashMap() {
-		map = new HashMap();
+		map = new IdentityHashMap<Tree, ValueT>();
 	}
-	public static String nodeKey(Sentence s, Tree node) {
-		return String.format("sent_%s_node_%s_%s", s.ID(), s.rootNode().leftCharEdge(node), node.hashCode());
-	}
-
 
 	public ValueT get(Sentence s, Tree node) {
-		String key = nodeKey(s,node);
-		return map.get(key);
+		return map.get(node);
 	}
 
 	public void put(Sentence s, Tree node, ValueT value) {
-		String key = nodeKey(s,node);
-		map.put(key, value);
+		map.put(node, value);
 	}
 
 	public boolean containsKey(Sentence s, Tree node) {
-		return map.containsKey(nodeKey(s,node));
+		return map.containsKey(node);
+	}
+
+	public void remove(Sentence s, Tree node) {
+		map.remove(node);
 	}
 
 }
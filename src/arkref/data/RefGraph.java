@@ -26,6 +26,11 @@ public class RefGraph implements Serializable {
 		return finalResolutions;
 	}
 
+	/** see Document.forgetSentencesBefore **/
+	public void forget(Mention m) {
+		finalResolutions.remove(m);
+	}
+
 	public boolean needsReso(Mention m) {
 		return !finalResolutions.containsKey(m);
 	}
@@ -5,7 +5,7 @@ package arkref.data;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -14,6 +14,7 @@ import java.util.regex.Pattern;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 
+import arkref.parsestuff.AnalysisUtilities;
 import arkref.parsestuff.U;
 import arkref.sent.SentenceBreaker;
 
@@ -32,20 +33,21 @@ import edu.stanford.nlp.trees.Tree;
  *
  */
 public class Sentence implements Serializable {
-	private static final long serialVersionUID = -921962840824846212L;
+	private static final long serialVersionUID = -921962840824846213L;
 	public List<Word> words;
-	private Map<String,Word> node2wordMap;
+	/** keyed by identity; see NodeHashMap **/
+	private Map<Tree,Word> node2wordMap;
 	private Tree rootNode;
+	private transient TreeIndex treeIndex;
 	public boolean hasParse;
 	/** optional: more surface info **/
 	public SentenceBreaker.Sentence surfSent = null;
 
 	private int id;
 
-	public Sentence(int id) { this.id = id; words=new ArrayList<Word>(); node2wordMap=new HashMap<String,Word>(); }
+	public Sentence(int id) { this.id = id; words=new ArrayList<Word>(); node2wordMap=new IdentityHashMap<Tree,Word>(); }
 
 	public void setStuff(Tree root, String neTagging, boolean parseSuccess) {
-		this.setRootNode(root);
 		//String[] neTaggedWords = neTagging.split(" ");
 		
 		//simple whitespace splitting doesn't always work 
@@ -65,37 +67,47 @@ public class Sentence implements Serializable {
 		}		
 //		assert !parseSuccess || neTaggedWords.length == leaves.size();
 		
+		String[] tokens = new String[neTaggedWords.size()];
+		String[] ssTags = new String[neTaggedWords.size()];
 		for (int i=0; i < neTaggedWords.size(); i++) {
-			Word word = new Word();
-			word.sentence = this;
-			
 			String[] parts = neTaggedWords.get(i).split("/");
-			word.setNeTag(parts[parts.length-1]);
+			ssTags[i] = parts[parts.length-1];
 			String sstToken = StringUtils.join(ArrayUtils.subarray(parts, 0, parts.length-1), "/");
-			
+			assert !parseSuccess || sstToken.equals( leaves.get(i).value() ) : String.format("SST and parser tokens disagree: [%s] vs [%s]", sstToken, leaves.get(i).value());
+			tokens[i] = sstToken.replace("\\/", "/");
+		}
+		setWords(root, leaves, tokens, ssTags, parseSuccess);
+	}
+	
+	/** 
+	 * Same as setStuff(), with the .sst line already split into tokens (unescaped) and tags,
+	 * e.g. by a DocumentSnapshot.
+	 */
+	public void setWords(Tree root, String[] tokens, String[] ssTags, boolean parseSuccess) {
+		setWords(root, parseSuccess ? root.getLeaves() : null, tokens, ssTags, parseSuccess);
+	}
+	
+	private void setWords(Tree root, List<Tree> leaves, String[] tokens, String[] ssTags, boolean parseSuccess) {
+		this.setRootNode(root);
+		for (int i=0; i < tokens.length; i++) {
+			Word word = new Word();
+			word.sentence = this;
+			word.setNeTag(ssTags[i]);
 			if (parseSuccess) {
 				word.setNode(leaves.get(i));
-				assert sstToken.equals( word.node().value() ) : String.format("SST and parser tokens disagree: [%s] vs [%s]", word.token, word.node().value());
 				set_node2word(word.node(), word);
 			}
-			word.token = sstToken.replace("\\/", "/");
+			word.token = tokens[i];
 			words.add(word);
-
 		}
 	}
 
 	public Word node2word(Tree node) {
-		String key = nodeKey(node);
-		return node2wordMap.get(key);
-	}
-	
-	public String nodeKey(Tree node) {
-		return String.format("node_%s_%s", rootNode().leftCharEdge(node), node.hashCode());
+		return node2wordMap.get(node);
 	}
 	
 	public void set_node2word(Tree node, Word w) {
-		String key = nodeKey(node);
-		node2wordMap.put(key, w);
+		node2wordMap.put(node, w);
 	}
 
 
@@ -134,5 +146,14 @@ public class Sentence implements Serializable {
 
 	public void setRootNode(Tree rootNode) {
 		this.rootNode = rootNode;
+		this.treeIndex = null;
+	}
+	
+	/** parents, depths, spans and heads for rootNode(); built on first use **/
+	public TreeIndex treeIndex() {
+		if (treeIndex == null) {
+			treeIndex = new TreeIndex(rootNode, AnalysisUtilities.getInstance().getHeadFinder());
+		}
+		return treeIndex;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package arkref.data;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.nlp.trees.HeadFinder;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Precomputed structure of one parse tree, so resolution doesn't have to call
+ * Tree.parent(root), which searches the whole tree from the top, over and over.
+ *
+ * For every node we keep its parent, depth, preorder and postorder ranks, leaf span
+ * and head terminal.  Nodes are looked up by identity, not Tree.equals(), which is
+ * structural.
+ *
+ * The index is a snapshot: build it after any surgery on the tree (see Document.loadFiles).
+ * parent(), depth(), headTerminal() and dominates() fall back to the slow Tree methods for nodes that
+ * weren't in the tree when it was built; the rest expect indexed nodes.
+ */
+public class TreeIndex {
+	private final Tree root;
+	private final HeadFinder hf;
+	private final Map<Tree,Integer> ids = new IdentityHashMap<Tree,Integer>();
+	/** everything below is indexed by preorder rank **/
+	private final List<Tree> nodes = new ArrayList<Tree>();
+	private final List<Tree> leaves = new ArrayList<Tree>();
+	private int[] parent;
+	private int[] depth;
+	private int[] post;
+	private int[] leafStart;
+	private int[] leafEnd;
+	private int[] head;
+
+	public TreeIndex(Tree root, HeadFinder hf) {
+		this.root = root;
+		this.hf = hf;
+		collect(root);
+		int n = nodes.size();
+		parent = new int[n];
+		depth = new int[n];
+		post = new int[n];
+		leafStart = new int[n];
+		leafEnd = new int[n];
+		head = new int[n];
+		parent[0] = -1;
+		fill(0, 0, new int[1]);
+	}
+
+	private void collect(Tree node) {
+		ids.put(node, nodes.size());
+		nodes.add(node);
+		for (Tree kid : node.children()) {
+			collect(kid);
+		}
+	}
+
+	/** second walk, in the same preorder as collect(); heads are filled in on the way back up **/
+	private void fill(int id, int d, int[] nextPost) {
+		Tree node = nodes.get(id);
+		depth[id] = d;
+		if (node.isLeaf()) {
+			leafStart[id] = leaves.size();
+			leaves.add(node);
+			leafEnd[id] = leaves.size();
+			head[id] = id;
+		} else {
+			leafStart[id] = leaves.size();
+			for (Tree kid : node.children()) {
+				int kidId = ids.get(kid);
+				parent[kidId] = id;
+				fill(kidId, d+1, nextPost);
+			}
+			leafEnd[id] = leaves.size();
+			// same recursion as Tree.headTerminal(), but each step is only done once
+			Tree h = hf.determineHead(node);
+			head[id] = (h == null) ? -1 : head[ids.get(h)];
+		}
+		post[id] = nextPost[0]++;
+	}
+
+	private int id(Tree node) {
+		Integer id = ids.get(node);
+		return (id == null) ? -1 : id;
+	}
+
+	public boolean contains(Tree node) {
+		return ids.containsKey(node);
+	}
+
+	public Tree root() {
+		return root;
+	}
+
+	/** same as node.parent(root) **/
+	public Tree parent(Tree node) {
+		int id = id(node);
+		if (id == -1) return node.parent(root);
+		return (parent[id] == -1) ? null : nodes.get(parent[id]);
+	}
+
+	/** distance from the root, which has depth 0 **/
+	public int depth(Tree node) {
+		int id = id(node);
+		if (id == -1) {
+			int d = 0;
+			for (Tree cur = node.parent(root); cur != null; cur = cur.parent(root)) d++;
+			return d;
+		}
+		return depth[id];
+	}
+
+	public int preorder(Tree node) {
+		return id(node);
+	}
+
+	public int postorder(Tree node) {
+		int id = id(node);
+		return (id == -1) ? -1 : post[id];
+	}
+
+	/** index of the node's first leaf in the sentence, inclusive **/
+	public int leafStart(Tree node) {
+		return leafStart[id(node)];
+	}
+
+	/** index after the node's last leaf in the sentence, exclusive **/
+	public int leafEnd(Tree node) {
+		return leafEnd[id(node)];
+	}
+
+	public List<Tree> leaves() {
+		return leaves;
+	}
+
+	/** same as node.headTerminal(hf) for the head finder the index was built with **/
+	public Tree headTerminal(Tree node) {
+		int id = id(node);
+		if (id == -1) return node.headTerminal(hf);
+		return (head[id] == -1) ? null : nodes.get(head[id]);
+	}
+
+	/** same as a.dominates(b), so it is true when a == b **/
+	public boolean dominates(Tree a, Tree b) {
+		int ida = id(a);
+		int idb = id(b);
+		if (ida == -1 || idb == -1) return a.dominates(b);
+		return ida <= idb && post[idb] <= post[ida];
+	}
+
+	/** deepest node dominating both a and b **/
+	public Tree lowestCommonAncestor(Tree a, Tree b) {
+		int ida = id(a);
+		int idb = id(b);
+		while (depth[ida] > depth[idb]) ida = parent[ida];
+		while (depth[idb] > depth[ida]) idb = parent[idb];
+		while (ida != idb) {
+			ida = parent[ida];
+			idb = parent[idb];
+		}
+		return nodes.get(ida);
+	}
+
+	/** number of edges between a and b, the same as root.pathNodeToNode(a,b).size()-1 **/
+	public int pathLength(Tree a, Tree b) {
+		Tree lca = lowestCommonAncestor(a, b);
+		return depth(a) + depth(b) - 2*depth(lca);
+	}
+}
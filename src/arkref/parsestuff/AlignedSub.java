@@ -1,11 +1,13 @@
 package arkref.parsestuff;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.NotImplementedException;
 
 /**
@@ -22,11 +24,17 @@ import org.apache.commons.lang.NotImplementedException;
  * 
  * Capturing groups are not supported in the replacement.
  * 
+ * Several substitutions can be done in a single pass with a Rules set, in which case
+ * the alignments are never projected through intermediate strings.
+ * 
  * Example:
  * 
  * AlignedSub cleanText = new AlignedSub(text).replaceAll("<\\S+>","");
  * AlignedSub better = cleanText.replaceAll("\\s+"," ").replaceAll(":)","[HAPPY]");
  * 
+ * AlignedSub.Rules rules = new AlignedSub.Rules().add("<\\S+>","").add("\\s+"," ");
+ * AlignedSub both = new AlignedSub(text).replaceAll(rules);
+ * 
  * Also run main() for more examples.
  * 
  * @author Brendan O'Connor (http://anyall.org)
@@ -37,26 +45,42 @@ public class AlignedSub {
 	/** parallel to 'text'. **/
 	public int[] alignments = null;
 	
+	private static final Map<String,Pattern> patternCache = new ConcurrentHashMap<String,Pattern>();
+	
 	public AlignedSub(String s) {
 		text = s;
 	}
 	public static AlignedSub selfAligned(String text) {
 		// has identity alignment
-		List <Integer> alignments = new ArrayList<Integer>();
 		AlignedSub as = new AlignedSub(text);
-		for (int i=0; i<text.length(); i++) alignments.add(i);
-		as.alignments = convert(alignments);
+		as.alignments = new int[text.length()];
+		for (int i=0; i<text.length(); i++) as.alignments[i] = i;
 		return as;
 	}
 	public String replace(CharSequence target, CharSequence replacement)  {
 		throw new NotImplementedException();
 	}
 	public AlignedSub replaceAll(String regex, String replacement) {
-		Pattern p = Pattern.compile(regex);
+		Pattern p = patternCache.get(regex);
+		if (p == null) {
+			p = Pattern.compile(regex);
+			patternCache.put(regex, p);
+		}
 		return replaceAll(p, replacement);
 	}
 	public AlignedSub replaceAll(Pattern pattern, String replacement) {
-		AlignedSub as = replace(this.text, pattern, replacement, false);
+		AlignedSub as = replace(this.text, pattern, null, replacement);
+		if (this.alignments != null)
+			as.alignments = project(as.alignments, this.alignments);
+		return as;
+	}
+	/** 
+	 * Applies all the rules in one left-to-right scan.  Where several could match, the one
+	 * starting first wins, and among those the one added first.  So unlike chained
+	 * replaceAll() calls, no rule sees another's output.
+	 **/
+	public AlignedSub replaceAll(Rules rules) {
+		AlignedSub as = replace(this.text, rules.combined(), rules, null);
 		if (this.alignments != null)
 			as.alignments = project(as.alignments, this.alignments);
 		return as;
@@ -65,38 +89,142 @@ public class AlignedSub {
 		throw new NotImplementedException();
 	}
 	
-	private static AlignedSub replace(String text, Pattern pattern, String replacement, boolean justOne) {
+	/**
+	 * An ordered set of regex -> literal replacement rules, compiled into a single
+	 * alternation the first time it's used.  Build one once and reuse it.
+	 * 
+	 * Each rule keeps its own flags, carried inline as (?flags:...).  Backreferences
+	 * would point at the wrong groups once the rules are wrapped and numbered together,
+	 * so patterns using them are rejected, as are flags with no inline form, like CANON_EQ.
+	 */
+	public static class Rules {
+		/** the flags that have an inline (?x) form **/
+		private static final int INLINE_FLAGS = Pattern.UNIX_LINES | Pattern.CASE_INSENSITIVE | Pattern.COMMENTS
+			| Pattern.MULTILINE | Pattern.DOTALL | Pattern.UNICODE_CASE;
+		
+		private final List<Pattern> patterns = new ArrayList<Pattern>();
+		private final List<String> replacements = new ArrayList<String>();
+		private Pattern combined = null;
+		/** the group in combined wrapping each rule **/
+		private int[] ruleGroups;
+		
+		public Rules add(String regex, String replacement) {
+			return add(Pattern.compile(regex), replacement);
+		}
+		public synchronized Rules add(Pattern pattern, String replacement) {
+			if ((pattern.flags() & ~(INLINE_FLAGS | Pattern.LITERAL)) != 0) {
+				throw new IllegalArgumentException("flags with no inline form can't be combined with other rules: " + pattern);
+			}
+			if ((pattern.flags() & Pattern.LITERAL) == 0 && hasBackreference(pattern.pattern())) {
+				throw new IllegalArgumentException("backreferences can't be combined with other rules: " + pattern);
+			}
+			patterns.add(pattern);
+			replacements.add(replacement);
+			combined = null;
+			return this;
+		}
+		
+		private synchronized Pattern combined() {
+			if (combined == null) {
+				StringBuilder sb = new StringBuilder();
+				ruleGroups = new int[patterns.size()];
+				int group = 1;
+				for (int r=0; r < patterns.size(); r++) {
+					if (r > 0) sb.append('|');
+					sb.append('(').append(inline(patterns.get(r))).append(')');
+					ruleGroups[r] = group;
+					group += 1 + patterns.get(r).matcher("").groupCount();
+				}
+				combined = Pattern.compile(sb.toString());
+			}
+			return combined;
+		}
+		
+		/** the pattern as a group of its own that carries its flags **/
+		private static String inline(Pattern p) {
+			int flags = p.flags();
+			if ((flags & Pattern.LITERAL) != 0) {
+				return Pattern.quote(p.pattern());
+			}
+			String on = "";
+			if ((flags & Pattern.UNIX_LINES) != 0) on += "d";
+			if ((flags & Pattern.CASE_INSENSITIVE) != 0) on += "i";
+			if ((flags & Pattern.COMMENTS) != 0) on += "x";
+			if ((flags & Pattern.MULTILINE) != 0) on += "m";
+			if ((flags & Pattern.DOTALL) != 0) on += "s";
+			if ((flags & Pattern.UNICODE_CASE) != 0) on += "u";
+			if (on.length() == 0) {
+				return p.pattern();
+			}
+			// in comments mode a trailing # comment would swallow the closing paren
+			String end = ((flags & Pattern.COMMENTS) != 0) ? "\n)" : ")";
+			return "(?" + on + ":" + p.pattern() + end;
+		}
+		
+		/** a \1 or \k<name> backreference, outside any \Q...\E quote **/
+		private static boolean hasBackreference(String regex) {
+			for (int i=0; i < regex.length() - 1; i++) {
+				if (regex.charAt(i) != '\\') continue;
+				char c = regex.charAt(i+1);
+				if (c == 'Q') {
+					int end = regex.indexOf("\\E", i+2);
+					if (end == -1) return false;
+					i = end + 1;
+				} else if ((c >= '1' && c <= '9') || c == 'k') {
+					return true;
+				} else {
+					i++;
+				}
+			}
+			return false;
+		}
+		
+		private int ruleMatched(Matcher m) {
+			for (int r=0; r < ruleGroups.length; r++) {
+				if (m.start(ruleGroups[r]) != -1) return r;
+			}
+			throw new IllegalStateException("no rule matched");
+		}
+	}
+	
+	/** rewrites with pattern; a match takes the replacement of whichever rule matched, or the given one if rules is null **/
+	private static AlignedSub replace(String text, Pattern pattern, Rules rules, String fixedReplacement) {
 		Matcher m = pattern.matcher(text);
-		boolean result = m.find();
-		if (!result) {
+		if (!m.find()) {
 			return selfAligned(text);
 		}
-		List <Integer> alignments = new ArrayList<Integer>();
-        StringBuffer sb = new StringBuffer();
-        
-        int i = 0;
-        do {
-        	sb.append( text.substring(i, m.start()) );
-        	if (i < m.start()) {
-        		do { alignments.add(i); } while (++i < m.start());
-        	}
-        	sb.append(replacement);
-        	for (int j=0; j<replacement.length(); j++) {
-        		alignments.add(m.start());
-        	}
-        	i = m.end();
-        	
-        	if (justOne) break;
-        	
-        	result = m.find();
-        } while (result);
-        
-        sb.append( text.substring(i, text.length()));
-        do { alignments.add(i); } while (++i < text.length());
-        
-        AlignedSub as = new AlignedSub(sb.toString());
-        as.alignments = convert(alignments);
-        return as;
+		StringBuilder sb = new StringBuilder(text.length());
+		int[] alignments = new int[text.length() + 16];
+		int n = 0;
+		int i = 0;
+		do {
+			String replacement = (rules == null) ? fixedReplacement : rules.replacements.get(rules.ruleMatched(m));
+			int needed = n + (m.start() - i) + replacement.length();
+			if (needed > alignments.length) {
+				alignments = Arrays.copyOf(alignments, Math.max(needed, 2*alignments.length));
+			}
+			sb.append(text, i, m.start());
+			while (i < m.start()) {
+				alignments[n++] = i++;
+			}
+			sb.append(replacement);
+			for (int j=0; j<replacement.length(); j++) {
+				alignments[n++] = m.start();
+			}
+			i = m.end();
+		} while (m.find());
+		
+		if (n + (text.length() - i) > alignments.length) {
+			alignments = Arrays.copyOf(alignments, n + (text.length() - i));
+		}
+		sb.append(text, i, text.length());
+		while (i < text.length()) {
+			alignments[n++] = i++;
+		}
+		
+		AlignedSub as = new AlignedSub(sb.toString());
+		as.alignments = (n == alignments.length) ? alignments : Arrays.copyOf(alignments, n);
+		return as;
 	}
 	/** 
 	 * pipe x through map.  output is parallel to x.  
@@ -110,10 +238,6 @@ public class AlignedSub {
 		}
 		return ret;
 	}
-	private static int[] convert(List<Integer> list) {
-		// true magic
-		return ArrayUtils.toPrimitive((Integer []) list.toArray(new Integer[0]));
-	}
 	
 	
 	public String toString() {
@@ -145,6 +269,8 @@ public class AlignedSub {
 		U.pl(s2);
 		s2 = s.replaceAll("hell","WOW").replaceAll("OWo","=======");
 		U.pl(s2);
+		s2 = s.replaceAll(new Rules().add("hell","WOW").add("o","0").add("\\s+","__"));
+		U.pl(s2);
 	}
 	
 	
@@ -6,7 +6,6 @@ import java.net.*;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -95,62 +94,94 @@ public class AnalysisUtilities {
 		}
 		return alignTokens(rawText, tokens);
 	}
+	/**
+	 * Position in rawText of each token, or -1 for tokens that couldn't be found within
+	 * MAX_ALIGNMENT_SKIP characters of where the previous one ended.
+	 * The text is lowercased once, and PTB escapes like -LRB- are checked by looking at
+	 * the raw characters (see surfaceMatchesAt) rather than with a regex per attempt.
+	 **/
 	public static int[] alignTokens(String rawText, String[] tokens) {
 		int MAX_ALIGNMENT_SKIP = 100;
 		int[] alignments = new int[tokens.length];
+		String lowerText = rawText.toLowerCase();
+		// nothing can match past here (lowercasing can lengthen the text, e.g. for dotted capital I)
+		int end = Math.max(rawText.length(), lowerText.length());
 		int curPos = 0;
 		
 		tok_loop:
 		
 		for (int i=0; i < tokens.length; i++) {
 			String tok = tokens[i];
+			String lowerTok = tok.toLowerCase();
 //			U.pf("TOKEN [%s]  :  ", tok);
-			for (int j=0; j < MAX_ALIGNMENT_SKIP; j++) {
-				boolean directMatch  = rawText.regionMatches(curPos + j, tok, 0, tok.length());
-				if (!directMatch)
-					directMatch = rawText.toLowerCase().regionMatches(curPos + j, tok.toLowerCase(), 0, tok.length());
-				boolean alternateMatch = false;
-				if (!directMatch) {
-					int roughLast = curPos+j+tok.length()*2+10;
-					String substr = StringUtils.substring(rawText, curPos+j, roughLast);
-					Matcher m = tokenSurfaceMatches(tok).matcher(substr);
-//					U.pl("PATTERN "+ tokenSurfaceMatches(tok));
-					alternateMatch = m.find() && m.start()==0;
-				}
+			for (int j=0; j < MAX_ALIGNMENT_SKIP && curPos+j <= end; j++) {
+				int pos = curPos+j;
+				boolean directMatch  = rawText.regionMatches(pos, tok, 0, tok.length())
+					|| lowerText.regionMatches(pos, lowerTok, 0, tok.length());
+				boolean alternateMatch = !directMatch && surfaceMatchesAt(rawText, pos, tok);
 				
 //				U.pl("MATCHES "+ directMatch + " " + alternateMatch);
 				if (directMatch || alternateMatch) {
-					alignments[i] = curPos+j;
+					alignments[i] = pos;
 					if (directMatch)
-						curPos = curPos+j+tok.length();
+						curPos = pos+tok.length();
 					else
-						curPos = curPos+j+1;
+						curPos = pos+1;
 //					U.pf("\n  Aligned to pos=%d : [%s]\n", alignments[i], U.backslashEscape(StringUtils.substring(rawText, alignments[i], alignments[i]+10)));
 					continue tok_loop;
 				}
 //				U.pf("%s", U.backslashEscape(StringUtils.substring(rawText,curPos+j,curPos+j+1)));
 			}
-			U.pf("FAILED MATCH for token [%s]\n", tok);
-			U.pl("sentence: "+rawText);
-			U.pl("tokens: " + StringUtils.join(tokens," "));
+			if (ARKref.showDebug()) {
+				U.pf("FAILED MATCH for token [%s]\n", tok);
+				U.pl("sentence: "+rawText);
+				U.pl("tokens: " + StringUtils.join(tokens," "));
+			}
 			alignments[i] = -1;
 		}
 		// TODO backoff for gaps .. at least guess the 2nd gap position or something (2nd char after previous token ends...)
 		return alignments;
 	}
 	
+	/** same as tokenSurfaceMatches(tok) matching at pos, without building a Pattern **/
+	public static boolean surfaceMatchesAt(String rawText, int pos, String tok) {
+		if (pos >= rawText.length()) {
+			return false;
+		}
+		char c = rawText.charAt(pos);
+		if (tok.equals("-LRB-")) {
+			return c == '(' || c == '[';
+		} else if (tok.equals("-RRB-")) {
+			return c == ')' || c == ']';
+		} else if (tok.equals("``")) {
+			return c == '"' || rawText.startsWith("``", pos);
+		} else if (tok.equals("''")) {
+			return c == '"' || rawText.startsWith("''", pos);
+		} else if (tok.equals("`")) {
+			return c == '\'' || c == '`';
+		}
+		return rawText.startsWith(tok, pos);
+	}
+	
+	private static final String PARSER_HOST = "127.0.0.1";
+	private static final Pattern LRB_SURFACE = Pattern.compile("[(\\[]");
+	private static final Pattern RRB_SURFACE = Pattern.compile("[)\\]]");
+	private static final Pattern OPEN_QUOTE_SURFACE = Pattern.compile("(\"|``)");
+	private static final Pattern CLOSE_QUOTE_SURFACE = Pattern.compile("(\"|'')");
+	private static final Pattern SINGLE_QUOTE_SURFACE = Pattern.compile("('|`)");
+	
 	/** undo penn-treebankification of tokens.  want to match raw original form if possible. **/
 	public static Pattern tokenSurfaceMatches(String tok) {
 		if (tok.equals("-LRB-")) {
-			return Pattern.compile("[(\\[]");
+			return LRB_SURFACE;
 		} else if (tok.equals("-RRB-")) {
-			return Pattern.compile("[)\\]]");
+			return RRB_SURFACE;
 		} else if (tok.equals("``")) {
-			return Pattern.compile("(\"|``)");
+			return OPEN_QUOTE_SURFACE;
 		} else if (tok.equals("''")) {
-			return Pattern.compile("(\"|'')");
+			return CLOSE_QUOTE_SURFACE;
 		} else if (tok.equals("`")) {
-			return Pattern.compile("('|`)");
+			return SINGLE_QUOTE_SURFACE;
 		}
 		return Pattern.compile(Pattern.quote(tok));
 	}
@@ -210,20 +241,30 @@ public class AnalysisUtilities {
 		return res;
 	}
 	
-	static Pattern leadingWhitespace = Pattern.compile("^\\s+");
+	/** 
+	 * Markup, and the whitespace (and markup) it would leave at the start --
+	 * sentence breaker char offset correctness is sensitive to that.
+	 **/
+	private static final AlignedSub.Rules documentCleanupRules = new AlignedSub.Rules()
+		.add("\\A(?:<\\S+>|\\s)+", "")
+		.add("<\\S+>", "");
+	/** 
+	 * Same output as replacing &amp; then &lt; then &gt; in turn, which is why
+	 * "&amp;lt;" comes out as "<" but "&lt;gt;" doesn't turn into ">".
+	 **/
+	private static final AlignedSub.Rules entityCleanupRules = new AlignedSub.Rules()
+		.add("&(?:amp|AMP);(?:lt|LT);", "<")
+		.add("&(?:amp|AMP);(?:gt|GT);", ">")
+		.add("&(?:amp|AMP);", "&")
+		.add("&(?:lt|LT);", "<")
+		.add("&(?:gt|GT);", ">");
+	
 	/** some ACE docs have weird markup in them that serve as paragraph-ish markers **/
 	public static AlignedSub cleanupDocument(String document) {
-		AlignedSub ret = new AlignedSub(document);
-		ret = ret.replaceAll("<\\S+>", "");
-		ret = ret.replaceAll(leadingWhitespace, ""); // sentence breaker char offset correctness sensitive to this
-		return ret;
+		return new AlignedSub(document).replaceAll(documentCleanupRules);
 	}
 	public static AlignedSub moreCleanup(String str) {
-		AlignedSub ret = new AlignedSub(str);
-		ret = ret.replaceAll("&(amp|AMP);", "&");
-		ret = ret.replaceAll("&(lt|LT);", "<");
-		ret = ret.replaceAll("&(gt|GT);", ">");
-		return ret;
+		return new AlignedSub(str).replaceAll(entityCleanupRules);
 	}
 	
 	
@@ -237,20 +278,29 @@ public class AnalysisUtilities {
 	}
 	
 	
-	public static AnalysisUtilities getInstance(){
+	public static synchronized AnalysisUtilities getInstance(){
 		if(instance == null){
 			instance = new AnalysisUtilities();
 		}
 		return instance;
 	}
 	
+	/** score of the last parse made or set on the calling thread **/
 	public double getLastParseScore(){
-		return lastParseScore;
+		ParseResult last = lastParseResult.get();
+		if(last == null){
+			return 0.0;
+		}
+		return last.score;
 	}
 	
 	public Double getLastParseScoreNormalizedByLength() {
-		double length = lastParse.yield().length();
-		double res = lastParseScore;
+		ParseResult last = lastParseResult.get();
+		if(last == null || last.parse == null){
+			return 0.0;
+		}
+		double length = last.parse.yield().length();
+		double res = last.score;
 		if(length <= 0){
 			res = 0.0;
 		}else{
@@ -260,18 +310,92 @@ public class AnalysisUtilities {
 	}
 	
 	public static class ParseResult {
-		public boolean success;
-		public Tree parse;
-		public double score;
-		public ParseResult(boolean s, Tree p, double sc) { success=s; parse=p; score=sc; }
+		public final boolean success;
+		public final Tree parse;
+		public final double score;
+		/** which grammar produced the parse (see PreprocessCache.grammarFingerprint), or null if unknown **/
+		public final String grammar;
+		public ParseResult(boolean s, Tree p, double sc) { this(s, p, sc, null); }
+		public ParseResult(boolean s, Tree p, double sc, String g) { success=s; parse=p; score=sc; grammar=g; }
 	}
 	
+	/**
+	 * Safe to call from several threads at once: the parser server connection is
+	 * multiplexed, and the local fallback parser is used by one thread at a time.
+	 */
 	public ParseResult parseSentence(String sentence) {
+		ParseResult res = null;
+		PreprocessCache cache = PreprocessCache.getInstance();
+		if (cache != null) {
+			String grammar = currentGrammarId();
+			String cached = (grammar == null) ? null : cache.getParse(grammar, sentence);
+			if (cached != null) {
+				String[] parts = cached.split("\t", 2);
+				res = new ParseResult(true, readTreeFromString(parts[1]), new Double(parts[0]), grammar);
+			}
+		}
+		if (res == null) {
+			res = parseSentenceWithAnyParser(sentence);
+			// failures may just mean the server was down, so don't remember them
+			if (cache != null && res.success && res.grammar != null) {
+				cache.putParse(res.grammar, sentence, res.score + "\t" + res.parse.toString());
+			}
+		}
+		lastParseResult.set(res);
+		return res;
+	}
+	
+	/**
+	 * Identifies the grammar the next parse will come from: the one the parser server reports,
+	 * or the local grammar file if no server is up.  Null if it can't be told, e.g. with a
+	 * server that predates grammar ids.
+	 */
+	private String currentGrammarId() {
+		try {
+			StanfordParserClient pc = getParserClient(PARSER_HOST, parserPort());
+			return (pc == null) ? null : pc.grammarId();
+		} catch (IOException e) {
+			return localGrammarId();
+		}
+	}
+	
+	private static int parserPort() {
+		return new Integer(ARKref.getProperties().getProperty("parserServerPort","5556"));
+	}
+	
+	private static String localGrammarId() {
+		return PreprocessCache.grammarFingerprint(
+				ARKref.getProperties().getProperty("parserGrammarFile", "lib/englishPCFG.ser.gz"),
+				new Integer(ARKref.getProperties().getProperty("parserMaxLength", "40")));
+	}
+	
+	private ParseResult parseSentenceWithAnyParser(String sentence) {
 		String result = "";
+		Tree parse;
+		double score = 0;
 		
 		//see if a parser socket server is available
-        int port = new Integer(ARKref.getProperties().getProperty("parserServerPort","5556"));
-        String host = "127.0.0.1";
+        int port = parserPort();
+        String host = PARSER_HOST;
+
+		//prefer a persistent connection to the server, opened once and reused
+		try{
+			StanfordParserClient pc = getParserClient(host, port);
+			if (pc != null) {
+				StanfordParserClient.Response r = pc.parse(sentence);
+				result = r.tree;
+				
+				System.err.println("parser output:"+ result);
+				
+				parse = readTreeFromString(result);
+				boolean success = !Strings.normalizeWhitespace(result).equals("(ROOT (. .))");
+				return new ParseResult(success, parse, r.score, pc.grammarId());
+			}
+		} catch (Exception ex) {
+			//ex.printStackTrace();
+		}
+		
+		//an older server only takes one sentence per connection
         Socket client;
         PrintWriter pw;
         BufferedReader br;
@@ -292,7 +416,7 @@ public class AnalysisUtilities {
                     line = line.replaceAll("\\s+", " ");
                 	result += line + " ";
                 }else{
-                	lastParseScore = new Double(line);
+                	score = new Double(line);
                 }
             }
 
@@ -302,48 +426,69 @@ public class AnalysisUtilities {
 			
 			System.err.println("parser output:"+ result);
 			
-			lastParse = readTreeFromString(result);
+			parse = readTreeFromString(result);
 			boolean success = !Strings.normalizeWhitespace(result).equals("(ROOT (. .))");
-			return new ParseResult(success, lastParse, lastParseScore);
+			return new ParseResult(success, parse, score);
 		} catch (Exception ex) {
 			
 			//ex.printStackTrace();
 		}
         
 		//if socket server not available, then use a local parser object
-		if (parser == null) {
-			if(DEBUG) System.err.println("Could not connect to parser server.  Loading parser...");
-			try {
-				Options op = new Options();
-				String serializedInputFileOrUrl = ARKref.getProperties().getProperty("parserGrammarFile", "lib/englishPCFG.ser.gz");
-				parser = new LexicalizedParser(serializedInputFileOrUrl, op);
-				int maxLength = new Integer(ARKref.getProperties().getProperty("parserMaxLength", "40")).intValue();
-				parser.setMaxLength(maxLength);
-				parser.setOptionFlags("-outputFormat", "oneline");
-			} catch (Exception e) {
-				e.printStackTrace();
+		synchronized (localParserLock) {
+			if (parser == null) {
+				if(DEBUG) System.err.println("Could not connect to parser server.  Loading parser...");
+				try {
+					Options op = new Options();
+					String serializedInputFileOrUrl = ARKref.getProperties().getProperty("parserGrammarFile", "lib/englishPCFG.ser.gz");
+					parser = new LexicalizedParser(serializedInputFileOrUrl, op);
+					int maxLength = new Integer(ARKref.getProperties().getProperty("parserMaxLength", "40")).intValue();
+					parser.setMaxLength(maxLength);
+					parser.setOptionFlags("-outputFormat", "oneline");
+					parserGrammarId = localGrammarId();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
 			}
-		}
 
-		try{
-			if (parser.parse(sentence)) {
-				lastParse = parser.getBestParse();
-				lastParseScore = parser.getPCFGScore();
-				TreePrint tp = new TreePrint("penn","",new PennTreebankLanguagePack());
-				StringWriter sb = new StringWriter();
-				pw = new PrintWriter(sb);
-				tp.printTree(lastParse, pw);
-				pw.flush();
-				lastParse = readTreeFromString(sb.getBuffer().toString());
+			try{
+				if (parser.parse(sentence)) {
+					parse = parser.getBestParse();
+					score = parser.getPCFGScore();
+					TreePrint tp = new TreePrint("penn","",new PennTreebankLanguagePack());
+					StringWriter sb = new StringWriter();
+					pw = new PrintWriter(sb);
+					tp.printTree(parse, pw);
+					pw.flush();
+					parse = readTreeFromString(sb.getBuffer().toString());
 						
-				return new ParseResult(true, lastParse, lastParseScore);
+					return new ParseResult(true, parse, score, parserGrammarId);
+				}
+			}catch(Exception e){
 			}
-		}catch(Exception e){
 		}
 
-		lastParse = readTreeFromString("(ROOT (. .))");
-        lastParseScore = -99999.0;
-        return new ParseResult(false, lastParse, lastParseScore);
+		parse = readTreeFromString("(ROOT (. .))");
+        return new ParseResult(false, parse, -99999.0);
+	}
+	
+	/**
+	 * Returns the shared persistent connection to the parser server, opening it if needed.
+	 * Returns null if the server only speaks the old one-sentence-per-connection protocol.
+	 * 
+	 * @throws IOException if no server is listening
+	 */
+	private synchronized StanfordParserClient getParserClient(String host, int port) throws IOException {
+		if (legacyParserServer) {
+			return null;
+		}
+		if (parserClient == null || parserClient.isClosed()) {
+			parserClient = StanfordParserClient.connect(host, port);
+			if (parserClient == null) {
+				legacyParserServer = true;
+			}
+		}
+		return parserClient;
 	}
 	
 //	@SuppressWarnings("unchecked")
@@ -393,6 +538,17 @@ public class AnalysisUtilities {
 		if(numleaves <= 1){
 			return result;
 		}
+		PreprocessCache cache = PreprocessCache.getInstance();
+		String cacheKey = null;
+		if (cache != null) {
+			cacheKey = sentence.toString();
+			String cached = cache.getSupersenses(cacheKey);
+			if (cached != null) {
+				result.addAll(Arrays.asList(cached.split(" ")));
+				while(result.size() < numleaves) result.add("0");
+				return result;
+			}
+		}
 		LabeledSentence labeled = generateSupersenseTaggingInput(sentence);
 		
 		//see if a NER socket server is available
@@ -402,6 +558,7 @@ public class AnalysisUtilities {
         PrintWriter pw;
         BufferedReader br;
         String line;
+        boolean complete = false;
 		try{
 			client = new Socket(host, port);
 
@@ -424,6 +581,7 @@ public class AnalysisUtilities {
 			br.close();
 			pw.close();
 			client.close();
+			complete = true;
 			
 		} catch (Exception ex) {
 			if(ARKref.Opts.debug) System.err.println("Could not connect to SST server.");
@@ -432,20 +590,28 @@ public class AnalysisUtilities {
 		
 		//if socket server not available, then use a local NER object
 		if(result.size() == 0){
-			try {
-				if(sst == null){
-					DiscriminativeTagger.loadProperties(ARKref.getPropertiesPath());
-					sst = DiscriminativeTagger.loadModel(ARKref.getProperties().getProperty("supersenseModelFile", "config/supersenseModel.ser.gz"));
-				}
-				sst.findBestLabelSequenceViterbi(labeled, sst.getWeights());
-				for(String pred: labeled.getPredictions()){
-					result.add(pred);
+			synchronized (localTaggerLock) {
+				try {
+					if(sst == null){
+						DiscriminativeTagger.loadProperties(ARKref.getPropertiesPath());
+						sst = DiscriminativeTagger.loadModel(ARKref.getProperties().getProperty("supersenseModelFile", "config/supersenseModel.ser.gz"));
+					}
+					sst.findBestLabelSequenceViterbi(labeled, sst.getWeights());
+					for(String pred: labeled.getPredictions()){
+						result.add(pred);
+					}
+					complete = true;
+				} catch (Exception e){
+					e.printStackTrace();
 				}
-			} catch (Exception e){
-				e.printStackTrace();
 			}
 		}
 		
+		// only cache a full tagging; a short or failed read must not be replayed
+		if (cache != null && complete && result.size() == numleaves) {
+			cache.putSupersenses(cacheKey, StringUtils.join(result, " "));
+		}
+		
 		//add a bunch of blanks if necessary
 		while(result.size() < numleaves) result.add("0");
 		
@@ -572,8 +738,7 @@ public class AnalysisUtilities {
 	 * @param score
 	 */
 	public void setLastParseAndScore(Tree parse, double score){
-		lastParse = parse;
-		lastParseScore = score;
+		lastParseResult.set(new ParseResult(true, parse, score));
 	}
 	
 	/** 
@@ -591,41 +756,43 @@ public class AnalysisUtilities {
 
 
 	
+	/**
+	 * the mapped lemma store if morphStoreFile names one, otherwise the HashMaps from morphFile.
+	 * A store older than morphFile is rebuilt first.
+	 */
 	private void loadWordnetMorphologyCache() {
-		morphMap = new HashMap<String, Map<String, String>>();
+		String storeFile = ARKref.getProperties().getProperty("morphStoreFile", "");
+		String morphFile = ARKref.getProperties().getProperty("morphFile","config/MORPH_CACHE.gz");
+		if (storeFile.length() > 0 && new File(storeFile).exists()) {
+			try {
+				if (LemmaStore.isStale(new File(storeFile), new File(morphFile))) {
+					System.err.println(storeFile + " is older than " + morphFile + ", rebuilding it");
+					LemmaStore.rebuild(new File(morphFile), new File(storeFile));
+				}
+				lemmaStore = new LemmaStore(new File(storeFile));
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		
 		try{
-			BufferedReader br;
-			String buf;
-			String[] parts;
-			String morphFile = ARKref.getProperties().getProperty("morphFile","config/MORPH_CACHE.gz");
-			br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(morphFile))));
-			while((buf = br.readLine())!= null){
-				parts = buf.split("\\t");
-				addMorph(parts[1], parts[0], parts[2]);
-				addMorph(parts[1], "UNKNOWN", parts[2]);
-			}
-			br.close();
-			addMorph("men", "NNS", "man");
+			morphMap = LemmaStore.readMorphologyCache(new File(morphFile));
 		}catch(IOException e){
 			e.printStackTrace();
+			morphMap = new HashMap<String, Map<String, String>>();
 		}
 	}
 	
-	private void addMorph(String word, String pos, String stem){
-		Map<String, String> posMap = morphMap.get(pos);
-		if(posMap == null){
-			posMap = new HashMap<String, String>();
-			morphMap.put(pos.intern(), posMap);
-		}
-		
-		posMap.put(word.intern(), stem.intern());
-	}
-	
 	
 	public String getLemma(String word, String pos){
-		if(morphMap == null){
-			loadWordnetMorphologyCache();
+		synchronized (this) {
+			if(morphMap == null && lemmaStore == null){
+				loadWordnetMorphologyCache();
+			}
+		}
+		if (lemmaStore != null) {
+			return lemmaStore.getLemma(word, pos);
 		}
 		String res = word;
 		Map<String, String> posMap = morphMap.get(pos);
@@ -639,14 +806,21 @@ public class AnalysisUtilities {
 	}
 
 	private Map<String, Map<String, String>> morphMap; //pos, word -> stem
+	private LemmaStore lemmaStore;
 	private DiscriminativeTagger sst;
 	private LexicalizedParser parser;
+	/** see PreprocessCache.grammarFingerprint **/
+	private String parserGrammarId;
+	private StanfordParserClient parserClient;
+	private boolean legacyParserServer = false;
 	private static AnalysisUtilities instance;
 //	private VerbConjugator conjugator;
 	private CollinsHeadFinder headfinder;
 	private LabeledScoredTreeFactory tree_factory;
 	private PennTreebankLanguagePack tlp;
-	private double lastParseScore;
-	private Tree lastParse;
+	private final Object localParserLock = new Object();
+	private final Object localTaggerLock = new Object();
+	/** per-thread, so concurrent preprocessing threads don't see each other's parses **/
+	private ThreadLocal<ParseResult> lastParseResult = new ThreadLocal<ParseResult>();
 	public DocumentPreprocessor dp;
 }
@@ -0,0 +1,252 @@
+package arkref.parsestuff;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The WordNet morphology cache (config/MORPH_CACHE.gz) compiled into a hash table
+ * that is memory-mapped instead of read into HashMaps.  Opening it costs almost nothing,
+ * and the pages are shared by every process that has it open.
+ *
+ * Layout, big-endian:
+ *   int MAGIC, int VERSION
+ *   int number of POS tags, then for each: short length, chars
+ *   int number of entries, int number of slots (a power of two), int[] slots
+ *     holding entry offsets, 0 for empty; linear probing from hash(word, tag)
+ *   entries: int word.hashCode(), int entry number, short tag, short length, word chars,
+ *     short length, lemma chars (length -1 means the lemma is the word itself)
+ *
+ * Lookups use the String's own cached hash code and compare chars in place, so they don't
+ * decode or allocate anything.  Lemmas are turned into Strings once and kept.
+ *
+ * To build it:  java arkref.parsestuff.LemmaStore config/MORPH_CACHE.gz config/MORPH_CACHE.bin
+ * A store older than its .gz is out of date; see isStale() and rebuild().
+ */
+public class LemmaStore {
+	public static final int MAGIC = 0x41524b4c; // "ARKL"
+	public static final int VERSION = 1;
+
+	private final MappedByteBuffer buf;
+	private final Map<String,Integer> posIds = new HashMap<String,Integer>();
+	private final int slotsAt;
+	private final int slotMask;
+	private final String[] lemmas;
+
+	public LemmaStore(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			// the mapping stays valid after the file is closed
+			file.close();
+		}
+		if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+			throw new IOException("not a version " + VERSION + " lemma store: " + path);
+		}
+		int pos = 8;
+		int numPos = buf.getInt(pos); pos += 4;
+		for (int i=0; i < numPos; i++) {
+			int len = buf.getShort(pos); pos += 2;
+			posIds.put(readChars(pos, len), i); pos += 2*len;
+		}
+		lemmas = new String[buf.getInt(pos)]; pos += 4;
+		slotMask = buf.getInt(pos) - 1; pos += 4;
+		slotsAt = pos;
+	}
+
+	/** same answers as AnalysisUtilities.getLemma() with the HashMaps loaded from the .gz **/
+	public String getLemma(String word, String pos) {
+		Integer p = posIds.get(pos);
+		if (p == null) return word;
+		String lower = word.toLowerCase();
+		int hash = lower.hashCode();
+		for (int slot = slotFor(hash, p, slotMask); ; slot = (slot + 1) & slotMask) {
+			int at = buf.getInt(slotsAt + 4*slot);
+			if (at == 0) return lower;
+			if (buf.getInt(at) == hash && buf.getShort(at + 8) == p && sameWord(at + 10, lower)) {
+				return lemma(at, lower);
+			}
+		}
+	}
+
+	public int size() {
+		return lemmas.length;
+	}
+
+	private static int slotFor(int hash, int posId, int slotMask) {
+		int h = hash * 31 + posId;
+		h ^= (h >>> 16);
+		return (h * 0x9e3779b1) & slotMask;
+	}
+
+	private boolean sameWord(int at, String s) {
+		int len = buf.getShort(at);
+		if (len != s.length()) return false;
+		at += 2;
+		for (int k=0; k < len; k++) {
+			if (buf.getChar(at + 2*k) != s.charAt(k)) return false;
+		}
+		return true;
+	}
+
+	private String lemma(int at, String word) {
+		int i = buf.getInt(at + 4);
+		String res = lemmas[i];
+		if (res == null) {
+			at += 10;
+			at += 2 + 2*buf.getShort(at);
+			int len = buf.getShort(at);
+			res = (len == -1) ? word : readChars(at + 2, len);
+			// a race here only means decoding the same lemma twice
+			lemmas[i] = res;
+		}
+		return res;
+	}
+
+	private String readChars(int at, int len) {
+		char[] chars = new char[len];
+		for (int k=0; k < len; k++) {
+			chars[k] = buf.getChar(at + 2*k);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Reads the tab-separated POS, word, lemma lines the way AnalysisUtilities always has,
+	 * including the entries every word also gets under UNKNOWN, and the extra men -> man.
+	 */
+	public static Map<String,Map<String,String>> readMorphologyCache(File morphFile) throws IOException {
+		Map<String,Map<String,String>> morphMap = new HashMap<String,Map<String,String>>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(morphFile))));
+		String buf;
+		while ((buf = br.readLine()) != null) {
+			String[] parts = buf.split("\\t");
+			addMorph(morphMap, parts[1], parts[0], parts[2]);
+			addMorph(morphMap, parts[1], "UNKNOWN", parts[2]);
+		}
+		br.close();
+		addMorph(morphMap, "men", "NNS", "man");
+		return morphMap;
+	}
+
+	private static void addMorph(Map<String,Map<String,String>> morphMap, String word, String pos, String stem) {
+		Map<String, String> posMap = morphMap.get(pos);
+		if (posMap == null) {
+			posMap = new HashMap<String, String>();
+			morphMap.put(pos.intern(), posMap);
+		}
+		posMap.put(word.intern(), stem.intern());
+	}
+
+	public static void write(Map<String,Map<String,String>> morphMap, File out) throws IOException {
+		List<String> tags = new ArrayList<String>(new TreeMap<String,Map<String,String>>(morphMap).keySet());
+		List<String> words = new ArrayList<String>();
+		List<String> stems = new ArrayList<String>();
+		List<Integer> wordTags = new ArrayList<Integer>();
+		for (int i=0; i < tags.size(); i++) {
+			for (Map.Entry<String,String> e : new TreeMap<String,String>(morphMap.get(tags.get(i))).entrySet()) {
+				words.add(e.getKey());
+				stems.add(e.getValue());
+				wordTags.add(i);
+			}
+		}
+
+		// at most half full, so probes stay short
+		int numSlots = 1;
+		while (numSlots < 2*words.size()) numSlots *= 2;
+		int headerBytes = 12;
+		for (String tag : tags) headerBytes += 2 + 2*tag.length();
+		headerBytes += 8 + 4*numSlots;
+
+		int[] offsets = new int[words.size()];
+		int offset = headerBytes;
+		for (int i=0; i < words.size(); i++) {
+			offsets[i] = offset;
+			offset += 4 + 4 + 2 + 2 + 2*words.get(i).length() + 2;
+			if (!stems.get(i).equals(words.get(i))) offset += 2*stems.get(i).length();
+		}
+		int[] slots = new int[numSlots];
+		for (int i=0; i < words.size(); i++) {
+			int slot = slotFor(words.get(i).hashCode(), wordTags.get(i), numSlots - 1);
+			while (slots[slot] != 0) slot = (slot + 1) & (numSlots - 1);
+			slots[slot] = offsets[i];
+		}
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeInt(tags.size());
+		for (String tag : tags) {
+			writeChars(dos, tag);
+		}
+		dos.writeInt(words.size());
+		dos.writeInt(numSlots);
+		for (int slot : slots) {
+			dos.writeInt(slot);
+		}
+		for (int i=0; i < words.size(); i++) {
+			dos.writeInt(words.get(i).hashCode());
+			dos.writeInt(i);
+			dos.writeShort(wordTags.get(i));
+			writeChars(dos, words.get(i));
+			if (stems.get(i).equals(words.get(i))) {
+				dos.writeShort(-1);
+			} else {
+				writeChars(dos, stems.get(i));
+			}
+		}
+		dos.close();
+	}
+
+	private static void writeChars(DataOutputStream dos, String s) throws IOException {
+		if (s.length() > Short.MAX_VALUE) throw new IOException("too long for the lemma store: " + s);
+		dos.writeShort(s.length());
+		dos.writeChars(s);
+	}
+
+	/** true if the store was built before the morphology cache it came from last changed **/
+	public static boolean isStale(File store, File morphFile) {
+		return morphFile.exists() && store.lastModified() < morphFile.lastModified();
+	}
+
+	/**
+	 * Writes the store for morphFile next to its final path and renames it into place,
+	 * so an interrupted build never leaves a partial store behind.
+	 */
+	public static void rebuild(File morphFile, File store) throws IOException {
+		Map<String,Map<String,String>> morphMap = readMorphologyCache(morphFile);
+		File tmp = File.createTempFile(store.getName(), ".tmp", store.getAbsoluteFile().getParentFile());
+		try {
+			write(morphMap, tmp);
+			if (!tmp.renameTo(store) && !(store.delete() && tmp.renameTo(store))) {
+				throw new IOException("could not rename " + tmp + " to " + store);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: LemmaStore MORPH_CACHE.gz MORPH_CACHE.bin");
+			System.exit(-1);
+		}
+		rebuild(new File(args[0]), new File(args[1]));
+		System.err.println("wrote " + new LemmaStore(new File(args[1])).size() + " entries to " + args[1]);
+	}
+}
@@ -0,0 +1,194 @@
+package arkref.parsestuff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import arkref.analysis.ARKref;
+
+/**
+ * On-disk cache of parser and supersense tagger output, keyed by a hash of the
+ * normalized input plus the model that produced the output.  Edited or duplicated
+ * articles only pay for the sentences that actually changed.
+ *
+ * Parses are keyed on a fingerprint of the grammar that produced them (see
+ * grammarFingerprint), not just its path, so a different or rebuilt grammar
+ * doesn't get served trees from the old one.
+ *
+ * The file is an append-only list of records: 20-byte SHA-1 key, int length,
+ * UTF-8 value.  On open we scan it once to build an in-memory key -> offset map;
+ * values are read back with a seek.  A torn record at the end (e.g. from a crash)
+ * is cut off.  Only one process should write to a cache file at a time.
+ *
+ * Turned on by the preprocessCacheFile property.
+ */
+public class PreprocessCache {
+	private static final int KEY_BYTES = 20;
+
+	private RandomAccessFile file;
+	private Map<String,Long> offsets = new HashMap<String,Long>();
+	private long hits = 0;
+	private long misses = 0;
+
+	private static PreprocessCache instance = null;
+	private static boolean opened = false;
+
+	/** @return null if caching is off or the file can't be opened **/
+	public static synchronized PreprocessCache getInstance() {
+		if (!opened) {
+			opened = true;
+			String path = ARKref.getProperties().getProperty("preprocessCacheFile", "");
+			if (path.length() > 0) {
+				try {
+					instance = new PreprocessCache(new File(path));
+				} catch (IOException e) {
+					System.err.println("Could not open preprocessing cache " + path + ": " + e);
+				}
+			}
+		}
+		return instance;
+	}
+
+	public PreprocessCache(File path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		long pos = 0;
+		long length = file.length();
+		byte[] key = new byte[KEY_BYTES];
+		while (pos + KEY_BYTES + 4 <= length) {
+			file.seek(pos);
+			file.readFully(key);
+			int valueLength = file.readInt();
+			long next = pos + KEY_BYTES + 4 + valueLength;
+			if (valueLength < 0 || next > length) break;
+			offsets.put(hex(key), pos + KEY_BYTES);
+			pos = next;
+		}
+		if (pos < length) {
+			file.setLength(pos);
+		}
+	}
+
+	/**
+	 * Identifies a grammar file as loaded with the given max sentence length:
+	 * its path, size and modification time.
+	 *
+	 * @return null if the grammar isn't a local file (e.g. a URL), so parses from it can't be cached
+	 */
+	public static String grammarFingerprint(String grammarFile, int maxLength) {
+		File f = new File(grammarFile);
+		if (!f.isFile()) {
+			return null;
+		}
+		return f.getAbsolutePath() + "\t" + f.length() + "\t" + f.lastModified() + "\t" + maxLength;
+	}
+
+	/** what the parser would say about this sentence, if we've seen it before with this grammar (see grammarFingerprint) **/
+	public synchronized String getParse(String grammar, String sentence) {
+		return get(parseKey(grammar, sentence));
+	}
+
+	public synchronized void putParse(String grammar, String sentence, String value) {
+		put(parseKey(grammar, sentence), value);
+	}
+
+	/** the tagger's input is the parsed sentence, so key on the tree **/
+	public synchronized String getSupersenses(String tree) {
+		return get(supersenseKey(tree));
+	}
+
+	public synchronized void putSupersenses(String tree, String value) {
+		put(supersenseKey(tree), value);
+	}
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return offsets.size();
+	}
+
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+
+	private String parseKey(String grammar, String sentence) {
+		return "parse\t" + grammar + "\t" + normalize(sentence);
+	}
+
+	private String supersenseKey(String tree) {
+		return "sst\t"
+			+ ARKref.getProperties().getProperty("supersenseModelFile", "config/supersenseModel.ser.gz") + "\t"
+			+ normalize(tree);
+	}
+
+	private static String normalize(String text) {
+		return text.trim().replaceAll("\\s+", " ");
+	}
+
+	private String get(String keyText) {
+		Long offset = offsets.get(hex(digest(keyText)));
+		if (offset == null) {
+			misses++;
+			return null;
+		}
+		try {
+			file.seek(offset);
+			byte[] value = new byte[file.readInt()];
+			file.readFully(value);
+			hits++;
+			return new String(value, "UTF-8");
+		} catch (IOException e) {
+			e.printStackTrace();
+			misses++;
+			return null;
+		}
+	}
+
+	private void put(String keyText, String value) {
+		byte[] key = digest(keyText);
+		String hexKey = hex(key);
+		if (offsets.containsKey(hexKey)) return;
+		try {
+			byte[] bytes = value.getBytes("UTF-8");
+			long pos = file.length();
+			file.seek(pos);
+			file.write(key);
+			file.writeInt(bytes.length);
+			file.write(bytes);
+			offsets.put(hexKey, pos + KEY_BYTES);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static byte[] digest(String text) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static String hex(byte[] bytes) {
+		char[] res = new char[bytes.length*2];
+		for (int i=0; i < bytes.length; i++) {
+			res[2*i] = HEX[(bytes[i] >> 4) & 0xf];
+			res[2*i+1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(res);
+	}
+}
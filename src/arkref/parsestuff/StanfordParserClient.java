@@ -0,0 +1,166 @@
+package arkref.parsestuff;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client side of StanfordParserServer's persistent protocol.
+ *
+ * Keeps one socket open for the life of the process instead of connecting once
+ * per sentence.  Requests are tagged with an id, so several threads can share
+ * the connection: each caller blocks only until the answer with its own id
+ * comes back.
+ */
+public class StanfordParserClient {
+
+	/** one answer from the server **/
+	public static class Response {
+		public String tree;
+		public double score;
+		private boolean done = false;
+	}
+
+	private Socket socket;
+	private PrintWriter out;
+	private BufferedReader in;
+	private Map<Long, Response> pending = new HashMap<Long, Response>();
+	private long nextId = 0;
+	private boolean closed = false;
+	private String grammarId;
+
+	private StanfordParserClient(Socket socket, PrintWriter out, BufferedReader in, String grammarId) {
+		this.socket = socket;
+		this.out = out;
+		this.in = in;
+		this.grammarId = grammarId;
+	}
+
+	/**
+	 * Connects and does the handshake.
+	 *
+	 * @return null if the server is up but only speaks the one-sentence-per-connection protocol
+	 * @throws IOException if nothing is listening
+	 */
+	public static StanfordParserClient connect(String host, int port) throws IOException {
+		Socket socket = new Socket(host, port);
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		out.println(StanfordParserServer.PROTOCOL_HANDSHAKE);
+		out.flush();
+		String ack = in.readLine();
+		String grammarId = null;
+		if (ack != null && ack.startsWith(StanfordParserServer.PROTOCOL_ACK + "\t")) {
+			grammarId = ack.substring(StanfordParserServer.PROTOCOL_ACK.length() + 1);
+		} else if (ack == null || !ack.equals(StanfordParserServer.PROTOCOL_ACK)) {
+			// an old server just parsed our handshake as a sentence
+			socket.close();
+			return null;
+		}
+		final StanfordParserClient client = new StanfordParserClient(socket, out, in, grammarId);
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				client.readResponses();
+			}
+		}, "parser-client-reader");
+		reader.setDaemon(true);
+		reader.start();
+		return client;
+	}
+
+	/**
+	 * Sends one sentence and waits for its parse.
+	 *
+	 * @throws IOException if the connection went away before the answer arrived
+	 */
+	public Response parse(String sentence) throws IOException {
+		Response res = new Response();
+		long id;
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("parser connection closed");
+			}
+			id = nextId++;
+			pending.put(id, res);
+		}
+		// the protocol is line based
+		String line = id + "\t" + sentence.replaceAll("[\\r\\n]+", " ");
+		synchronized (out) {
+			out.println(line);
+			out.flush();
+		}
+		synchronized (this) {
+			while (!res.done && !closed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					pending.remove(id);
+					throw new IOException("interrupted while waiting for parse");
+				}
+			}
+			if (!res.done) {
+				throw new IOException("parser connection closed");
+			}
+		}
+		return res;
+	}
+
+	/** what the server reported about its grammar and options, or null if it didn't say **/
+	public String grammarId() {
+		return grammarId;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * runs on the reader thread; hands each "id TAB score TAB tree" line to whoever is waiting for it.
+	 * A malformed line is a protocol error: the connection is closed, so every waiter gets an
+	 * IOException and can fall back to the local parser.
+	 */
+	private void readResponses() {
+		String line;
+		try {
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split("\t", 3);
+				if (parts.length != 3) {
+					System.err.println("malformed parser response: " + line);
+					return;
+				}
+				long id = Long.parseLong(parts[0]);
+				double score = Double.parseDouble(parts[1]);
+				synchronized (this) {
+					Response res = pending.remove(id);
+					if (res == null) continue;
+					res.score = score;
+					res.tree = parts[2];
+					res.done = true;
+					notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			// fall through and fail everyone still waiting
+		} catch (RuntimeException e) {
+			System.err.println("malformed parser response: " + e);
+		} finally {
+			close();
+		}
+	}
+}
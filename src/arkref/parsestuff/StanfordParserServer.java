@@ -4,21 +4,56 @@ package arkref.parsestuff;
 import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
 import edu.stanford.nlp.parser.lexparser.Options;
 import edu.stanford.nlp.trees.*;
+import edu.stanford.nlp.util.Pair;
 
 import java.io.*;
 
 import java.net.*;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Wrapper class to run the Stanford Parser as a socket server so the grammar need not
  * be loaded for every new sentence.
- * 
+ *
+ * Two protocols are spoken on the same port.
+ *
+ * The legacy one: the client sends one sentence, the server answers with the
+ * tree on one line and the PCFG score on the next, then closes the connection.
+ *
+ * The persistent one: the client opens with the line PROTOCOL_HANDSHAKE and the
+ * server answers PROTOCOL_ACK, followed by a tab and an id for the grammar and
+ * options it parses with, if it has one (see PreprocessCache.grammarFingerprint).  After that the client may send any number of
+ * "id TAB sentence" lines on the same connection, and the server answers each
+ * with "id TAB score TAB tree".  Requests are parsed concurrently by the worker
+ * pool, so answers can come back in a different order than they were sent;
+ * clients match them up by id.  See StanfordParserClient.
+ *
+ * The bundled parser keeps its per-sentence chart state inside the
+ * LexicalizedParser object, so every worker thread gets its own parser instance
+ * out of a pool of size -threads.
+ *
  * @author mheilman@cmu.edu
  *
  */
 public class StanfordParserServer  {
 
+	public static final String PROTOCOL_HANDSHAKE = "ARKPARSE/1";
+	public static final String PROTOCOL_ACK = "ARKPARSE/1 OK";
+
+	public static final String FAILED_PARSE = "(ROOT (. .))";
+	public static final String FAILED_SCORE = "-999999999.0";
+
+	private static BlockingQueue<LexicalizedParser> parserPool;
+	private static ExecutorService workers;
+	private static boolean markHeadNodes = false;
+	/** sent with PROTOCOL_ACK so clients can tell which grammar their parses came from; null if unknown **/
+	private static String grammarId = null;
+
 	//@SuppressWarnings("unchecked")
 	public static void main(String[] args) {
 
@@ -26,7 +61,7 @@ public class StanfordParserServer  {
 		String serializedInputFileOrUrl = null;
 		int port = 5556;
 		int maxLength = 40;
-		boolean markHeadNodes = false;
+		int numThreads = 1;
 
 		Properties properties = new Properties();
 		try{
@@ -35,16 +70,18 @@ public class StanfordParserServer  {
 			e.printStackTrace();
 		}
 		maxLength = new Integer(properties.getProperty("parserMaxLength", "60"));
+		numThreads = new Integer(properties.getProperty("parserServerThreads", "1"));
 
 		// variables needed to process the files to be parse
 		String sentenceDelimiter = null;
 		int argIndex = 0;
 		if (args.length < 1) {
-			System.err.println("usage: java edu.stanford.nlp.parser.lexparser." + "LexicalizedParser parserFileOrUrl\nOptions: -port, -maxLength, -markHeadNodes");
+			System.err.println("usage: java edu.stanford.nlp.parser.lexparser." + "LexicalizedParser parserFileOrUrl\nOptions: -port, -maxLength, -markHeadNodes, -threads");
 			System.exit(1);
 		}
 
 		Options op = new Options();
+		String parserOptions = "";
 		// while loop through option arguments
 		while (argIndex < args.length && args[argIndex].charAt(0) == '-') {
 			if (args[argIndex].equalsIgnoreCase("-sentences")) {
@@ -64,15 +101,21 @@ public class StanfordParserServer  {
 			} else if (args[argIndex].equalsIgnoreCase("-port")) {
 				port = new Integer(args[argIndex + 1]);
 				argIndex += 2;
+			} else if (args[argIndex].equalsIgnoreCase("-threads")) {
+				numThreads = new Integer(args[argIndex + 1]);
+				argIndex += 2;
 			} else if (args[argIndex].equalsIgnoreCase("-markHeadNodes")) {
 				markHeadNodes = true;
 				argIndex++;
 			} else {
+				int start = argIndex;
 				argIndex = op.setOptionOrWarn(args, argIndex);
+				for (int i = start; i < argIndex; i++) {
+					parserOptions += " " + args[i];
+				}
 			}
 		} // end while loop through arguments
 
-		LexicalizedParser lp = null;
 		// so we load a serialized parser
 		if (serializedInputFileOrUrl == null && argIndex < args.length) {
 			// the next argument must be the path to the serialized parser
@@ -83,86 +126,196 @@ public class StanfordParserServer  {
 			System.err.println("No grammar specified, exiting...");
 			System.exit(0);
 		}
-		try {
-			lp = new LexicalizedParser(serializedInputFileOrUrl, op);
-		} catch (IllegalArgumentException e) {
-			System.err.println("Error loading parser, exiting...");
-			System.exit(0);
+		if (numThreads < 1) {
+			numThreads = 1;
+		}
+		grammarId = PreprocessCache.grammarFingerprint(serializedInputFileOrUrl, maxLength);
+		if (grammarId != null) {
+			grammarId += "\t" + markHeadNodes + "\t" + parserOptions.trim();
 		}
-		lp.setMaxLength(maxLength);
-		lp.setOptionFlags("-outputFormat", "oneline");
-
-		TreePrint tp;
-
 
+		parserPool = new ArrayBlockingQueue<LexicalizedParser>(numThreads);
+		for (int i = 0; i < numThreads; i++) {
+			LexicalizedParser lp = null;
+			try {
+				lp = new LexicalizedParser(serializedInputFileOrUrl, op);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Error loading parser, exiting...");
+				System.exit(0);
+			}
+			lp.setMaxLength(maxLength);
+			lp.setOptionFlags("-outputFormat", "oneline");
+			parserPool.add(lp);
+		}
+		workers = Executors.newFixedThreadPool(numThreads);
+		System.err.println("Loaded " + numThreads + " parser(s)");
 
 		// declare a server socket and a client socket for the server
-		// declare an input and an output stream
 		ServerSocket parseServer = null;
-		BufferedReader br;
-		PrintWriter outputWriter;
 		Socket clientSocket = null;
 		try {
 			parseServer = new ServerSocket(port);
 		}
 		catch (IOException e) {
 			System.err.println(e);
-		} 
+		}
 
-		// Create a socket object from the ServerSocket to listen and accept 
-		// connections.
-		// Open input and output streams
+		// Create a socket object from the ServerSocket to listen and accept
+		// connections.  Each connection gets its own reader thread; the actual
+		// parsing happens on the worker pool.
+		ExecutorService connections = Executors.newCachedThreadPool();
 
 		while (true) {
 			System.err.println("Waiting for Connection on Port: "+port);
 			try {
 				clientSocket = parseServer.accept();
 				System.err.println("Connection Accepted From: "+clientSocket.getInetAddress());
-				br = new BufferedReader(new InputStreamReader(new DataInputStream(clientSocket.getInputStream())));
-				outputWriter = new PrintWriter(new PrintStream(clientSocket.getOutputStream()));
-				ByteArrayOutputStream buf = new ByteArrayOutputStream();
-				PrintWriter bufWriter = new PrintWriter(new PrintStream(buf));
-				String doc = "";
+				connections.execute(new ConnectionHandler(clientSocket));
+			}catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
-				do{
-					doc += br.readLine();
-				}while(br.ready());
-				System.err.println("received: " + doc);
 
-				//PARSE
-				try{
-					lp.parse(doc);
+	/**
+	 * Parses one sentence on a parser borrowed from the pool.
+	 *
+	 * @return the one-line tree and its PCFG score, or FAILED_PARSE and FAILED_SCORE
+	 */
+	public static Pair<String, String> parse(String sentence) {
+		LexicalizedParser lp = null;
+		try{
+			lp = parserPool.take();
+			lp.parse(sentence);
 
+			Tree bestParse = lp.getBestParse();
+			TreePrint tp;
+			if(markHeadNodes){
+				tp = new TreePrint("penn","markHeadNodes",new PennTreebankLanguagePack());
+			}else{
+				tp = new TreePrint("penn","",new PennTreebankLanguagePack());
+			}
+			StringWriter buf = new StringWriter();
+			PrintWriter bufWriter = new PrintWriter(buf);
+			tp.printTree(bestParse, bufWriter);
+			bufWriter.flush();
+			String tree = buf.toString().replaceAll("\\s+", " ").trim();
+			return new Pair<String, String>(tree, Double.toString(lp.getPCFGScore()));
+		}catch(Exception e){
+			e.printStackTrace();
+			return new Pair<String, String>(FAILED_PARSE, FAILED_SCORE);
+		}finally{
+			if (lp != null) {
+				parserPool.add(lp);
+			}
+		}
+	}
 
 
-					//OUTPUT RESULT
-					Tree bestParse = lp.getBestParse();
-					if(markHeadNodes){
-						tp = new TreePrint("penn","markHeadNodes",new PennTreebankLanguagePack());
-					}else{
-						tp = new TreePrint("penn","",new PennTreebankLanguagePack());
-					}
-					tp.printTree(bestParse, bufWriter);
-					outputWriter.println(buf.toString().replaceAll("\\s+", " "));
-					outputWriter.println(lp.getPCFGScore());
-					//String output = bestParse.toString();
-					//outputWriter.println(output);
-					//System.err.println("sent: " + output);
-
-				}catch(Exception e){
-					outputWriter.println("(ROOT (. .))");
-					outputWriter.println("-999999999.0");
-					e.printStackTrace();
+	/** Reads requests from one client socket and dispatches them to the worker pool. **/
+	private static class ConnectionHandler implements Runnable {
+		private Socket clientSocket;
+
+		public ConnectionHandler(Socket clientSocket) {
+			this.clientSocket = clientSocket;
+		}
+
+		public void run() {
+			try {
+				BufferedReader br = new BufferedReader(new InputStreamReader(new DataInputStream(clientSocket.getInputStream())));
+				PrintWriter outputWriter = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
+
+				String first = br.readLine();
+				if (first == null) {
+					clientSocket.close();
+				} else if (first.equals(PROTOCOL_HANDSHAKE)) {
+					outputWriter.println(grammarId == null ? PROTOCOL_ACK : PROTOCOL_ACK + "\t" + grammarId);
+					outputWriter.flush();
+					servePersistent(br, outputWriter);
+				} else {
+					serveLegacy(first, br, outputWriter);
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
-				outputWriter.flush();
-				outputWriter.close();
+		/** one sentence, two lines of output, close. **/
+		private void serveLegacy(String first, BufferedReader br, PrintWriter outputWriter) throws IOException {
+			String doc = first;
+			while(br.ready()){
+				doc += br.readLine();
+			}
+			System.err.println("received: " + doc);
 
-			}catch (IOException e) {
+			Pair<String, String> res = parseOnWorker(doc);
+			outputWriter.println(res.first());
+			outputWriter.println(res.second());
+			outputWriter.flush();
+			outputWriter.close();
+			clientSocket.close();
+		}
+
+		private Pair<String, String> parseOnWorker(final String sentence) {
+			try {
+				return workers.submit(new Callable<Pair<String, String>>() {
+					public Pair<String, String> call() {
+						return parse(sentence);
+					}
+				}).get();
+			} catch (Exception e) {
 				e.printStackTrace();
+				return new Pair<String, String>(FAILED_PARSE, FAILED_SCORE);
+			}
+		}
+
+		/** "id TAB sentence" in, "id TAB score TAB tree" out, until the client hangs up. **/
+		private void servePersistent(BufferedReader br, final PrintWriter outputWriter) throws IOException {
+			final int[] pending = new int[1];
+			String line;
+			while ((line = br.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab == -1) {
+					System.err.println("malformed request, no id: " + line);
+					continue;
+				}
+				final String id = line.substring(0, tab);
+				final String sentence = line.substring(tab+1);
+				synchronized (pending) {
+					pending[0]++;
+				}
+				workers.execute(new Runnable() {
+					public void run() {
+						try {
+							Pair<String, String> res = parse(sentence);
+							synchronized (outputWriter) {
+								outputWriter.print(id + "\t" + res.second() + "\t" + res.first() + "\n");
+								outputWriter.flush();
+							}
+						} finally {
+							synchronized (pending) {
+								pending[0]--;
+								pending.notifyAll();
+							}
+						}
+					}
+				});
 			}
+
+			// client is done sending; let the requests in flight finish before closing
+			synchronized (pending) {
+				while (pending[0] > 0) {
+					try {
+						pending.wait();
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+			outputWriter.close();
+			clientSocket.close();
 		}
 	}
 
 }
-
@@ -2,16 +2,15 @@ package arkref.parsestuff;
 
 import edu.stanford.nlp.trees.tregex.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/** compiled patterns are immutable, so one cache serves every thread **/
 public class TregexPatternFactory {
 	protected TregexPatternFactory(){
-		map = new HashMap<String, TregexPattern>();
+		map = new ConcurrentHashMap<String, TregexPattern>();
 	}
 	
 	public static TregexPattern getPattern(String tregex){
-		if(instance == null){
-			instance = new TregexPatternFactory();
-		}
 		Map<String, TregexPattern> myMap = instance.getMap();
 		TregexPattern pattern = myMap.get(tregex);
 		if(pattern == null){
@@ -29,6 +28,6 @@ public class TregexPatternFactory {
 		return map;
 	}
 	
-	private static TregexPatternFactory instance;
+	private static final TregexPatternFactory instance = new TregexPatternFactory();
 	private Map<String, TregexPattern> map;
 }
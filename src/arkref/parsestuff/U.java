@@ -36,6 +36,11 @@ public class U {
 		return s;
 	}
 
+	/**
+	 * Debug output, printed only under -debug.  Arguments are still evaluated when it's off,
+	 * so pass objects to pf's %s (toString() then only runs when printing) instead of
+	 * concatenating, and put anything more expensive behind ARKref.showDebug().
+	 **/
 	public static <T> void pl(T s) {  if (ARKref.showDebug()) {  System.out.println(s);  }  }
 	public static void pf(String pat) {  if (ARKref.showDebug()) {  System.out.printf(pat);  }  }
 
@@ -0,0 +1,109 @@
+package arkref.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import arkref.parsestuff.LemmaStore;
+
+/**
+ * Compares loading config/MORPH_CACHE.gz into HashMaps, the way AnalysisUtilities.getLemma()
+ * used to on first use, with opening the mapped LemmaStore; then checks they agree and times lookups.
+ * Writes the store first if it isn't there.
+ *
+ * usage: LemmaStoreBenchmark [MORPH_CACHE.gz] [MORPH_CACHE.bin] [rounds, default 20]
+ */
+public class LemmaStoreBenchmark {
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i=0; i < 3; i++) System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/** what getLemma() does with the HashMaps **/
+	private static String mapLemma(Map<String,Map<String,String>> morphMap, String word, String pos) {
+		Map<String, String> posMap = morphMap.get(pos);
+		if (posMap == null) return word;
+		String res = posMap.get(word.toLowerCase());
+		return (res == null) ? word.toLowerCase() : res;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File gz = new File(args.length > 0 ? args[0] : "config/MORPH_CACHE.gz");
+		File bin = new File(args.length > 1 ? args[1] : "config/MORPH_CACHE.bin");
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		if (!bin.exists()) {
+			LemmaStore.write(LemmaStore.readMorphologyCache(gz), bin);
+		}
+
+		long heap0 = usedHeap();
+		long start = System.nanoTime();
+		Map<String,Map<String,String>> morphMap = LemmaStore.readMorphologyCache(gz);
+		long loadNanos = System.nanoTime() - start;
+		long mapHeap = usedHeap() - heap0;
+
+		heap0 = usedHeap();
+		start = System.nanoTime();
+		LemmaStore store = new LemmaStore(bin);
+		long openNanos = System.nanoTime() - start;
+		long storeHeap = usedHeap() - heap0;
+
+		System.out.printf("gzip -> HashMaps: %8.1f ms  %6.1f MB heap\n", loadNanos / 1e6, mapHeap / 1e6);
+		System.out.printf("mapped store:     %8.1f ms  %6.1f MB heap  (%d entries, %.1f MB file)\n",
+				openNanos / 1e6, storeHeap / 1e6, store.size(), bin.length() / 1e6);
+
+		// every entry, as typed and capitalized, plus a few unknown words and tags
+		List<String> words = new ArrayList<String>();
+		List<String> tags = new ArrayList<String>();
+		for (Map.Entry<String,Map<String,String>> e : morphMap.entrySet()) {
+			for (String word : e.getValue().keySet()) {
+				words.add(word);
+				tags.add(e.getKey());
+				words.add(word.toUpperCase());
+				tags.add(e.getKey());
+			}
+		}
+		String[] extra = {"Zyzzyvas", "NNS", "ran", "XX", "", "NN", "Men", "NNS"};
+		for (int i=0; i < extra.length; i += 2) {
+			words.add(extra[i]);
+			tags.add(extra[i+1]);
+		}
+		for (int i=0; i < words.size(); i++) {
+			String a = mapLemma(morphMap, words.get(i), tags.get(i));
+			String b = store.getLemma(words.get(i), tags.get(i));
+			if (!a.equals(b)) {
+				throw new RuntimeException("store disagrees on " + tags.get(i) + " " + words.get(i) + ": " + a + " vs " + b);
+			}
+		}
+
+		// one untimed round each, for the JIT and the page cache
+		long checksum = 0;
+		for (int i=0; i < words.size(); i++) {
+			checksum += mapLemma(morphMap, words.get(i), tags.get(i)).length();
+			checksum -= store.getLemma(words.get(i), tags.get(i)).length();
+		}
+		start = System.nanoTime();
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < words.size(); i++) {
+				checksum += mapLemma(morphMap, words.get(i), tags.get(i)).length();
+			}
+		}
+		long mapNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < words.size(); i++) {
+				checksum -= store.getLemma(words.get(i), tags.get(i)).length();
+			}
+		}
+		long storeNanos = System.nanoTime() - start;
+
+		long lookups = (long) rounds * words.size();
+		System.out.printf("HashMap lookups:  %8.1f ns/lookup\n", (double) mapNanos / lookups);
+		System.out.printf("store lookups:    %8.1f ns/lookup  (%d lookups agree, checksum %d)\n",
+				(double) storeNanos / lookups, words.size(), checksum);
+	}
+}
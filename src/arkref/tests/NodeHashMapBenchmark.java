@@ -0,0 +1,106 @@
+package arkref.tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import arkref.data.NodeHashMap;
+import arkref.data.Sentence;
+import arkref.parsestuff.AnalysisUtilities;
+
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Times node-keyed lookups the way Sentence.neType() and Document.node2mention do them,
+ * comparing NodeHashMap against the old String.format(leftCharEdge, hashCode) keys.
+ *
+ * usage: NodeHashMapBenchmark [parse files, default data/*.parse] [rounds, default 200]
+ */
+public class NodeHashMapBenchmark {
+
+	/** what NodeHashMap.nodeKey used to be **/
+	private static String oldKey(Sentence s, Tree node) {
+		return String.format("sent_%s_node_%s_%s", s.ID(), s.rootNode().leftCharEdge(node), node.hashCode());
+	}
+
+	public static void main(String[] args) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		int rounds = 200;
+		for (String arg : args) {
+			if (arg.matches("\\d+")) rounds = Integer.parseInt(arg);
+			else paths.add(arg);
+		}
+		if (paths.isEmpty()) {
+			for (File f : new File("data").listFiles()) {
+				if (f.getName().endsWith(".parse")) paths.add(f.getPath());
+			}
+		}
+
+		List<Sentence> sentences = new ArrayList<Sentence>();
+		List<Tree> nodes = new ArrayList<Tree>();
+		List<Sentence> nodeSentences = new ArrayList<Sentence>();
+		for (String path : paths) {
+			BufferedReader r = new BufferedReader(new FileReader(path));
+			String line;
+			while ((line = r.readLine()) != null) {
+				String[] parts = line.split("\t");
+				Sentence s = new Sentence(sentences.size()+1);
+				s.setRootNode(AnalysisUtilities.getInstance().readTreeFromString(parts[parts.length-1]));
+				sentences.add(s);
+				for (Tree node : s.rootNode()) {
+					nodes.add(node);
+					nodeSentences.add(s);
+				}
+			}
+			r.close();
+		}
+		System.out.printf("%d files, %d sentences, %d nodes, %d rounds\n", paths.size(), sentences.size(), nodes.size(), rounds);
+
+		Map<String,Integer> oldMap = new HashMap<String,Integer>();
+		NodeHashMap<Integer> newMap = new NodeHashMap<Integer>();
+		for (int i=0; i < nodes.size(); i++) {
+			oldMap.put(oldKey(nodeSentences.get(i), nodes.get(i)), i);
+			newMap.put(nodeSentences.get(i), nodes.get(i), i);
+		}
+
+		// check they agree before timing anything
+		for (int i=0; i < nodes.size(); i++) {
+			Integer a = oldMap.get(oldKey(nodeSentences.get(i), nodes.get(i)));
+			Integer b = newMap.get(nodeSentences.get(i), nodes.get(i));
+			if (b == null || b != i) {
+				throw new RuntimeException("NodeHashMap lost node " + i + ": " + nodes.get(i));
+			}
+			if (a != i) {
+				// old scheme collided, e.g. on a unary chain
+				System.out.printf("old key collision at node %d: %s\n", i, nodes.get(i));
+			}
+		}
+
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < nodes.size(); i++) {
+				checksum += oldMap.get(oldKey(nodeSentences.get(i), nodes.get(i)));
+			}
+		}
+		long oldNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int r=0; r < rounds; r++) {
+			for (int i=0; i < nodes.size(); i++) {
+				checksum -= newMap.get(nodeSentences.get(i), nodes.get(i));
+			}
+		}
+		long newNanos = System.nanoTime() - start;
+
+		long lookups = (long) rounds * nodes.size();
+		System.out.printf("String.format keys: %8.1f ns/lookup\n", (double) oldNanos / lookups);
+		System.out.printf("NodeHashMap:        %8.1f ns/lookup\n", (double) newNanos / lookups);
+		System.out.printf("speedup %.1fx  (checksum %d)\n", (double) oldNanos / newNanos, checksum);
+	}
+}
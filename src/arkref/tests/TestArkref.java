@@ -1,22 +1,48 @@
 package arkref.tests;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
 
 
 import arkref.analysis.ARKref;
 import arkref.analysis.FindMentions;
+import arkref.analysis.StreamingResolver;
 import arkref.analysis.SyntacticPaths;
 import arkref.analysis.Types;
+import arkref.analysis.WriteEntityXml;
 import arkref.analysis._SimplePipeline;
+import arkref.data.CDB;
+import arkref.data.ContextStore;
 import arkref.data.Document;
+import arkref.data.DocumentSnapshot;
 import arkref.data.Mention;
+import arkref.data.Sentence;
+import arkref.data.TreeIndex;
+import arkref.data.Word;
+import arkref.parsestuff.AlignedSub;
 import arkref.parsestuff.AnalysisUtilities;
+import arkref.parsestuff.LemmaStore;
+import arkref.parsestuff.PreprocessCache;
 import arkref.parsestuff.U;
 
 
+import edu.stanford.nlp.trees.HeadFinder;
 import edu.stanford.nlp.trees.Tree;
 import junit.framework.TestCase;
 
@@ -429,6 +455,64 @@ public class TestArkref extends TestCase {
 	}
 	
 	
+	public void testTreeIndexAgreesWithTree() throws IOException{
+		Document d = Document.loadFiles("data/20000715_AFP_ARB_0072_ENG");
+		Sentence sent = d.sentences().get(0);
+		Tree root = sent.rootNode();
+		TreeIndex index = sent.treeIndex();
+		HeadFinder hf = AnalysisUtilities.getInstance().getHeadFinder();
+		
+		assertEquals(root.getLeaves(), index.leaves());
+		for (Tree node : root) {
+			assertSame(node.parent(root), index.parent(node));
+			assertSame(node.headTerminal(hf), index.headTerminal(node));
+			List<Tree> nodeLeaves = node.getLeaves();
+			assertSame(nodeLeaves.get(0), index.leaves().get(index.leafStart(node)));
+			assertEquals(nodeLeaves.size(), index.leafEnd(node) - index.leafStart(node));
+		}
+		
+		List<Tree> leaves = root.getLeaves();
+		Tree a = leaves.get(0);
+		Tree b = leaves.get(48);
+		assertTrue(index.dominates(root, b));
+		assertTrue(index.dominates(b, b));
+		assertFalse(index.dominates(a, b));
+		assertEquals(root.pathNodeToNode(a, b).size()-1, index.pathLength(a, b));
+	}
+	
+	
+	public void testPathLengthAgreesWithDocumentTree() throws IOException{
+		Document d = Document.loadFiles("data/reflexives");
+		FindMentions.go(d);
+		for (Mention m1 : d.mentions()) {
+			for (Mention m2 : d.mentions()) {
+				assertEquals(SyntacticPaths.computePathLength(m1.node(), m2.node(), d.getTree()),
+						SyntacticPaths.computePathLength(m1, m2));
+			}
+		}
+	}
+	
+	
+	public void testHeadIndexAgreesWithScan() throws IOException{
+		Document d = Document.loadFiles("data/20000715_AFP_ARB_0072_ENG");
+		FindMentions.go(d);
+		int n = Document.HEAD_PREFIX_LENGTH;
+		for (Mention m : d.mentions()) {
+			String head = m.getHeadWord();
+			List<Mention> expected = new ArrayList<Mention>();
+			for (Mention cand : d.prevMentions(m)) {
+				String candHead = cand.getHeadWord();
+				boolean samePrefix = head.length() >= n && candHead.length() >= n
+						&& head.substring(0, n).equals(candHead.substring(0, n));
+				if (head.equalsIgnoreCase(candHead) || samePrefix) {
+					expected.add(cand);
+				}
+			}
+			assertEquals(m.toString(), expected, d.prevMentionsSharingHead(m));
+		}
+	}
+
+
 	public void testFindMentionDominatingNode() throws IOException{
 		//example from H&K 2009
 		//Walmart says Gitano, its top-selling brand, is underselling.
@@ -502,6 +586,126 @@ public class TestArkref extends TestCase {
 
 	}
 	
+	/** alignTokens as it was before surfaceMatchesAt, lowercasing and matching a regex at every position **/
+	private static int[] referenceAlignTokens(String rawText, String[] tokens) {
+		int MAX_ALIGNMENT_SKIP = 100;
+		int[] alignments = new int[tokens.length];
+		int curPos = 0;
+		tok_loop:
+		for (int i=0; i < tokens.length; i++) {
+			String tok = tokens[i];
+			for (int j=0; j < MAX_ALIGNMENT_SKIP; j++) {
+				boolean directMatch  = rawText.regionMatches(curPos + j, tok, 0, tok.length());
+				if (!directMatch)
+					directMatch = rawText.toLowerCase().regionMatches(curPos + j, tok.toLowerCase(), 0, tok.length());
+				boolean alternateMatch = false;
+				if (!directMatch) {
+					int roughLast = curPos+j+tok.length()*2+10;
+					String substr = StringUtils.substring(rawText, curPos+j, roughLast);
+					Matcher m = AnalysisUtilities.tokenSurfaceMatches(tok).matcher(substr);
+					alternateMatch = m.find() && m.start()==0;
+				}
+				if (directMatch || alternateMatch) {
+					alignments[i] = curPos+j;
+					curPos = directMatch ? curPos+j+tok.length() : curPos+j+1;
+					continue tok_loop;
+				}
+			}
+			alignments[i] = -1;
+		}
+		return alignments;
+	}
+
+	public void testTokenAlignmentsAgreeWithReference() throws IOException {
+		// PTB escapes, and tokens the parser split, normalized or recased
+		String[][] cases = {
+			{"He said (quietly) that [it] was \"fine\".",
+				"He said -LRB- quietly -RRB- that -LRB- it -RRB- was `` fine '' ."},
+			{"``Tommy'' can't go, he's gonna stay.",
+				"`` Tommy '' ca n't go , he 's gon na stay ."},
+			{"It's 'odd,' she said... then left.",
+				"It 's ` odd , ' she said ... then left ."},
+			{"JAKARTA (AP) -- It cost $5.00 at AT&amp;T in the U.S.",
+				"Jakarta -LRB- AP -RRB- -- It cost $ 5.00 at AT&T in the U.S. ."},
+			{"\u0130stanbul is bigger than IZMIR, I think.",
+				"\u0130stanbul is bigger than Izmir , I think ."},
+			{"The 16 2/3 percent rate cannot stand.",
+				"The 16 2/3 percent rate can not stand ."},
+			{"Nothing here matches", "-LRB- `` xyzzy ''"},
+		};
+		for (String[] c : cases) {
+			String[] tokens = c[1].split(" ");
+			int[] expected = referenceAlignTokens(c[0], tokens);
+			int[] actual = AnalysisUtilities.alignTokens(c[0], tokens);
+			assertEquals(c[0], Arrays.toString(expected), Arrays.toString(actual));
+		}
+
+		int[] alignments = AnalysisUtilities.alignTokens(cases[0][0], cases[0][1].split(" "));
+		assertEquals(8, alignments[2]); //-LRB- for (
+		assertEquals(16, alignments[4]); //-RRB- for )
+		assertEquals(23, alignments[6]); //-LRB- for [
+		assertEquals(32, alignments[10]); //`` for "
+		assertEquals(37, alignments[12]); //'' for "
+		alignments = AnalysisUtilities.alignTokens(cases[1][0], cases[1][1].split(" "));
+		assertEquals(0, alignments[0]); //``
+		assertEquals(7, alignments[2]); //''
+		assertEquals(10, alignments[3]); //ca
+		assertEquals(12, alignments[4]); //n't
+		alignments = AnalysisUtilities.alignTokens(cases[3][0], cases[3][1].split(" "));
+		assertEquals(0, alignments[0]); //Jakarta, recased
+		assertEquals(-1, alignments[10]); //AT&T, unescaped by the parser
+	}
+
+	private static void assertSameSub(String message, AlignedSub expected, AlignedSub actual) {
+		assertEquals(message, expected.text, actual.text);
+		assertEquals(message, Arrays.toString(expected.alignments), Arrays.toString(actual.alignments));
+	}
+
+	public void testCleanupRulesAgreeWithChainedReplaceAll() {
+		String[] pieces = {"<P>", "</TEXT>", "<a href=x>", " ", "\n", "\t", "&amp;", "&AMP;", "&lt;", "&LT;",
+				"&gt;", "&GT;", "&", ";", "lt;", "gt;", "amp;", "<", ">", "a", "Bob"};
+		List<String> texts = new ArrayList<String>(Arrays.asList(
+				"", "plain text", "  <P> <DOC>\n Hello <b>there</b>.  ", "&amp;lt; &lt;gt; &AMP;GT; AT&amp;T",
+				"<P>", "   ", "x &lt;&gt;&amp;"));
+		java.util.Random random = new java.util.Random(17);
+		for (int t=0; t < 2000; t++) {
+			StringBuilder sb = new StringBuilder();
+			int len = random.nextInt(12);
+			for (int k=0; k < len; k++) sb.append(pieces[random.nextInt(pieces.length)]);
+			texts.add(sb.toString());
+		}
+		for (String text : texts) {
+			// what cleanupDocument and moreCleanup did before the rule sets
+			AlignedSub doc = new AlignedSub(text).replaceAll("<\\S+>", "").replaceAll("^\\s+", "");
+			assertSameSub(text, doc, AnalysisUtilities.cleanupDocument(text));
+			AlignedSub entities = new AlignedSub(text).replaceAll("&(amp|AMP);", "&")
+					.replaceAll("&(lt|LT);", "<").replaceAll("&(gt|GT);", ">");
+			assertSameSub(text, entities, AnalysisUtilities.moreCleanup(text));
+		}
+	}
+
+	public void testRulesKeepPatternFlags() {
+		AlignedSub.Rules rules = new AlignedSub.Rules()
+			.add(Pattern.compile("abc", Pattern.CASE_INSENSITIVE), "X")
+			.add(Pattern.compile("^b # a comment", Pattern.MULTILINE | Pattern.COMMENTS), "Y")
+			.add(Pattern.compile("a.c", Pattern.LITERAL), "Z");
+		assertEquals("X X\nY a.b Z", new AlignedSub("ABC abc\nb a.b a.c").replaceAll(rules).text);
+		AlignedSub single = new AlignedSub("ABC abc").replaceAll(Pattern.compile("abc", Pattern.CASE_INSENSITIVE), "X");
+		assertEquals("X X", single.text);
+
+		try {
+			new AlignedSub.Rules().add("(a)\\1", "");
+			fail("backreference accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new AlignedSub.Rules().add(Pattern.compile("a", Pattern.CANON_EQ), "");
+			fail("CANON_EQ accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		new AlignedSub.Rules().add("\\\\1 \\Q\\1\\E", "");
+	}
+
 	public void testAdjunctPhrases() throws IOException{
 		//The students were tired of working. (s1)
 		//To meet their friends, they went to the bar. (s2)
@@ -524,6 +728,249 @@ public class TestArkref extends TestCase {
 		assertNoLink(13,14,d); //Susan, she (s5)
 	}	
 
+	public void testStreamingAgreesWithBatch() throws IOException{
+		// the document twice over, with a window that makes the second copy forget the first
+		List<String> parseLines = new ArrayList<String>();
+		List<String> sstLines = new ArrayList<String>();
+		for (int i=0; i < 2; i++) {
+			parseLines.addAll(Arrays.asList(U.readFile("data/adjunctPhrases.parse").split("\n")));
+			sstLines.addAll(Arrays.asList(U.readFile("data/adjunctPhrases.sst").split("\n")));
+		}
+		int window = ARKref.Opts.sentenceWindow;
+		StringWriter batch = new StringWriter();
+		StringWriter streamed = new StringWriter();
+		try {
+			ARKref.Opts.sentenceWindow = 2;
+			Document d = Document.loadLines(parseLines, sstLines);
+			_SimplePipeline.go(d);
+			WriteEntityXml.writeTaggedDocument(d, batch);
+
+			StreamingResolver sr = new StreamingResolver(streamed);
+			for (int i=0; i < parseLines.size(); i++) {
+				sr.addSentence(parseLines.get(i), sstLines.get(i));
+			}
+		} finally {
+			ARKref.Opts.sentenceWindow = window;
+		}
+
+		// streamed entities are named by their first mention; batch ones by all of them
+		String expected = batch.toString().replaceAll("entityid=\"(\\d+)[_\\d]*\"", "entityid=\"$1\"");
+		assertEquals(expected, streamed.toString());
+	}
+	
+	/** what AnalysisUtilities.getLemma() does with the HashMaps **/
+	private static String mapLemma(Map<String,Map<String,String>> morphMap, String word, String pos) {
+		Map<String, String> posMap = morphMap.get(pos);
+		if (posMap == null) return word;
+		String res = posMap.get(word.toLowerCase());
+		return (res == null) ? word.toLowerCase() : res;
+	}
+
+	public void testLemmaStoreAgreesWithMorphologyMaps() throws IOException{
+		File gz = new File("config/MORPH_CACHE.gz");
+		File bin = File.createTempFile("MORPH_CACHE", ".bin");
+		bin.deleteOnExit();
+		LemmaStore.rebuild(gz, bin);
+		assertFalse(LemmaStore.isStale(bin, gz));
+		bin.setLastModified(gz.lastModified() - 10000);
+		assertTrue(LemmaStore.isStale(bin, gz));
+
+		Map<String,Map<String,String>> morphMap = LemmaStore.readMorphologyCache(gz);
+		LemmaStore store = new LemmaStore(bin);
+		for (Map.Entry<String,Map<String,String>> e : morphMap.entrySet()) {
+			String pos = e.getKey();
+			for (String word : e.getValue().keySet()) {
+				assertEquals(word+"/"+pos, mapLemma(morphMap, word, pos), store.getLemma(word, pos));
+				String upper = word.toUpperCase();
+				assertEquals(upper+"/"+pos, mapLemma(morphMap, upper, pos), store.getLemma(upper, pos));
+			}
+		}
+		String[][] others = {{"men", "NNS"}, {"Running", "VBG"}, {"Zyxwvut", "NN"}, {"Dogs", "NOSUCHTAG"}};
+		for (String[] wp : others) {
+			assertEquals(wp[0]+"/"+wp[1], mapLemma(morphMap, wp[0], wp[1]), store.getLemma(wp[0], wp[1]));
+		}
+	}
+
+	private static String resolveToXml(String path) throws IOException {
+		Document d = Document.loadFiles(path);
+		_SimplePipeline.go(d);
+		StringWriter sw = new StringWriter();
+		WriteEntityXml.writeTaggedDocument(d, sw);
+		return sw.toString();
+	}
+
+	public void testConcurrentResolutionAgreesWithSerial() throws Exception{
+		// what ARKref -batchThreads and ResolutionServer do: several documents at once on a pool
+		String[] paths = {"data/IWithinI", "data/adjunctPhrases", "data/conjunctionsTest", "data/defaultMale1",
+				"data/firstPerson1", "data/indo", "data/nativeAmericans", "data/roleAppositivesTest"};
+		boolean debug = ARKref.Opts.debug;
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			// -debug output isn't meant to be shared between threads
+			ARKref.Opts.debug = false;
+			List<String> serial = new ArrayList<String>();
+			for (String path : paths) {
+				serial.add(resolveToXml(path));
+			}
+
+			List<Future<String>> concurrent = new ArrayList<Future<String>>();
+			for (int round=0; round < 4; round++) {
+				for (final String path : paths) {
+					concurrent.add(pool.submit(new Callable<String>() {
+						public String call() throws IOException {
+							return resolveToXml(path);
+						}
+					}));
+				}
+			}
+			for (int i=0; i < concurrent.size(); i++) {
+				assertEquals(paths[i % paths.length], serial.get(i % paths.length), concurrent.get(i).get());
+			}
+		} finally {
+			pool.shutdownNow();
+			ARKref.Opts.debug = debug;
+		}
+	}
+
+	public void testPreprocessCacheRoundTrip() throws IOException{
+		File file = File.createTempFile("preprocessCache", ".bin");
+		file.deleteOnExit();
+		PreprocessCache cache = new PreprocessCache(file);
+		cache.putParse("grammar1", "John saw Mary .", "-30.5\t(ROOT (S (NP (NNP John)) (VP (VBD saw) (NP (NNP Mary))) (. .)))");
+		cache.putSupersenses("(ROOT (NP (NNP John)))", "B-noun.person");
+		assertEquals("-30.5\t(ROOT (S (NP (NNP John)) (VP (VBD saw) (NP (NNP Mary))) (. .)))",
+				cache.getParse("grammar1", "  John saw   Mary . "));
+		assertNull(cache.getParse("grammar2", "John saw Mary ."));
+		assertEquals("B-noun.person", cache.getSupersenses("(ROOT (NP (NNP John)))"));
+		cache.close();
+		long length = file.length();
+
+		// a record torn off in the middle, as a crash would leave it
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(length);
+		raf.write(new byte[20]);
+		raf.writeInt(1000);
+		raf.write("(ROOT".getBytes("UTF-8"));
+		raf.close();
+
+		cache = new PreprocessCache(file);
+		assertEquals(length, file.length());
+		assertEquals(2, cache.size());
+		assertEquals("B-noun.person", cache.getSupersenses("(ROOT (NP (NNP John)))"));
+		cache.putParse("grammar2", "John saw Mary .", "-31.0\t(ROOT (. .))");
+		cache.close();
+
+		cache = new PreprocessCache(file);
+		assertEquals(3, cache.size());
+		assertEquals("-31.0\t(ROOT (. .))", cache.getParse("grammar2", "John saw Mary ."));
+		cache.close();
+	}
+
+	private static void writeFile(File file, String text) throws IOException {
+		FileWriter w = new FileWriter(file);
+		w.write(text);
+		w.close();
+	}
+
+	public void testContextStoreRoundTrip() throws IOException{
+		File dir = File.createTempFile("categories", "");
+		dir.delete();
+		dir.mkdir();
+		String line0 = "dog\tctxA---3\tctxB---4\n";
+		writeFile(new File(dir, "cat_pairs_np-idx.txt"), line0 + "bird\tctxB---1\tbad\t1---5\n");
+		writeFile(new File(dir, "np2c.index"), "dog\t0\ncat\t0\nbird\t" + line0.length() + "\n");
+		writeFile(new File(dir, "np_counts"), "dog\t10\nbird\t2\n");
+		writeFile(new File(dir, "context_counts"), "ctxA\t100\n");
+		File out = new File(dir, "np_contexts.bin");
+		ContextStore.write(dir, out);
+
+		ContextStore store = new ContextStore(out);
+		assertEquals(3, store.numNPs());
+		assertEquals(2, store.numContexts());
+		assertTrue(store.haveNP("dog"));
+		assertFalse(store.haveNP("fish"));
+		assertNull(store.getContextVector("fish"));
+
+		CDB.FV dog = store.getContextVector("dog");
+		assertEquals("ctxA", store.contextName(dog.ids[0]));
+		assertEquals("ctxB", store.contextName(dog.ids[1]));
+		assertEquals(3, dog.get(dog.ids[0]));
+		assertEquals(4, dog.get(dog.ids[1]));
+		assertEquals(5.0, dog.norm, 1e-9);
+		CDB.FV cat = store.getContextVector("cat");
+		assertEquals(Arrays.toString(dog.ids), Arrays.toString(cat.ids));
+		assertEquals(Arrays.toString(dog.counts), Arrays.toString(cat.counts));
+		// malformed pairs and the context "1" are skipped
+		CDB.FV bird = store.getContextVector("bird");
+		assertEquals(1, bird.ids.length);
+		assertEquals("ctxB", store.contextName(bird.ids[0]));
+		assertEquals(1, bird.counts[0]);
+
+		assertEquals(10, store.npCount("dog"));
+		assertEquals(-1, store.npCount("cat"));
+		assertEquals(100, store.contextCount(dog.ids[0]));
+		assertEquals(-1, store.contextCount(dog.ids[1]));
+
+		// only the finished store is left behind
+		assertEquals(5, dir.list().length);
+		for (File f : dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	public void testSnapshotAgreesWithText() throws IOException{
+		Document d = Document.loadText("data/roleAppositivesTest");
+		File file = File.createTempFile("roleAppositivesTest", DocumentSnapshot.EXTENSION);
+		file.deleteOnExit();
+		DocumentSnapshot.write(d, file);
+		Document loaded = DocumentSnapshot.read(file);
+		
+		assertEquals(d.sentences().size(), loaded.sentences().size());
+		for (int i=0; i < d.sentences().size(); i++) {
+			Sentence s = d.sentences().get(i);
+			Sentence t = loaded.sentences().get(i);
+			assertEquals(s.ID(), t.ID());
+			assertEquals(s.hasParse, t.hasParse);
+			// after the role appositive rewrite
+			assertEquals(s.rootNode().toString(), t.rootNode().toString());
+			assertEquals(s.words.toString(), t.words.toString());
+			for (Word w : t.words) {
+				assertSame(w, t.node2word(w.node()));
+			}
+		}
+	}
+
+	public void testSnapshotStaleAfterSameSecondRewrite() throws IOException{
+		File dir = File.createTempFile("snapshot", "");
+		dir.delete();
+		dir.mkdir();
+		String path = new File(dir, "roleAppositivesTest").getPath();
+		File parse = new File(path + ".parse");
+		File sst = new File(path + ".sst");
+		writeFile(parse, U.readFile("data/roleAppositivesTest.parse"));
+		writeFile(sst, U.readFile("data/roleAppositivesTest.sst"));
+		File snapshot = DocumentSnapshot.fileFor(path);
+		try {
+			assertFalse(DocumentSnapshot.isFresh(path));
+			DocumentSnapshot.write(Document.loadText(path), snapshot, DocumentSnapshot.sourceStamp(path));
+			assertTrue(DocumentSnapshot.isFresh(path));
+
+			// a rewrite that keeps the old mtime, as on a file system with whole-second mtimes
+			long mtime = sst.lastModified();
+			writeFile(sst, U.readFile("data/roleAppositivesTest.sst") + "\n");
+			sst.setLastModified(mtime);
+			assertFalse(DocumentSnapshot.isFresh(path));
+
+			// and a snapshot with no recorded sources is never fresh
+			DocumentSnapshot.write(Document.loadText(path), snapshot);
+			assertFalse(DocumentSnapshot.isFresh(path));
+		} finally {
+			parse.delete();
+			sst.delete();
+			snapshot.delete();
+			dir.delete();
+		}
+	}
+
 	/*public void testDisallowPronounsMatchesInQuotes() throws IOException{
 		//John said, "You need to see him."
 		//Susan said, "She needs to see him."
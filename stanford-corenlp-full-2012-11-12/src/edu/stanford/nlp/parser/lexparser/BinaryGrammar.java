@@ -26,6 +26,9 @@ public class BinaryGrammar implements Serializable, Iterable<BinaryRule> {
   private transient Set<BinaryRule>[] ruleSetWithRC;
   private transient BinaryRule[][] splitRulesWithLC;
   private transient BinaryRule[][] splitRulesWithRC;
+  // the same rules as parallel arrays, for the parser's inner loops
+  private transient RuleTable splitTableWithLC;
+  private transient RuleTable splitTableWithRC;
   //  private transient BinaryRule[][] splitRulesWithParent = null;
   private transient Map<BinaryRule,BinaryRule> ruleMap;
   // for super speed! (maybe)
@@ -98,6 +101,8 @@ public class BinaryGrammar implements Serializable, Iterable<BinaryRule> {
       // parent accessor
       //      splitRulesWithParent[state] = toBRArray(rulesWithParent[state]);
     }
+    splitTableWithLC = RuleTable.binary(splitRulesWithLC);
+    splitTableWithRC = RuleTable.binary(splitRulesWithRC);
   }
 
   public BinaryRule[] splitRulesWithLC(int state) {
@@ -114,6 +119,16 @@ public class BinaryGrammar implements Serializable, Iterable<BinaryRule> {
     return splitRulesWithRC[state];
   }
 
+  /** The rules of every splitRulesWithLC(state), in one table by left child. */
+  RuleTable splitTableWithLC() {
+    return splitTableWithLC;
+  }
+
+  /** The rules of every splitRulesWithRC(state), in one table by right child. */
+  RuleTable splitTableWithRC() {
+    return splitTableWithRC;
+  }
+
   //  public BinaryRule[] splitRulesWithParent(int state) {
   //    return splitRulesWithParent[state];
   //  }
@@ -0,0 +1,139 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.util.Arrays;
+
+/**
+ * The charts of an {@link ExhaustivePCFGParser}: inside and outside scores,
+ * the word counts used for length normalization, and the possible-state
+ * tables of the factored parser.  Each is a single flat array, allocated
+ * when the parser first needs that much room and then reused for every
+ * sentence after.
+ * <br>
+ * The score arrays have one cell of <code>numStates</code> entries per span,
+ * so the states of a span are contiguous.  Cells are ordered by end and then
+ * by start, which means that the cells a sentence of length n uses are
+ * always the first n(n+1)/2, whatever the capacity, and that the right
+ * children (split, end) of the splits of a span lie next to each other.
+ * <br>
+ * Nothing is wiped when a parse starts.  An inside cell is cleared when it
+ * is first claimed during a parse (see {@link #claim}); the outside chart
+ * is cleared as one contiguous prefix, and only by parses that need it.
+ */
+class ChartArena {
+
+  final int numStates;
+  /** The most words (including the boundary symbol) a sentence can have. */
+  final int capacity;
+
+  final float[] iScore;
+  final float[] oScore; // null unless outside scores were asked for
+  final int[] wordsInSpan; // null unless length normalization was asked for
+
+  // [loc * numStates + state]; null unless outside scores were asked for
+  final boolean[] iPossibleByL;
+  final boolean[] iPossibleByR;
+  final boolean[] oPossibleByL;
+  final boolean[] oPossibleByR;
+
+  /** cellsFrom[start][end] and cellsTo[end][start] are both cell(start, end),
+   *  looked up a row at a time by the inner loops over split points. */
+  final int[][] cellsFrom;
+  final int[][] cellsTo;
+
+  /** The parse each inside cell was last cleared for. */
+  private final int[] clearedFor;
+  private int parseNumber; // = 0, so every cell starts out dirty
+
+  ChartArena(int capacity, int numStates, boolean outside, boolean wordCounts) {
+    long size = numCells(capacity) * numStates;
+    if (size > Integer.MAX_VALUE) {
+      throw new OutOfMemoryError("Refusal to create such large arrays.");
+    }
+    this.numStates = numStates;
+    this.capacity = capacity;
+    iScore = new float[(int) size];
+    clearedFor = new int[(int) numCells(capacity)];
+    cellsFrom = new int[capacity + 1][capacity + 1];
+    cellsTo = new int[capacity + 1][capacity + 1];
+    for (int end = 1; end <= capacity; end++) {
+      for (int start = 0; start < end; start++) {
+        cellsFrom[start][end] = cellsTo[end][start] = cell(start, end);
+      }
+    }
+    wordsInSpan = wordCounts ? new int[(int) size] : null;
+    if (outside) {
+      oScore = new float[(int) size];
+      iPossibleByL = new boolean[capacity * numStates];
+      iPossibleByR = new boolean[(capacity + 1) * numStates];
+      oPossibleByL = new boolean[capacity * numStates];
+      oPossibleByR = new boolean[(capacity + 1) * numStates];
+    } else {
+      oScore = null;
+      iPossibleByL = iPossibleByR = oPossibleByL = oPossibleByR = null;
+    }
+  }
+
+  /** The number of spans in a sentence of this length. */
+  static long numCells(int length) {
+    return (long) length * (length + 1) / 2;
+  }
+
+  /** How big an arena of this capacity would be, in bytes. */
+  static long bytesFor(int capacity, int numStates, boolean outside, boolean wordCounts) {
+    long cells = numCells(capacity);
+    int bytesPerState = 4 + (outside ? 4 : 0) + (wordCounts ? 4 : 0);
+    long bytes = cells * numStates * bytesPerState + 4 * cells;
+    if (outside) {
+      bytes += 4L * (capacity + 1) * numStates;
+    }
+    return bytes;
+  }
+
+  /** The offset of the cell for [start, end) in the score arrays. */
+  final int cell(int start, int end) {
+    return (end * (end - 1) / 2 + start) * numStates;
+  }
+
+  /** Makes every inside cell dirty again, without touching it. */
+  void startParse() {
+    parseNumber++;
+    if (parseNumber == 0) {
+      // wrapped around: stale marks could now look current
+      Arrays.fill(clearedFor, 0);
+      parseNumber = 1;
+    }
+  }
+
+  /**
+   * Returns the offset of the cell for [start, end), first clearing its
+   * inside scores (and word counts) if this is the first time it has been
+   * claimed during this parse.  Every cell a parse reads must have been
+   * claimed by then, which the parser does as it first visits each one.
+   */
+  final int claim(int start, int end) {
+    int c = end * (end - 1) / 2 + start;
+    int offset = c * numStates;
+    if (clearedFor[c] != parseNumber) {
+      clearedFor[c] = parseNumber;
+      Arrays.fill(iScore, offset, offset + numStates, Float.NEGATIVE_INFINITY);
+      if (wordsInSpan != null) {
+        Arrays.fill(wordsInSpan, offset, offset + numStates, 1);
+      }
+    }
+    return offset;
+  }
+
+  /** Clears the outside scores of every span of a sentence this long. */
+  void clearOutside(int length) {
+    Arrays.fill(oScore, 0, (int) numCells(length) * numStates, Float.NEGATIVE_INFINITY);
+  }
+
+  /** Clears the possible-state tables for a sentence this long. */
+  void clearPossibles(int length) {
+    Arrays.fill(iPossibleByL, 0, length * numStates, false);
+    Arrays.fill(oPossibleByL, 0, length * numStates, false);
+    Arrays.fill(iPossibleByR, 0, (length + 1) * numStates, false);
+    Arrays.fill(oPossibleByR, 0, (length + 1) * numStates, false);
+  }
+
+}
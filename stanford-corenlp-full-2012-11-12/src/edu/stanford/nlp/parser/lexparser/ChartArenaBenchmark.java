@@ -0,0 +1,140 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * Times PCFG parsing of a file of sentences and reports the garbage it
+ * makes: bytes allocated per sentence, and the number and duration of
+ * collections.  Sentences are parsed in file order, so a chart that is
+ * reallocated or rewiped whenever lengths change shows up in both columns.
+ * Each round is run twice: once with one LexicalizedParserQuery for the
+ * whole file, as a parsing server does, and once with a fresh query per
+ * sentence, which has to build its charts from nothing each time.  The
+ * first round on one query is reported on its own, since that is when its
+ * charts grow.
+ * <br>
+ * Only public API is used, so the same class can time other versions of
+ * the parser.
+ * <br>
+ * Usage: <code>java edu.stanford.nlp.parser.lexparser.ChartArenaBenchmark
+ * parserFile sentenceFile [rounds [parserFlags...]]</code>
+ * <br>
+ * The sentence file has one sentence per line, either as a bracketed tree
+ * (whose leaves are used) or as whitespace-separated tokens.
+ */
+public class ChartArenaBenchmark {
+
+  private ChartArenaBenchmark() {} // main method only
+
+  private static List<List<CoreLabel>> readSentences(String path) throws IOException {
+    List<List<CoreLabel>> sentences = new ArrayList<List<CoreLabel>>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(path), "utf-8"));
+    for (String line; (line = in.readLine()) != null; ) {
+      line = line.trim();
+      if (line.length() == 0) {
+        continue;
+      }
+      List<String> words = new ArrayList<String>();
+      if (line.startsWith("(")) {
+        for (Tree leaf : Tree.valueOf(line).getLeaves()) {
+          words.add(leaf.value());
+        }
+      } else {
+        words.addAll(Arrays.asList(line.split("\\s+")));
+      }
+      List<CoreLabel> sentence = new ArrayList<CoreLabel>();
+      for (String word : words) {
+        CoreLabel label = new CoreLabel();
+        label.setWord(word);
+        label.setValue(word);
+        sentence.add(label);
+      }
+      sentences.add(sentence);
+    }
+    in.close();
+    return sentences;
+  }
+
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static long[] gcCountAndMillis() {
+    long[] totals = new long[2];
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      totals[0] += Math.max(0, gc.getCollectionCount());
+      totals[1] += Math.max(0, gc.getCollectionTime());
+    }
+    return totals;
+  }
+
+  /** Parses every sentence once and returns how many had a parse. */
+  private static int parseAll(LexicalizedParser lp, List<List<CoreLabel>> sentences, boolean reuse) {
+    int parsed = 0;
+    LexicalizedParserQuery query = lp.parserQuery();
+    for (List<CoreLabel> sentence : sentences) {
+      if ( ! reuse) {
+        query = lp.parserQuery();
+      }
+      if (query.parse(sentence)) {
+        parsed++;
+      }
+    }
+    return parsed;
+  }
+
+  private static void time(String name, LexicalizedParser lp, List<List<CoreLabel>> sentences, int rounds, boolean reuse) {
+    System.gc();
+    long[] gc0 = gcCountAndMillis();
+    long bytes0 = allocatedBytes();
+    long start = System.nanoTime();
+    int parsed = 0;
+    for (int r = 0; r < rounds; r++) {
+      parsed = parseAll(lp, sentences, reuse);
+    }
+    long nanos = System.nanoTime() - start;
+    long bytes = allocatedBytes() - bytes0;
+    long[] gc = gcCountAndMillis();
+    int n = rounds * sentences.size();
+    System.out.printf("%-28s %8.2f ms/sentence  %8.3f MB allocated/sentence  %5d GCs  %6d ms in GC  (%d of %d parsed)%n",
+        name, nanos / 1e6 / n, (bytes0 < 0) ? Double.NaN : bytes / 1e6 / n, gc[0] - gc0[0], gc[1] - gc0[1],
+        parsed, sentences.size());
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: java edu.stanford.nlp.parser.lexparser.ChartArenaBenchmark parserFile sentenceFile [rounds [parserFlags...]]");
+      System.exit(1);
+    }
+    int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+    String[] flags = (args.length > 3) ? Arrays.copyOfRange(args, 3, args.length) : new String[0];
+    LexicalizedParser lp = LexicalizedParser.loadModel(args[0], flags);
+    List<List<CoreLabel>> sentences = readSentences(args[1]);
+    int longest = 0;
+    for (List<CoreLabel> sentence : sentences) {
+      longest = Math.max(longest, sentence.size());
+    }
+    System.out.println(sentences.size() + " sentences, longest " + longest + " words, " + rounds + " rounds");
+    // the first round includes growing the chart, and the JIT
+    time("one query, first round", lp, sentences, 1, true);
+    time("one query", lp, sentences, rounds, true);
+    time("query/sentence", lp, sentences, rounds, false);
+  }
+
+}
@@ -0,0 +1,305 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The coarse pass of coarse-to-fine parsing.  Given the span 1 cells of an
+ * {@link ExhaustivePCFGParser} chart, it projects them onto a
+ * {@link ProjectedGrammar}, runs Viterbi inside and outside passes there,
+ * and marks each coarse state over each longer span as allowed if its
+ * max-marginal (inside plus outside score) is within a threshold of the
+ * best coarse parse.  The fine pass then only uses binary rules to build
+ * states whose projections are allowed.
+ * <br>
+ * Since coarse scores are never lower than the fine scores they project
+ * from, no state on the best fine parse is pruned so long as that parse
+ * scores within the threshold of the best coarse one.  Otherwise the fine
+ * pass may come out with a worse parse, or none at all.  Tags over longer
+ * spans aren't projected, so the parser doesn't prune when
+ * {@code maxSpanForTags} is more than 1.
+ */
+class CoarseToFinePruner {
+
+  private final int numStates; // coarse ones
+  private final int[] projection;
+  private final BinaryRule[][] rulesWithLC;
+  private final BinaryRule[][] rulesWithParent;
+  private final UnaryRule[][] unariesWithChild;
+  private final UnaryRule[][] unariesWithParent;
+
+  private ChartArena chart;
+  /** [chart.cell(start, end) + coarse state]: may the fine pass build it? */
+  private boolean[] allowed;
+  /** [chart.cell(start, end) / numStates]: is anything allowed over the span? */
+  private boolean[] spanAllowed;
+  // as in ExhaustivePCFGParser: [end][state] and [start][state]
+  private int[][] narrowLExtent;
+  private int[][] wideLExtent;
+  private int[][] narrowRExtent;
+  private int[][] wideRExtent;
+
+  CoarseToFinePruner(ProjectedGrammar pg) {
+    numStates = pg.targetIndex.size();
+    projection = pg.projection;
+    BinaryGrammar bg = pg.targetBG();
+    rulesWithLC = new BinaryRule[numStates][];
+    rulesWithParent = new BinaryRule[numStates][];
+    unariesWithChild = new UnaryRule[numStates][];
+    unariesWithParent = new UnaryRule[numStates][];
+    for (int state = 0; state < numStates; state++) {
+      rulesWithLC[state] = toArray(bg.ruleListByLeftChild(state));
+      rulesWithParent[state] = toArray(bg.ruleListByParent(state));
+    }
+    List<List<UnaryRule>> byChild = new ArrayList<List<UnaryRule>>(numStates);
+    List<List<UnaryRule>> byParent = new ArrayList<List<UnaryRule>>(numStates);
+    for (int state = 0; state < numStates; state++) {
+      byChild.add(new ArrayList<UnaryRule>());
+      byParent.add(new ArrayList<UnaryRule>());
+    }
+    for (UnaryRule ur : pg.closedUnaries) {
+      byChild.get(ur.child).add(ur);
+      byParent.get(ur.parent).add(ur);
+    }
+    for (int state = 0; state < numStates; state++) {
+      List<UnaryRule> child = byChild.get(state);
+      List<UnaryRule> parent = byParent.get(state);
+      unariesWithChild[state] = child.toArray(new UnaryRule[child.size()]);
+      unariesWithParent[state] = parent.toArray(new UnaryRule[parent.size()]);
+    }
+  }
+
+  private static BinaryRule[] toArray(List<BinaryRule> rules) {
+    return rules.toArray(new BinaryRule[rules.size()]);
+  }
+
+  /**
+   * Runs the coarse pass over a sentence.
+   *
+   * @param fine The fine chart, with its span 1 cells filled in
+   * @param length The length of the sentence, including the boundary symbol
+   * @param goal The fine goal state
+   * @param threshold How far, in log probability, below the best coarse
+   *     parse a coarse state's max-marginal may be and still be allowed
+   * @return false if the coarse grammar has no parse either, in which case
+   *     nothing should be pruned
+   */
+  boolean prune(ChartArena fine, int length, int goal, double threshold) {
+    if (chart == null || chart.capacity < length) {
+      chart = new ChartArena(length, numStates, true, false);
+      allowed = new boolean[chart.iScore.length];
+      spanAllowed = new boolean[(int) ChartArena.numCells(length)];
+      narrowLExtent = new int[length + 1][numStates];
+      wideLExtent = new int[length + 1][numStates];
+      narrowRExtent = new int[length + 1][numStates];
+      wideRExtent = new int[length + 1][numStates];
+    }
+    doInsideScores(fine, length);
+    float best = chart.iScore[chart.cell(0, length) + projection[goal]];
+    if (best == Float.NEGATIVE_INFINITY) {
+      return false;
+    }
+    doOutsideScores(length, projection[goal]);
+
+    final float[] iScore = chart.iScore;
+    final float[] oScore = chart.oScore;
+    float cutoff = (float) (best - threshold);
+    for (int diff = 2; diff <= length; diff++) {
+      for (int start = 0; start < ((diff == length) ? 1 : length - diff); start++) {
+        int cell = chart.cell(start, start + diff);
+        boolean any = false;
+        for (int s = 0; s < numStates; s++) {
+          boolean ok = iScore[cell + s] + oScore[cell + s] >= cutoff;
+          allowed[cell + s] = ok;
+          any |= ok;
+        }
+        spanAllowed[cell / numStates] = any;
+      }
+    }
+    return true;
+  }
+
+  /** The cell of [start, end) in the coarse chart, for the methods below. */
+  final int cell(int start, int end) {
+    return chart.cell(start, end);
+  }
+
+  /** Whether the coarse pass left anything over a span to build. */
+  final boolean spanAllowed(int cell) {
+    return spanAllowed[cell / numStates];
+  }
+
+  /** Whether the coarse pass allows building a fine state over a span. */
+  final boolean allowed(int cell, int state) {
+    return allowed[cell + projection[state]];
+  }
+
+  private void doInsideScores(ChartArena fine, int length) {
+    final float[] iScore = chart.iScore;
+    chart.startParse();
+    // the boundary symbol's spans are read but, as in the fine pass, only
+    // the whole sentence is built, so claim everything up front
+    for (int end = 1; end <= length; end++) {
+      for (int start = 0; start < end; start++) {
+        chart.claim(start, end);
+      }
+    }
+    for (int loc = 0; loc <= length; loc++) {
+      Arrays.fill(narrowLExtent[loc], -1);
+      Arrays.fill(wideLExtent[loc], length + 1);
+      Arrays.fill(narrowRExtent[loc], length + 1);
+      Arrays.fill(wideRExtent[loc], -1);
+    }
+    for (int start = 0; start < length; start++) {
+      int cell = chart.cell(start, start + 1);
+      int fineCell = fine.cell(start, start + 1);
+      for (int s = 0; s < projection.length; s++) {
+        float iS = fine.iScore[fineCell + s];
+        if (iS > iScore[cell + projection[s]]) {
+          iScore[cell + projection[s]] = iS;
+        }
+      }
+      for (int s = 0; s < numStates; s++) {
+        if (iScore[cell + s] > Float.NEGATIVE_INFINITY) {
+          addExtent(start, start + 1, s);
+        }
+      }
+    }
+    for (int diff = 2; diff <= length; diff++) {
+      for (int start = 0; start < ((diff == length) ? 1 : length - diff); start++) {
+        int end = start + diff;
+        int cell = chart.cell(start, end);
+        int[] leftCells = chart.cellsFrom[start];
+        int[] rightCells = chart.cellsTo[end];
+        for (int left = 0; left < numStates; left++) {
+          int narrowR = narrowRExtent[start][left];
+          if (narrowR >= end) {
+            continue;
+          }
+          for (BinaryRule rule : rulesWithLC[left]) {
+            int right = rule.rightChild;
+            int narrowL = narrowLExtent[end][right];
+            if (narrowL < narrowR) {
+              continue;
+            }
+            int min = Math.max(narrowR, wideLExtent[end][right]);
+            int max = Math.min(wideRExtent[start][left], narrowL);
+            float best = iScore[cell + rule.parent];
+            for (int split = min; split <= max; split++) {
+              float lS = iScore[leftCells[split] + left];
+              if (lS == Float.NEGATIVE_INFINITY) {
+                continue;
+              }
+              float rS = iScore[rightCells[split] + right];
+              if (rS == Float.NEGATIVE_INFINITY) {
+                continue;
+              }
+              float tot = rule.score + lS + rS;
+              if (tot > best) {
+                best = tot;
+              }
+            }
+            if (best > iScore[cell + rule.parent]) {
+              if (iScore[cell + rule.parent] == Float.NEGATIVE_INFINITY) {
+                addExtent(start, end, rule.parent);
+              }
+              iScore[cell + rule.parent] = best;
+            }
+          }
+        }
+        for (int s = 0; s < numStates; s++) {
+          float iS = iScore[cell + s];
+          if (iS == Float.NEGATIVE_INFINITY) {
+            continue;
+          }
+          for (UnaryRule ur : unariesWithChild[s]) {
+            float tot = iS + ur.score;
+            if (tot > iScore[cell + ur.parent]) {
+              if (iScore[cell + ur.parent] == Float.NEGATIVE_INFINITY) {
+                addExtent(start, end, ur.parent);
+              }
+              iScore[cell + ur.parent] = tot;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /** Records that state can be built over [start, end), as the fine parser's extents do. */
+  private void addExtent(int start, int end, int state) {
+    if (start > narrowLExtent[end][state]) {
+      narrowLExtent[end][state] = start;
+    }
+    if (start < wideLExtent[end][state]) {
+      wideLExtent[end][state] = start;
+    }
+    if (end < narrowRExtent[start][state]) {
+      narrowRExtent[start][state] = end;
+    }
+    if (end > wideRExtent[start][state]) {
+      wideRExtent[start][state] = end;
+    }
+  }
+
+  private void doOutsideScores(int length, int goal) {
+    final float[] iScore = chart.iScore;
+    final float[] oScore = chart.oScore;
+    chart.clearOutside(length);
+    oScore[chart.cell(0, length) + goal] = 0.0f;
+    for (int diff = length; diff >= 2; diff--) {
+      for (int start = 0; start < ((diff == length) ? 1 : length - diff); start++) {
+        int end = start + diff;
+        int cell = chart.cell(start, end);
+        int[] leftCells = chart.cellsFrom[start];
+        int[] rightCells = chart.cellsTo[end];
+        for (int s = 0; s < numStates; s++) {
+          float oS = oScore[cell + s];
+          if (oS == Float.NEGATIVE_INFINITY) {
+            continue;
+          }
+          for (UnaryRule ur : unariesWithParent[s]) {
+            float tot = oS + ur.score;
+            if (tot > oScore[cell + ur.child] && iScore[cell + ur.child] > Float.NEGATIVE_INFINITY) {
+              oScore[cell + ur.child] = tot;
+            }
+          }
+        }
+        for (int s = 0; s < numStates; s++) {
+          float oS = oScore[cell + s];
+          if (oS == Float.NEGATIVE_INFINITY || iScore[cell + s] == Float.NEGATIVE_INFINITY) {
+            continue;
+          }
+          for (BinaryRule rule : rulesWithParent[s]) {
+            int left = rule.leftChild;
+            int right = rule.rightChild;
+            int min = Math.max(narrowRExtent[start][left], wideLExtent[end][right]);
+            int max = Math.min(wideRExtent[start][left], narrowLExtent[end][right]);
+            for (int split = min; split <= max; split++) {
+              int leftCell = leftCells[split];
+              int rightCell = rightCells[split];
+              float lS = iScore[leftCell + left];
+              if (lS == Float.NEGATIVE_INFINITY) {
+                continue;
+              }
+              float rS = iScore[rightCell + right];
+              if (rS == Float.NEGATIVE_INFINITY) {
+                continue;
+              }
+              float totL = oS + rule.score + rS;
+              if (totL > oScore[leftCell + left]) {
+                oScore[leftCell + left] = totL;
+              }
+              float totR = oS + rule.score + lS;
+              if (totR > oScore[rightCell + right]) {
+                oScore[rightCell + right] = totR;
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+}
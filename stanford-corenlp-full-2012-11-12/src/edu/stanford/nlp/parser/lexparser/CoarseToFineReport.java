@@ -0,0 +1,105 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.parser.metrics.Evalb;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeTransformer;
+import edu.stanford.nlp.trees.Treebank;
+
+/**
+ * Compares PCFG parsing with and without coarse-to-fine pruning (see
+ * {@link TestOptions#coarseToFine}) on a held-out treebank: time per
+ * sentence, labeled bracketing F1 against the gold trees, how many parses
+ * are the same as the exhaustive parser's, and how much log probability
+ * the pruned parses lose on average.  Each setting is run once untimed
+ * first, so that the JIT has warmed up.
+ * <br>
+ * Usage: <code>java edu.stanford.nlp.parser.lexparser.CoarseToFineReport
+ * parserFile treebankPath [threshold...]</code>
+ */
+public class CoarseToFineReport {
+
+  private CoarseToFineReport() {} // main method only
+
+  private static class Run {
+    double millis;
+    List<Tree> parses = new ArrayList<Tree>();
+    double[] scores;
+  }
+
+  private static Run run(LexicalizedParser lp, List<List<? extends HasWord>> sentences) {
+    Run run = new Run();
+    run.scores = new double[sentences.size()];
+    LexicalizedParserQuery query = lp.parserQuery();
+    long start = System.nanoTime();
+    for (int i = 0; i < sentences.size(); i++) {
+      if (query.parse(sentences.get(i))) {
+        run.parses.add(query.getBestParse());
+        run.scores[i] = query.getPCFGScore();
+      } else {
+        run.parses.add(null);
+        run.scores[i] = Double.NEGATIVE_INFINITY;
+      }
+    }
+    run.millis = (System.nanoTime() - start) / 1e6;
+    return run;
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println("Usage: java edu.stanford.nlp.parser.lexparser.CoarseToFineReport parserFile treebankPath [threshold...]");
+      System.exit(1);
+    }
+    LexicalizedParser lp = LexicalizedParser.loadModel(args[0]);
+    Treebank treebank = lp.getOp().tlpParams.memoryTreebank();
+    treebank.loadPath(args[1]);
+    List<Tree> golds = new ArrayList<Tree>();
+    List<List<? extends HasWord>> sentences = new ArrayList<List<? extends HasWord>>();
+    for (Tree gold : treebank) {
+      golds.add(gold);
+      sentences.add(gold.yieldWords());
+    }
+    String[] thresholds = { "5", "10", "20" };
+    if (args.length > 2) {
+      thresholds = new String[args.length - 2];
+      System.arraycopy(args, 2, thresholds, 0, thresholds.length);
+    }
+    TreeTransformer collinizer = lp.getOp().tlpParams.collinizer();
+
+    System.out.println(sentences.size() + " sentences from " + args[1]);
+    System.out.printf("%-22s %12s %8s %14s %14s%n", "", "ms/sentence", "F1", "same parse", "mean loss");
+    Run exhaustive = null;
+    for (int i = -1; i < thresholds.length; i++) {
+      String setting = (i < 0) ? "0" : thresholds[i];
+      lp.setOptionFlags("-coarseToFine", setting);
+      run(lp, sentences);
+      Run run = run(lp, sentences);
+      if (exhaustive == null) {
+        exhaustive = run;
+      }
+      Evalb evalb = new Evalb("", false);
+      int same = 0;
+      double loss = 0.0;
+      for (int s = 0; s < sentences.size(); s++) {
+        Tree parse = run.parses.get(s);
+        if (parse != null) {
+          evalb.evaluate(collinizer.transformTree(parse), collinizer.transformTree(golds.get(s)), null);
+        }
+        if (parse != null && parse.equals(exhaustive.parses.get(s))) {
+          same++;
+        }
+        if (run.scores[s] > Double.NEGATIVE_INFINITY && exhaustive.scores[s] > Double.NEGATIVE_INFINITY) {
+          loss += exhaustive.scores[s] - run.scores[s];
+        }
+      }
+      System.out.printf("%-22s %12.2f %8.2f %13.1f%% %14.3f%n",
+          (i < 0) ? "exhaustive" : "coarseToFine " + setting,
+          run.millis / sentences.size(), evalb.getEvalbF1Percent(),
+          100.0 * same / sentences.size(), loss / sentences.size());
+    }
+  }
+
+}
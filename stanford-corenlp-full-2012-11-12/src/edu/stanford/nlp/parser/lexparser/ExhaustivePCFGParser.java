@@ -43,6 +43,13 @@ import edu.stanford.nlp.util.*;
 import edu.stanford.nlp.util.PriorityQueue;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 
 /** An exhaustive generalized CKY PCFG parser.
@@ -75,22 +82,25 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
 
   protected OutsideRuleFilter orf;
 
-  // inside scores
-  protected float[][][] iScore;  // start idx, end idx, state -> logProb (ragged; null for end <= start)
-  // outside scores
-  protected float[][][] oScore;  // start idx, end idx, state -> logProb
+  // inside scores, outside scores and wordsInSpan (number of words in span with
+  // this state), as flat arrays indexed by chart.cell(start, end) + state
+  protected ChartArena chart;
   protected float bestScore;
 
-  protected int[][][] wordsInSpan; // number of words in span with this state
+  // the coarse pass of coarse-to-fine parsing, made when first needed
+  protected CoarseToFinePruner pruner;
+  // whether the current parse is being pruned by it
+  private boolean pruning = false;
+  // set while reparsing a sentence that was pruned too hard
+  private boolean noPruning = false;
+
+  // helper threads for the inside pass when op.testOptions.insideThreads > 1,
+  // made when first needed; idle ones die off
+  private ThreadPoolExecutor insidePool;
 
   protected boolean[][] oFilteredStart; // [start][state]; only used by unused outsideRuleFilter
   protected boolean[][] oFilteredEnd; // [end][state]; only used by unused outsideRuleFilter
 
-  protected boolean[][] iPossibleByL; // [start][state]
-  protected boolean[][] iPossibleByR; // [end][state]
-  protected boolean[][] oPossibleByL; // [start][state]
-  protected boolean[][] oPossibleByR; // [end][state]
-
   protected int[] words;  // words of sentence being parsed as word Numberer ints
   private int[] beginOffsets;
   private int[] endOffsets;
@@ -135,9 +145,10 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
   }
 
   public double oScore(Edge edge) {
-    double oS = oScore[edge.start][edge.end][edge.state];
+    int cell = chart.cell(edge.start, edge.end);
+    double oS = chart.oScore[cell + edge.state];
     if (op.testOptions.pcfgThreshold) {
-      double iS = iScore[edge.start][edge.end][edge.state];
+      double iS = chart.iScore[cell + edge.state];
       if (iS + oS - bestScore < op.testOptions.pcfgThresholdValue) {
         return Double.NEGATIVE_INFINITY;
       }
@@ -146,32 +157,32 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
   }
 
   public double iScore(Edge edge) {
-    return iScore[edge.start][edge.end][edge.state];
+    return chart.iScore[chart.cell(edge.start, edge.end) + edge.state];
   }
 
   public boolean oPossible(Hook hook) {
-    return (hook.isPreHook() ? oPossibleByR[hook.end][hook.state] : oPossibleByL[hook.start][hook.state]);
+    return (hook.isPreHook() ? chart.oPossibleByR[hook.end * numStates + hook.state] : chart.oPossibleByL[hook.start * numStates + hook.state]);
   }
 
   public boolean iPossible(Hook hook) {
-    return (hook.isPreHook() ? iPossibleByR[hook.start][hook.subState] : iPossibleByL[hook.end][hook.subState]);
+    return (hook.isPreHook() ? chart.iPossibleByR[hook.start * numStates + hook.subState] : chart.iPossibleByL[hook.end * numStates + hook.subState]);
   }
 
 
   public boolean oPossibleL(int state, int start) {
-    return oPossibleByL[start][state];
+    return chart.oPossibleByL[start * numStates + state];
   }
 
   public boolean oPossibleR(int state, int end) {
-    return oPossibleByR[end][state];
+    return chart.oPossibleByR[end * numStates + state];
   }
 
   public boolean iPossibleL(int state, int start) {
-    return iPossibleByL[start][state];
+    return chart.iPossibleByL[start * numStates + state];
   }
 
   public boolean iPossibleR(int state, int end) {
-    return iPossibleByR[end][state];
+    return chart.iPossibleByR[end * numStates + state];
   }
 
   protected void buildOFilter() {
@@ -200,7 +211,7 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
       int word = wordIndex.indexOf(wordStr);
       IntTaggedWord iTW = new IntTaggedWord(word, tag);
       float score = lex.score(iTW, start, wordStr, null);
-      float bound = iScore[start][start + 1][stateIndex.indexOf(tree.label().value())];
+      float bound = chart.iScore[chart.cell(start, start + 1) + stateIndex.indexOf(tree.label().value())];
       if (score > bound + epsilon) {
         System.out.println("Invalid tagging:");
         System.out.println("  Tag: " + tree.label().value());
@@ -215,7 +226,7 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
     if (tree.numChildren() == 1) {
       UnaryRule ur = new UnaryRule(parent, firstChild);
       double score = SloppyMath.max(ug.scoreRule(ur), -10000.0) + validateBinarizedTree(tree.children()[0], start);
-      double bound = iScore[start][start + tree.yield().size()][parent];
+      double bound = chart.iScore[chart.cell(start, start + tree.yield().size()) + parent];
       if (score > bound + epsilon) {
         System.out.println("Invalid unary:");
         System.out.println("  Parent: " + tree.label().value());
@@ -230,7 +241,7 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
     int secondChild = stateIndex.indexOf(tree.children()[1].label().value());
     BinaryRule br = new BinaryRule(parent, firstChild, secondChild);
     double score = SloppyMath.max(bg.scoreRule(br), -10000.0) + validateBinarizedTree(tree.children()[0], start) + validateBinarizedTree(tree.children()[1], start + tree.children()[0].yield().size());
-    double bound = iScore[start][start + tree.yield().size()][parent];
+    double bound = chart.iScore[chart.cell(start, start + tree.yield().size()) + parent];
     if (score > bound + epsilon) {
       System.out.println("Invalid binary:");
       System.out.println("  Parent: " + tree.label().value());
@@ -402,16 +413,9 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
     if (spillGuts) {
       tick("Wiping arrays...");
     }
-    for (int start = 0; start < length; start++) {
-      for (int end = start + 1; end <= length; end++) {
-        Arrays.fill(iScore[start][end], Float.NEGATIVE_INFINITY);
-        if (op.doDep && ! op.testOptions.useFastFactored) {
-          Arrays.fill(oScore[start][end], Float.NEGATIVE_INFINITY);
-        }
-        if (op.testOptions.lengthNormalization) {
-          Arrays.fill(wordsInSpan[start][end], 1);
-        }
-      }
+    startChart();
+    if (op.doDep && ! op.testOptions.useFastFactored) {
+      chart.clearOutside(length);
     }
     for (int loc = 0; loc <= length; loc++) {
       Arrays.fill(narrowLExtent[loc], -1); // the rightmost left with state s ending at i that we can get is the beginning
@@ -436,6 +440,21 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
     initializeChart(sentence);
     //if (op.testOptions.outsideFilter)
     // buildOFilter();
+    pruning = false;
+    // the coarse pass only seeds span 1 cells, so it can't bound a chart
+    // that also has tags over longer spans (e.g. from lattices)
+    if (op.testOptions.coarseToFine > 0.0 && ! noPruning &&
+        op.testOptions.maxSpanForTags == 1 &&
+        ! op.testOptions.lengthNormalization && ! op.testOptions.iterativeCKY) {
+      if (op.testOptions.verbose) {
+        Timing.tick("done.");
+        System.err.print("Starting coarse pass...");
+      }
+      if (pruner == null) {
+        pruner = new CoarseToFinePruner(new ProjectedGrammar(bg, ug, stateIndex, new BasicCategoryTagProjection(tlp)));
+      }
+      pruning = pruner.prune(chart, length, goal, op.testOptions.coarseToFine);
+    }
     if (op.testOptions.verbose) {
       Timing.tick("done.");
       System.err.print("Starting insides...");
@@ -445,10 +464,19 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
     if (op.testOptions.verbose) {
       // insideTime += Timing.tick("done.");
       Timing.tick("done.");
-      System.out.println("PCFG parsing " + length + " words (incl. stop): insideScore = " + iScore[0][length][goal]);
+      System.out.println("PCFG parsing " + length + " words (incl. stop): insideScore = " + chart.iScore[chart.cell(0, length) + goal]);
     }
-    bestScore = iScore[0][length][goal];
+    bestScore = chart.iScore[chart.cell(0, length) + goal];
     boolean succeeded = hasParse();
+    if (pruning && ! succeeded) {
+      // pruned too hard: parse again without the coarse pass
+      noPruning = true;
+      try {
+        return parse(sentence);
+      } finally {
+        noPruning = false;
+      }
+    }
     if (op.testOptions.doRecovery && !succeeded && !floodTags) {
       floodTags = true; // sentence will try to reparse
       // ms: disabled message. this is annoying and it doesn't really provide much information
@@ -462,7 +490,7 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
       System.err.print("Starting outsides...");
     }
     // outside scores
-    oScore[0][length][goal] = 0.0f;
+    chart.oScore[chart.cell(0, length) + goal] = 0.0f;
     doOutsideScores();
     //System.out.println("State rate: "+((int)(1000*ohits/otries))/10.0);
     //System.out.println("Traversals: "+ohits);
@@ -505,6 +533,7 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
 
   public boolean parse(Lattice lr) {
     sentence = null; // better nullPointer exception than silent error
+    pruning = false;
     if (lr != this.lr) {
       this.lr = lr;
       floodTags = false;
@@ -555,12 +584,8 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
 //      words[i++] = wordNumberer.number(s);
 //    }
 
-    for (int start = 0; start < length; start++) {
-    	for (int end = start + 1; end <= length; end++) {
-    		Arrays.fill(iScore[start][end], Float.NEGATIVE_INFINITY);
-    		if (op.doDep) Arrays.fill(oScore[start][end], Float.NEGATIVE_INFINITY);
-    	}
-    }
+    startChart();
+    if (op.doDep) chart.clearOutside(length);
 
     for (int loc = 0; loc <= length; loc++) {
       Arrays.fill(narrowLExtent[loc], -1); // the rightmost left with state s ending at i that we can get is the beginning
@@ -574,7 +599,7 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
     initializeChart(lr);
 
     doInsideScores();
-    bestScore = iScore[0][length][goal];
+    bestScore = chart.iScore[chart.cell(0, length) + goal];
 
     if (op.testOptions.verbose) {
       Timing.tick("done.");
@@ -591,7 +616,7 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
       if(!succeeded) return false;
     }
 
-    oScore[0][length][goal] = 0.0f;
+    chart.oScore[chart.cell(0, length) + goal] = 0.0f;
     doOutsideScores();
 
     if (op.testOptions.verbose) {
@@ -609,44 +634,75 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
    *  The method assumes that the iScore and oScore arrays have been initialized.
    */
   protected void initializePossibles() {
-    for (int loc = 0; loc < length; loc++) {
-      Arrays.fill(iPossibleByL[loc], false);
-      Arrays.fill(oPossibleByL[loc], false);
-    }
-    for (int loc = 0; loc <= length; loc++) {
-      Arrays.fill(iPossibleByR[loc], false);
-      Arrays.fill(oPossibleByR[loc], false);
-    }
+    chart.clearPossibles(length);
+    final float[] iScore = chart.iScore;
+    final float[] oScore = chart.oScore;
     for (int start = 0; start < length; start++) {
       for (int end = start + 1; end <= length; end++) {
+        int cell = chart.cell(start, end);
         for (int state = 0; state < numStates; state++) {
-          if (iScore[start][end][state] > Float.NEGATIVE_INFINITY && oScore[start][end][state] > Float.NEGATIVE_INFINITY) {
-            iPossibleByL[start][state] = true;
-            iPossibleByR[end][state] = true;
-            oPossibleByL[start][state] = true;
-            oPossibleByR[end][state] = true;
+          if (iScore[cell + state] > Float.NEGATIVE_INFINITY && oScore[cell + state] > Float.NEGATIVE_INFINITY) {
+            chart.iPossibleByL[start * numStates + state] = true;
+            chart.iPossibleByR[end * numStates + state] = true;
+            chart.oPossibleByL[start * numStates + state] = true;
+            chart.oPossibleByR[end * numStates + state] = true;
           }
         }
       }
     }
   }
 
+  /** Starts a parse on the chart.  Claims the span 1 cells, which lattices
+   *  needn't cover, and the cells [split, length) that the whole sentence span
+   *  reads from but the inside pass never visits, since only the whole span
+   *  reaches the boundary symbol.
+   */
+  protected void startChart() {
+    chart.startParse();
+    for (int start = 0; start < length; start++) {
+      chart.claim(start, start + 1);
+    }
+    for (int split = 1; split < length - 1; split++) {
+      chart.claim(split, length);
+    }
+  }
+
   private void doOutsideScores() {
+    final float[] iScore = chart.iScore;
+    final float[] oScore = chart.oScore;
+    final RuleTable unaries = ug.closedTableByParent();
+    final int[] unaryStart = unaries.start;
+    final int[] unaryChild = unaries.leftChild;
+    final float[] unaryScore = unaries.score;
+    final int unaryStates = Math.min(numStates, unaryStart.length - 1);
+    final RuleTable lcRules = bg.splitTableWithLC();
+    final int[] lcStart = lcRules.start;
+    final int[] lcParent = lcRules.parent;
+    final int[] lcRightChild = lcRules.rightChild;
+    final float[] lcScore = lcRules.score;
+    final RuleTable rcRules = bg.splitTableWithRC();
+    final int[] rcStart = rcRules.start;
+    final int[] rcParent = rcRules.parent;
+    final int[] rcLeftChild = rcRules.leftChild;
+    final float[] rcScore = rcRules.score;
     for (int diff = length; diff >= 1; diff--) {
       for (int start = 0; start + diff <= length; start++) {
         int end = start + diff;
+        int startEnd = chart.cell(start, end);
+        int[] leftCells = chart.cellsFrom[start];
+        int[] rightCells = chart.cellsTo[end];
         // do unaries
-        for (int s = 0; s < numStates; s++) {
-          float oS = oScore[start][end][s];
+        for (int s = 0; s < unaryStates; s++) {
+          float oS = oScore[startEnd + s];
           if (oS == Float.NEGATIVE_INFINITY) {
             continue;
           }
-          UnaryRule[] rules = ug.closedRulesByParent(s);
-          for (UnaryRule ur : rules) {
-            float pS = ur.score;
+          for (int rule = unaryStart[s], lastRule = unaryStart[s + 1]; rule < lastRule; rule++) {
+            int child = unaryChild[rule];
+            float pS = unaryScore[rule];
             float tot = oS + pS;
-            if (tot > oScore[start][end][ur.child] && iScore[start][end][ur.child] > Float.NEGATIVE_INFINITY) {
-              oScore[start][end][ur.child] = tot;
+            if (tot > oScore[startEnd + child] && iScore[startEnd + child] > Float.NEGATIVE_INFINITY) {
+              oScore[startEnd + child] = tot;
             }
           }
         }
@@ -656,47 +712,51 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
           if (end < min1) {
             continue;
           }
-          BinaryRule[] rules = bg.splitRulesWithLC(s);
-          for (BinaryRule br  : rules) {
-            float oS = oScore[start][end][br.parent];
+          for (int rule = lcStart[s], lastRule = lcStart[s + 1]; rule < lastRule; rule++) {
+            int parent = lcParent[rule];
+            int leftChild = s;
+            int rightChild = lcRightChild[rule];
+            float oS = oScore[startEnd + parent];
             if (oS == Float.NEGATIVE_INFINITY) {
               continue;
             }
-            int max1 = narrowLExtent[end][br.rightChild];
+            int max1 = narrowLExtent[end][rightChild];
             if (max1 < min1) {
               continue;
             }
             int min = min1;
             int max = max1;
             if (max - min > 2) {
-              int min2 = wideLExtent[end][br.rightChild];
+              int min2 = wideLExtent[end][rightChild];
               min = (min1 > min2 ? min1 : min2);
               if (max1 < min) {
                 continue;
               }
-              int max2 = wideRExtent[start][br.leftChild];
+              int max2 = wideRExtent[start][leftChild];
               max = (max1 < max2 ? max1 : max2);
               if (max < min) {
                 continue;
               }
             }
-            float pS = br.score;
+            float pS = lcScore[rule];
             for (int split = min; split <= max; split++) {
-              float lS = iScore[start][split][br.leftChild];
+              int startSplit = leftCells[split];
+              int splitEnd = rightCells[split];
+              float lS = iScore[startSplit + leftChild];
               if (lS == Float.NEGATIVE_INFINITY) {
                 continue;
               }
-              float rS = iScore[split][end][br.rightChild];
+              float rS = iScore[splitEnd + rightChild];
               if (rS == Float.NEGATIVE_INFINITY) {
                 continue;
               }
               float totL = pS + rS + oS;
-              if (totL > oScore[start][split][br.leftChild]) {
-                oScore[start][split][br.leftChild] = totL;
+              if (totL > oScore[startSplit + leftChild]) {
+                oScore[startSplit + leftChild] = totL;
               }
               float totR = pS + lS + oS;
-              if (totR > oScore[split][end][br.rightChild]) {
-                oScore[split][end][br.rightChild] = totR;
+              if (totR > oScore[splitEnd + rightChild]) {
+                oScore[splitEnd + rightChild] = totR;
               }
             }
           }
@@ -706,47 +766,51 @@ public class ExhaustivePCFGParser implements Scorer, KBestViterbiParser {
           if (max1 < start) {
             continue;
           }
-          BinaryRule[] rules = bg.splitRulesWithRC(s);
-          for (BinaryRule br : rules) {
-            float oS = oScore[start][end][br.parent];
+          for (int rule = rcStart[s], lastRule = rcStart[s + 1]; rule < lastRule; rule++) {
+            int parent = rcParent[rule];
+            int leftChild = rcLeftChild[rule];
+            int rightChild = s;
+            float oS = oScore[startEnd + parent];
             if (oS == Float.NEGATIVE_INFINITY) {
               continue;
             }
-            int min1 = narrowRExtent[start][br.leftChild];
+            int min1 = narrowRExtent[start][leftChild];
             if (max1 < min1) {
               continue;
             }
             int min = min1;
             int max = max1;
             if (max - min > 2) {
-              int min2 = wideLExtent[end][br.rightChild];
+              int min2 = wideLExtent[end][rightChild];
               min = (min1 > min2 ? min1 : min2);
               if (max1 < min) {
                 continue;
               }
-              int max2 = wideRExtent[start][br.leftChild];
+              int max2 = wideRExtent[start][leftChild];
               max = (max1 < max2 ? max1 : max2);
               if (max < min) {
                 continue;
               }
             }
-            float pS = br.score;
+            float pS = rcScore[rule];
             for (int split = min; split <= max; split++) {
-              float lS = iScore[start][split][br.leftChild];
+              int startSplit = leftCells[split];
+              int splitEnd = rightCells[split];
+              float lS = iScore[startSplit + leftChild];
               if (lS == Float.NEGATIVE_INFINITY) {
                 continue;
               }
-              float rS = iScore[split][end][br.rightChild];
+              float rS = iScore[splitEnd + rightChild];
               if (rS == Float.NEGATIVE_INFINITY) {
                 continue;
               }
               float totL = pS + rS + oS;
-              if (totL > oScore[start][split][br.leftChild]) {
-                oScore[start][split][br.leftChild] = totL;
+              if (totL > oScore[startSplit + leftChild]) {
+                oScore[startSplit + leftChild] = totL;
               }
               float totR = pS + lS + oS;
-              if (totR > oScore[split][end][br.rightChild]) {
-                oScore[split][end][br.rightChild] = totR;
+              if (totR > oScore[splitEnd + rightChild]) {
+                oScore[splitEnd + rightChild] = totR;
               }
             }
           }
@@ -803,16 +867,104 @@ oScore[split][end][br.rightChild] = totR;
    *  of length 2 or more.
    */
   void doInsideScores() {
+    final int threads = op.testOptions.insideThreads;
     for (int diff = 2; diff <= length; diff++) {
       // usually stop one short because boundary symbol only combines
       // with whole sentence span. So for 3 word sentence + boundary = 4,
       // length == 4, and do [0,2], [1,3]; [0,3]; [0,4]
-      for (int start = 0; start < ((diff == length) ? 1: length - diff); start++) {
+      int numSpans = (diff == length) ? 1: length - diff;
+      if (threads > 1 && numSpans >= MIN_SPANS_PER_THREAD * 2) {
+        doInsideDiagonal(diff, numSpans, Math.min(threads, numSpans / MIN_SPANS_PER_THREAD));
+        continue;
+      }
+      for (int start = 0; start < numSpans; start++) {
         doInsideChartCell(diff, start);
       } // for start
     } // for diff (i.e., span)
   } // end doInsideScores()
 
+  /** Fewer spans than this on a thread aren't worth handing over. */
+  private static final int MIN_SPANS_PER_THREAD = 2;
+
+  /** Fills in the spans of length diff on this and threads - 1 other
+   *  threads, returning when they are all done.  This gives the same
+   *  chart as filling them in one after another: the span [start, end)
+   *  writes only its own cell and the narrowRExtent[start],
+   *  wideRExtent[start], narrowLExtent[end] and wideLExtent[end] rows,
+   *  which no other span of that length reads or writes, and otherwise
+   *  reads only shorter spans, which are finished.
+   */
+  private void doInsideDiagonal(final int diff, final int numSpans, final int threads) {
+    if (insidePool == null) {
+      insidePool = new ThreadPoolExecutor(threads - 1, Integer.MAX_VALUE, 1L, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "ExhaustivePCFGParser inside");
+              t.setDaemon(true); // so an unfinished parser never keeps the JVM up
+              return t;
+            }
+          });
+      insidePool.allowCoreThreadTimeOut(true);
+    }
+    if (insidePool.getCorePoolSize() < threads - 1) {
+      insidePool.setCorePoolSize(threads - 1);
+    }
+    // spans are dealt out in turn, since how much work one is depends on
+    // where it is in the sentence
+    List<Future<Object>> jobs = new ArrayList<Future<Object>>(threads - 1);
+    for (int thread = 1; thread < threads; thread++) {
+      final int first = thread;
+      jobs.add(insidePool.submit(new Callable<Object>() {
+        public Object call() {
+          for (int start = first; start < numSpans; start += threads) {
+            doInsideChartCell(diff, start);
+          }
+          return null;
+        }
+      }));
+    }
+    try {
+      for (int start = 0; start < numSpans; start += threads) {
+        doInsideChartCell(diff, start);
+      }
+    } finally {
+      // wait for every job, even if one failed, so that none is still
+      // writing to the chart afterwards; this also makes their writes
+      // visible here
+      awaitInsideJobs(jobs);
+    }
+  }
+
+  private static void awaitInsideJobs(List<Future<Object>> jobs) {
+    Throwable failure = null;
+    boolean interrupted = false;
+    for (Future<Object> job : jobs) {
+      while (true) {
+        try {
+          job.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure; // such as running out of memory
+    } else if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+  }
+
 
   private void doInsideChartCell(final int diff, final int start) {
     final boolean lengthNormalization = op.testOptions.lengthNormalization;
@@ -820,6 +972,8 @@ oScore[split][end][br.rightChild] = totR;
       tick("Binaries for span " + diff + " start " + start + " ...");
     }
     int end = start + diff;
+    // claimed even if the constraints rule the span out, so that it reads as empty
+    final int startEnd = chart.claim(start, end);
 
     final List<ParserConstraint> constraints = getConstraints();
     if (constraints != null) {
@@ -837,8 +991,30 @@ oScore[split][end][br.rightChild] = totR;
     int[] wideRExtent_start = wideRExtent[start];
     int[] narrowLExtent_end = narrowLExtent[end];
     int[] wideLExtent_end = wideLExtent[end];
-    float[][] iScore_start = iScore[start];
-    float[] iScore_start_end = iScore_start[end];
+    final float[] iScore = chart.iScore;
+    final int[] wordsInSpan = chart.wordsInSpan;
+    // cell(start, split) and cell(split, end) by split
+    final int[] leftCells = chart.cellsFrom[start];
+    final int[] rightCells = chart.cellsTo[end];
+    // with coarse-to-fine, only states whose projections the coarse pass allowed
+    // are built by binary rules.  Unaries aren't pruned, since extractBestParse()
+    // retraces closed unary chains through the states in between.
+    final CoarseToFinePruner pruner = pruning ? this.pruner : null;
+    final int coarseCell = pruning ? pruner.cell(start, end) : 0;
+    if (pruner != null && ! pruner.spanAllowed(coarseCell)) {
+      return;
+    }
+    // the rules, as parallel arrays grouped by child and then by parent
+    final RuleTable lcRules = bg.splitTableWithLC();
+    final int[] lcStart = lcRules.start;
+    final int[] lcParent = lcRules.parent;
+    final int[] lcRightChild = lcRules.rightChild;
+    final float[] lcScore = lcRules.score;
+    final RuleTable rcRules = bg.splitTableWithRC();
+    final int[] rcStart = rcRules.start;
+    final int[] rcParent = rcRules.parent;
+    final int[] rcLeftChild = rcRules.leftChild;
+    final float[] rcScore = rcRules.score;
 
     for (int leftState = 0; leftState < numStates; leftState++) {
       int narrowR = narrowRExtent_start[leftState];
@@ -846,10 +1022,13 @@ oScore[split][end][br.rightChild] = totR;
       if (!iPossibleL) {
         continue;
       }
-      BinaryRule[] leftRules = bg.splitRulesWithLC(leftState);
-      //      if (spillGuts) System.out.println("Found " + leftRules.length + " left rules for state " + stateIndex.get(leftState));
-      for (BinaryRule rule : leftRules) {
-        int rightChild = rule.rightChild;
+      //      if (spillGuts) System.out.println("Found " + (lcStart[leftState + 1] - lcStart[leftState]) + " left rules for state " + stateIndex.get(leftState));
+      for (int rule = lcStart[leftState], lastRule = lcStart[leftState + 1]; rule < lastRule; rule++) {
+        int parentState = lcParent[rule];
+        if (pruner != null && ! pruner.allowed(coarseCell, parentState)) {
+          continue;
+        }
+        int rightChild = lcRightChild[rule];
         int narrowL = narrowLExtent_end[rightChild];
         boolean iPossibleR = (narrowL >= narrowR); // can this right constituent fit next to the left constituent?
         if (!iPossibleR) {
@@ -866,9 +1045,8 @@ oScore[split][end][br.rightChild] = totR;
         if (min > max) { // can this left constituent stretch far enough to reach the right constituent?
           continue;
         }
-        float pS = rule.score;
-        int parentState = rule.parent;
-        float oldIScore = iScore_start_end[parentState];
+        float pS = lcScore[rule];
+        float oldIScore = iScore[startEnd + parentState];
         float bestIScore = oldIScore;
         boolean foundBetter;  // always set below for this rule
         //System.out.println("Min "+min+" max "+max+" start "+start+" end "+end);
@@ -906,16 +1084,16 @@ oScore[split][end][br.rightChild] = totR;
               }
             }
 
-            float lS = iScore_start[split][leftState];
+            float lS = iScore[leftCells[split] + leftState];
             if (lS == Float.NEGATIVE_INFINITY) {
               continue;
             }
-            float rS = iScore[split][end][rightChild];
+            float rS = iScore[rightCells[split] + rightChild];
             if (rS == Float.NEGATIVE_INFINITY) {
               continue;
             }
             float tot = pS + lS + rS;
-            if (spillGuts) { System.err.println("Rule " + rule + " over [" + start + "," + end + ") has log score " + tot + " from L[" + stateIndex.get(leftState) + "=" + leftState + "] = "+ lS  + " R[" + stateIndex.get(rightChild) + "=" + rightChild + "] =  " + rS); }
+            if (spillGuts) { System.err.println("Rule " + stateIndex.get(parentState) + " -> " + stateIndex.get(leftState) + " " + stateIndex.get(rightChild) + " " + pS + " over [" + start + "," + end + ") has log score " + tot + " from L[" + stateIndex.get(leftState) + "=" + leftState + "] = "+ lS  + " R[" + stateIndex.get(rightChild) + "=" + rightChild + "] =  " + rS); }
             if (tot > bestIScore) {
               bestIScore = tot;
             }
@@ -923,21 +1101,21 @@ oScore[split][end][br.rightChild] = totR;
           foundBetter = bestIScore > oldIScore;
         } else {
           // find split that uses this rule to make the max *length normalized* score
-          int bestWordsInSpan = wordsInSpan[start][end][parentState];
+          int bestWordsInSpan = wordsInSpan[startEnd + parentState];
           float oldNormIScore = oldIScore / bestWordsInSpan;
           float bestNormIScore = oldNormIScore;
 
           for (int split = min; split <= max; split++) {
-            float lS = iScore_start[split][leftState];
+            float lS = iScore[leftCells[split] + leftState];
             if (lS == Float.NEGATIVE_INFINITY) {
               continue;
             }
-            float rS = iScore[split][end][rightChild];
+            float rS = iScore[rightCells[split] + rightChild];
             if (rS == Float.NEGATIVE_INFINITY) {
               continue;
             }
             float tot = pS + lS + rS;
-            int newWordsInSpan = wordsInSpan[start][split][leftState] + wordsInSpan[split][end][rightChild];
+            int newWordsInSpan = wordsInSpan[leftCells[split] + leftState] + wordsInSpan[rightCells[split] + rightChild];
             float normTot = tot / newWordsInSpan;
             if (normTot > bestNormIScore) {
               bestIScore = tot;
@@ -947,11 +1125,11 @@ oScore[split][end][br.rightChild] = totR;
           } // for split point
           foundBetter = bestNormIScore > oldNormIScore;
           if (foundBetter) {
-            wordsInSpan[start][end][parentState] = bestWordsInSpan;
+            wordsInSpan[startEnd + parentState] = bestWordsInSpan;
           }
         } // fi op.testOptions.lengthNormalization
         if (foundBetter) { // this way of making "parentState" is better than previous
-          iScore_start_end[parentState] = bestIScore;
+          iScore[startEnd + parentState] = bestIScore;
 
           if (spillGuts) System.err.println("Could build " + stateIndex.get(parentState) + " from " + start + " to " + end + " score " + bestIScore);
           if (oldIScore == Float.NEGATIVE_INFINITY) {
@@ -982,12 +1160,14 @@ oScore[split][end][br.rightChild] = totR;
       if (!iPossibleR) {
         continue;
       }
-      BinaryRule[] rightRules = bg.splitRulesWithRC(rightState);
-      //      if (spillGuts) System.out.println("Found " + rightRules.length + " right rules for state " + stateIndex.get(rightState));
-      for (BinaryRule rule : rightRules) {
-        //      if (spillGuts) System.out.println("Considering rule for " + start + " to " + end + ": " + rightRules[i]);
+      //      if (spillGuts) System.out.println("Found " + (rcStart[rightState + 1] - rcStart[rightState]) + " right rules for state " + stateIndex.get(rightState));
+      for (int rule = rcStart[rightState], lastRule = rcStart[rightState + 1]; rule < lastRule; rule++) {
+        int parentState = rcParent[rule];
+        if (pruner != null && ! pruner.allowed(coarseCell, parentState)) {
+          continue;
+        }
 
-        int leftChild = rule.leftChild;
+        int leftChild = rcLeftChild[rule];
         int narrowR = narrowRExtent_start[leftChild];
         boolean iPossibleL = (narrowR <= narrowL);
         if (!iPossibleL) {
@@ -1004,9 +1184,8 @@ oScore[split][end][br.rightChild] = totR;
         if (min > max) {
           continue;
         }
-        float pS = rule.score;
-        int parentState = rule.parent;
-        float oldIScore = iScore_start_end[parentState];
+        float pS = rcScore[rule];
+        float oldIScore = iScore[startEnd + parentState];
         float bestIScore = oldIScore;
         boolean foundBetter; // always initialized below
         //System.out.println("Start "+start+" end "+end+" min "+min+" max "+max);
@@ -1045,11 +1224,11 @@ oScore[split][end][br.rightChild] = totR;
               }
             }
 
-            float lS = iScore_start[split][leftChild];
+            float lS = iScore[leftCells[split] + leftChild];
             if (lS == Float.NEGATIVE_INFINITY) {
               continue;
             }
-            float rS = iScore[split][end][rightState];
+            float rS = iScore[rightCells[split] + rightState];
             if (rS == Float.NEGATIVE_INFINITY) {
               continue;
             }
@@ -1061,20 +1240,20 @@ oScore[split][end][br.rightChild] = totR;
           foundBetter = bestIScore > oldIScore;
         } else {
           // find split that uses this rule to make the max *length normalized* score
-          int bestWordsInSpan = wordsInSpan[start][end][parentState];
+          int bestWordsInSpan = wordsInSpan[startEnd + parentState];
           float oldNormIScore = oldIScore / bestWordsInSpan;
           float bestNormIScore = oldNormIScore;
           for (int split = min; split <= max; split++) {
-            float lS = iScore_start[split][leftChild];
+            float lS = iScore[leftCells[split] + leftChild];
             if (lS == Float.NEGATIVE_INFINITY) {
               continue;
             }
-            float rS = iScore[split][end][rightState];
+            float rS = iScore[rightCells[split] + rightState];
             if (rS == Float.NEGATIVE_INFINITY) {
               continue;
             }
             float tot = pS + lS + rS;
-            int newWordsInSpan = wordsInSpan[start][split][leftChild] + wordsInSpan[split][end][rightState];
+            int newWordsInSpan = wordsInSpan[leftCells[split] + leftChild] + wordsInSpan[rightCells[split] + rightState];
             float normTot = tot / newWordsInSpan;
             if (normTot > bestNormIScore) {
               bestIScore = tot;
@@ -1084,11 +1263,11 @@ oScore[split][end][br.rightChild] = totR;
           } // end for split
           foundBetter = bestNormIScore > oldNormIScore;
           if (foundBetter) {
-            wordsInSpan[start][end][parentState] = bestWordsInSpan;
+            wordsInSpan[startEnd + parentState] = bestWordsInSpan;
           }
         } // end if lengthNormalization
         if (foundBetter) { // this way of making "parentState" is better than previous
-          iScore_start_end[parentState] = bestIScore;
+          iScore[startEnd + parentState] = bestIScore;
           if (spillGuts) System.err.println("Could build " + stateIndex.get(parentState) + " from " + start + " to " + end + " with score " + bestIScore);
           if (oldIScore == Float.NEGATIVE_INFINITY) {
             if (start > narrowLExtent_end[parentState]) {
@@ -1115,20 +1294,26 @@ oScore[split][end][br.rightChild] = totR;
       tick("Unaries for span " + diff + "...");
     }
     // do unary rules -- one could promote this loop and put start inside
-    for (int state = 0; state < numStates; state++) {
-      float iS = iScore_start_end[state];
+    final RuleTable unaries = ug.closedTableByChild();
+    final int[] unaryStart = unaries.start;
+    final int[] unaryParent = unaries.parent;
+    final float[] unaryScore = unaries.score;
+    // the table may not know about states added to the index since
+    final int unaryStates = Math.min(numStates, unaryStart.length - 1);
+    for (int state = 0; state < unaryStates; state++) {
+      float iS = iScore[startEnd + state];
       if (iS == Float.NEGATIVE_INFINITY) {
         continue;
       }
 
-      UnaryRule[] unaries = ug.closedRulesByChild(state);
-      for (UnaryRule ur : unaries) {
+      for (int rule = unaryStart[state], lastRule = unaryStart[state + 1]; rule < lastRule; rule++) {
+        int parentState = unaryParent[rule];
 
         if (constraints != null) {
           boolean skip = false;
           for (ParserConstraint c : constraints) {
             if ((start == c.start && end == c.end)) {
-              String tag = stateIndex.get(ur.parent);
+              String tag = stateIndex.get(parentState);
               Matcher m = c.state.matcher(tag);
               if (!m.matches()) {
                 //if (!tag.startsWith(c.state+"^")) {
@@ -1142,26 +1327,25 @@ oScore[split][end][br.rightChild] = totR;
           }
         }
 
-        int parentState = ur.parent;
-        float pS = ur.score;
+        float pS = unaryScore[rule];
         float tot = iS + pS;
-        float cur = iScore_start_end[parentState];
+        float cur = iScore[startEnd + parentState];
         boolean foundBetter;  // always set below
         if (lengthNormalization) {
-          int totWordsInSpan = wordsInSpan[start][end][state];
+          int totWordsInSpan = wordsInSpan[startEnd + state];
           float normTot = tot / totWordsInSpan;
-          int curWordsInSpan = wordsInSpan[start][end][parentState];
+          int curWordsInSpan = wordsInSpan[startEnd + parentState];
           float normCur = cur / curWordsInSpan;
           foundBetter = normTot > normCur;
           if (foundBetter) {
-            wordsInSpan[start][end][parentState] = wordsInSpan[start][end][state];
+            wordsInSpan[startEnd + parentState] = wordsInSpan[startEnd + state];
           }
         } else {
           foundBetter = (tot > cur);
         }
         if (foundBetter) {
           if (spillGuts) System.err.println("Could build " + stateIndex.get(parentState) + " from " + start + " to " + end + " with score " + tot);
-          iScore_start_end[parentState] = tot;
+          iScore[startEnd + parentState] = tot;
           if (cur == Float.NEGATIVE_INFINITY) {
             if (start > narrowLExtent_end[parentState]) {
               narrowLExtent_end[parentState] = start;
@@ -1181,16 +1365,18 @@ oScore[split][end][br.rightChild] = totR;
             }
           }
         } // end if foundBetter
-      } // for UnaryRule r
+      } // for rules with child state
     } // for unary rules
   }
 
 
   private void initializeChart(Lattice lr) {
+    final float[] iScore = chart.iScore;
     for (LatticeEdge edge : lr) {
       int start = edge.start;
       int end = edge.end;
       String word = edge.word;
+      int startEnd = chart.claim(start, end);
 
       // Add pre-terminals, augmented with edge weights
       for (int state = 0; state < numStates; state++) {
@@ -1198,8 +1384,8 @@ oScore[split][end][br.rightChild] = totR;
           IntTaggedWord itw = new IntTaggedWord(word, stateIndex.get(state), wordIndex, tagIndex);
 
           float newScore = lex.score(itw, start, word, null) + (float) edge.weight;
-          if (newScore > iScore[start][end][state]) {
-            iScore[start][end][state] = newScore;
+          if (newScore > iScore[startEnd + state]) {
+            iScore[startEnd + state] = newScore;
             narrowRExtent[start][state] = Math.min(end, narrowRExtent[start][state]);
             narrowLExtent[end][state] = Math.max(start, narrowLExtent[end][state]);
             wideRExtent[start][state] = Math.max(end, wideRExtent[start][state]);
@@ -1211,9 +1397,9 @@ oScore[split][end][br.rightChild] = totR;
       // Give scores to all tags if the parse fails (more flexible tagging)
       if (floodTags && (!op.testOptions.noRecoveryTagging)) {
         for (int state = 0; state < numStates; state++) {
-          float iS = iScore[start][end][state];
+          float iS = iScore[startEnd + state];
           if (isTag[state] && iS == Float.NEGATIVE_INFINITY) {
-            iScore[start][end][state] = -1000.0f + (float) edge.weight;
+            iScore[startEnd + state] = -1000.0f + (float) edge.weight;
             narrowRExtent[start][state] = end;
             narrowLExtent[end][state] = start;
             wideRExtent[start][state] = end;
@@ -1224,7 +1410,7 @@ oScore[split][end][br.rightChild] = totR;
 
       // Add unary rules (possibly chains) that terminate in POS tags
       for (int state = 0; state < numStates; state++) {
-        float iS = iScore[start][end][state];
+        float iS = iScore[startEnd + state];
         if (iS == Float.NEGATIVE_INFINITY) {
           continue;
         }
@@ -1233,8 +1419,8 @@ oScore[split][end][br.rightChild] = totR;
           int parentState = ur.parent;
           float pS = ur.score;
           float tot = iS + pS;
-          if (tot > iScore[start][end][parentState]) {
-            iScore[start][end][parentState] = tot;
+          if (tot > iScore[startEnd + parentState]) {
+            iScore[startEnd + parentState] = tot;
             narrowRExtent[start][parentState] = Math.min(end, narrowRExtent[start][parentState]);
             narrowLExtent[end][parentState] = Math.max(start, narrowLExtent[end][parentState]);
             wideRExtent[start][parentState] = Math.max(end, wideRExtent[start][parentState]);
@@ -1252,6 +1438,7 @@ oScore[split][end][br.rightChild] = totR;
 
   private void initializeChart(List sentence) {
     int boundary = wordIndex.indexOf(Lexicon.BOUNDARY);
+    final float[] iScore = chart.iScore;
 
     for (int start = 0; start < length; start++) {
       if (op.testOptions.maxSpanForTags > 1) { // only relevant for parsing single words as multiple input tokens.
@@ -1268,12 +1455,13 @@ oScore[split][end][br.rightChild] = totR;
               word.append(sentence.get(i).toString());
             }
           }
+          int startEnd = chart.claim(start, end);
           for (int state = 0; state < numStates; state++) {
-            float iS = iScore[start][end][state];
+            float iS = iScore[startEnd + state];
             if (iS == Float.NEGATIVE_INFINITY && isTag[state]) {
               IntTaggedWord itw = new IntTaggedWord(word.toString(), stateIndex.get(state), wordIndex, tagIndex);
-              iScore[start][end][state] = lex.score(itw, start, word.toString(), null);
-              if (iScore[start][end][state] > Float.NEGATIVE_INFINITY) {
+              iScore[startEnd + state] = lex.score(itw, start, word.toString(), null);
+              if (iScore[startEnd + state] > Float.NEGATIVE_INFINITY) {
                 narrowRExtent[start][state] = start + 1;
                 narrowLExtent[end][state] = end - 1;
                 wideRExtent[start][state] = start + 1;
@@ -1289,7 +1477,7 @@ oScore[split][end][br.rightChild] = totR;
         int end = start + 1;
         Arrays.fill(tags[start], false);
 
-        float[] iScore_start_end = iScore[start][end];
+        int startEnd = chart.cell(start, end); // claimed by startChart()
         int[] narrowRExtent_start = narrowRExtent[start];
         int[] narrowLExtent_end = narrowLExtent[end];
         int[] wideRExtent_start = wideRExtent[start];
@@ -1356,7 +1544,7 @@ oScore[split][end][br.rightChild] = totR;
             float lexScore = lex.score(tagging, start, wordIndex.get(tagging.word), wordContextStr); // score the cell according to P(word|tag) in the lexicon
             if (lexScore > Float.NEGATIVE_INFINITY) {
               assignedSomeTag = true;
-              iScore_start_end[state] = lexScore;
+              iScore[startEnd + state] = lexScore;
               narrowRExtent_start[state] = end;
               narrowLExtent_end[state] = start;
               wideRExtent_start[state] = end;
@@ -1369,7 +1557,7 @@ oScore[split][end][br.rightChild] = totR;
             int tag = tagging.tag;
             tags[start][tag] = true;
             if (dumpTagging) {
-              EncodingPrintWriter.err.println("Word pos " + start + " tagging " + tagging + " score " + iScore_start_end[state] + " [state " + stateIndex.get(state) + " = " + state + "]", "UTF-8");
+              EncodingPrintWriter.err.println("Word pos " + start + " tagging " + tagging + " score " + iScore[startEnd + state] + " [state " + stateIndex.get(state) + " = " + state + "]", "UTF-8");
             }
             //if (start == length-2 && tagging.parent == puncTag)
             //  lastIsPunc = true;
@@ -1387,7 +1575,7 @@ oScore[split][end][br.rightChild] = totR;
             EncodingPrintWriter.err.println("Forced FlexiTagging " + wordIndex.get(word), "UTF-8");
           }
           for (int state = 0; state < numStates; state++) {
-            if (isTag[state] && iScore_start_end[state] == Float.NEGATIVE_INFINITY) {
+            if (isTag[state] && iScore[startEnd + state] == Float.NEGATIVE_INFINITY) {
               if (trueTagStr != null) {
                 String tagString = stateIndex.get(state);
                 if ( ! tlp.basicCategory(tagString).equals(trueTagStr)) {
@@ -1404,14 +1592,14 @@ oScore[split][end][br.rightChild] = totR;
               }
 
               if (lexScore > Float.NEGATIVE_INFINITY) {
-                iScore_start_end[state] = lexScore;
+                iScore[startEnd + state] = lexScore;
                 narrowRExtent_start[state] = end;
                 narrowLExtent_end[state] = start;
                 wideRExtent_start[state] = end;
                 wideLExtent_end[state] = start;
               }
               if (dumpTagging) {
-                EncodingPrintWriter.err.println("Word pos " + start + " tagging " + (new IntTaggedWord(word, tagIndex.indexOf(stateIndex.get(state)))) + " score " + iScore_start_end[state]  + " [state " + stateIndex.get(state) + " = " + state + "]", "UTF-8");
+                EncodingPrintWriter.err.println("Word pos " + start + " tagging " + (new IntTaggedWord(word, tagIndex.indexOf(stateIndex.get(state)))) + " score " + iScore[startEnd + state]  + " [state " + stateIndex.get(state) + " = " + state + "]", "UTF-8");
               }
             }
           }
@@ -1421,7 +1609,7 @@ oScore[split][end][br.rightChild] = totR;
         if (op.dcTags) {
           for (int state = 0; state < numStates; state++) {
             if (isTag[state]) {
-              iScore_start_end[state] *= (1.0 + op.testOptions.depWeight);
+              iScore[startEnd + state] *= (1.0 + op.testOptions.depWeight);
             }
           }
         }
@@ -1435,8 +1623,8 @@ oScore[split][end][br.rightChild] = totR;
             EncodingPrintWriter.err.println("Flooding tags for " + wordIndex.get(word), "UTF-8");
           }
           for (int state = 0; state < numStates; state++) {
-            if (isTag[state] && iScore_start_end[state] == Float.NEGATIVE_INFINITY) {
-              iScore_start_end[state] = -1000.0f;
+            if (isTag[state] && iScore[startEnd + state] == Float.NEGATIVE_INFINITY) {
+              iScore[startEnd + state] = -1000.0f;
               narrowRExtent_start[state] = end;
               narrowLExtent_end[state] = start;
               wideRExtent_start[state] = end;
@@ -1450,7 +1638,7 @@ oScore[split][end][br.rightChild] = totR;
           tick("Terminal Unary...");
         }
         for (int state = 0; state < numStates; state++) {
-          float iS = iScore_start_end[state];
+          float iS = iScore[startEnd + state];
           if (iS == Float.NEGATIVE_INFINITY) {
             continue;
           }
@@ -1459,8 +1647,8 @@ oScore[split][end][br.rightChild] = totR;
             int parentState = ur.parent;
             float pS = ur.score;
             float tot = iS + pS;
-            if (tot > iScore_start_end[parentState]) {
-              iScore_start_end[parentState] = tot;
+            if (tot > iScore[startEnd + parentState]) {
+              iScore[startEnd + parentState] = tot;
               narrowRExtent_start[parentState] = end;
               narrowLExtent_end[parentState] = start;
               wideRExtent_start[parentState] = end;
@@ -1500,7 +1688,7 @@ oScore[split][end][br.rightChild] = totR;
       return Double.NEGATIVE_INFINITY;
     }
     int goal = stateIndex.indexOf(stateName);
-    return iScore[0][length][goal];
+    return chart.iScore[chart.cell(0, length) + goal];
   }
 
 
@@ -1526,8 +1714,8 @@ oScore[split][end][br.rightChild] = totR;
   private Tree extractBestParse(int goal, int start, int end) {
     // find source of inside score
     // no backtraces so we can speed up the parsing for its primary use
-    double bestScore = iScore[start][end][goal];
-    double normBestScore = op.testOptions.lengthNormalization ? (bestScore / wordsInSpan[start][end][goal]) : bestScore;
+    double bestScore = chart.iScore[chart.cell(start, end) + goal];
+    double normBestScore = op.testOptions.lengthNormalization ? (bestScore / chart.wordsInSpan[chart.cell(start, end) + goal]) : bestScore;
     String goalStr = stateIndex.get(goal);
 
     // check tags
@@ -1600,10 +1788,10 @@ oScore[split][end][br.rightChild] = totR;
     for (int split = start + 1; split < end; split++) {
       for (Iterator<BinaryRule> binaryI = bg.ruleIteratorByParent(goal); binaryI.hasNext(); ) {
         BinaryRule br = binaryI.next();
-        double score = br.score + iScore[start][split][br.leftChild] + iScore[split][end][br.rightChild];
+        double score = br.score + chart.iScore[chart.cell(start, split) + br.leftChild] + chart.iScore[chart.cell(split, end) + br.rightChild];
         boolean matches;
         if (op.testOptions.lengthNormalization) {
-          double normScore = score / (wordsInSpan[start][split][br.leftChild] + wordsInSpan[split][end][br.rightChild]);
+          double normScore = score / (chart.wordsInSpan[chart.cell(start, split) + br.leftChild] + chart.wordsInSpan[chart.cell(split, end) + br.rightChild]);
           matches = matches(normScore, normBestScore);
         } else {
           matches = matches(score, bestScore);
@@ -1631,10 +1819,10 @@ oScore[split][end][br.rightChild] = totR;
     for (Iterator<UnaryRule> unaryI = ug.ruleIteratorByParent(goal); unaryI.hasNext(); ) {
       UnaryRule ur = unaryI.next();
       // System.err.println("  Trying " + ur + " dtr score: " + iScore[start][end][ur.child]);
-      double score = ur.score + iScore[start][end][ur.child];
+      double score = ur.score + chart.iScore[chart.cell(start, end) + ur.child];
       boolean matches;
       if (op.testOptions.lengthNormalization) {
-        double normScore = score / wordsInSpan[start][end][ur.child];
+        double normScore = score / chart.wordsInSpan[chart.cell(start, end) + ur.child];
         matches = matches(normScore, normBestScore);
       } else {
         matches = matches(score, bestScore);
@@ -1690,7 +1878,7 @@ oScore[split][end][br.rightChild] = totR;
   protected List<Tree> extractBestParses(int goal, int start, int end) {
     // find sources of inside score
     // no backtraces so we can speed up the parsing for its primary use
-    double bestScore = iScore[start][end][goal];
+    double bestScore = chart.iScore[chart.cell(start, end) + goal];
     String goalStr = stateIndex.get(goal);
     //System.out.println("Searching for "+goalStr+" from "+start+" to "+end+" scored "+bestScore);
     // check tags
@@ -1715,7 +1903,7 @@ oScore[split][end][br.rightChild] = totR;
     for (int split = start + 1; split < end; split++) {
       for (Iterator<BinaryRule> binaryI = bg.ruleIteratorByParent(goal); binaryI.hasNext(); ) {
         BinaryRule br = binaryI.next();
-        double score = br.score + iScore[start][split][br.leftChild] + iScore[split][end][br.rightChild];
+        double score = br.score + chart.iScore[chart.cell(start, split) + br.leftChild] + chart.iScore[chart.cell(split, end) + br.rightChild];
         if (matches(score, bestScore)) {
           // build binary split
           List<Tree> leftChildTrees = extractBestParses(br.leftChild, start, split);
@@ -1740,7 +1928,7 @@ oScore[split][end][br.rightChild] = totR;
     // check unaries
     for (Iterator<UnaryRule> unaryI = ug.ruleIteratorByParent(goal); unaryI.hasNext(); ) {
       UnaryRule ur = unaryI.next();
-      double score = ur.score + iScore[start][end][ur.child];
+      double score = ur.score + chart.iScore[chart.cell(start, end) + ur.child];
       if (ur.child != ur.parent && matches(score, bestScore)) {
         // build unary
         List<Tree> childTrees = extractBestParses(ur.child, start, end);
@@ -1961,7 +2149,7 @@ oScore[split][end][br.rightChild] = totR;
     // pre-terminal??
     if (isTag[v.goal]) {
       List<Vertex> tails = new ArrayList<Vertex>();
-      double score = iScore[v.start][v.end][v.goal];
+      double score = chart.iScore[chart.cell(v.start, v.end) + v.goal];
       Arc arc = new Arc(tails, v, score);
       bs.add(arc);
     }
@@ -2006,7 +2194,7 @@ oScore[split][end][br.rightChild] = totR;
         List<Double> childrenScores = new ArrayList<Double>();
         for (int i = 0; i < size; i++) {
           Vertex child = arc.tails.get(i);
-          double s = iScore[child.start][child.end][child.goal];
+          double s = chart.iScore[chart.cell(child.start, child.end) + child.goal];
           childrenScores.add(s);
           score += s;
         }
@@ -2089,7 +2277,7 @@ oScore[split][end][br.rightChild] = totR;
     int start = 0;
     int end = length;
     int goal = stateIndex.indexOf(goalStr);
-    double bestScore = iScore[start][end][goal];
+    double bestScore = chart.iScore[chart.cell(start, end) + goal];
     List<Tree> internalTrees = extractBestParses(goal, start, end);
     //System.out.println("Got internal best parse...");
     // for (Tree internalTree : internalTrees) {
@@ -2154,8 +2342,29 @@ oScore[split][end][br.rightChild] = totR;
     if (length > op.testOptions.maxLength + 1 || length >= myMaxLength) {
       throw new OutOfMemoryError("Refusal to create such large arrays.");
     } else {
+      int size = length + 1;
+      long budget = op.testOptions.chartMemoryBudget * 1024L * 1024L;
+      if (budget > 0 && length > arraySize) {
+        // take as much room as the budget allows now, so the chart is only allocated once
+        int most = Math.min(op.testOptions.maxLength + 2, myMaxLength);
+        while (size < most && chartBytes(size + 1) <= budget) {
+          size++;
+        }
+        if (chartBytes(size) > budget) {
+          throw new OutOfMemoryError("Refusal to create such large arrays.");
+        }
+      }
       try {
-        createArrays(length + 1);
+        try {
+          createArrays(size);
+        } catch (OutOfMemoryError e) {
+          if (size == length + 1) {
+            throw e;
+          }
+          // no room for all the budget, so just make room for this sentence
+          size = length + 1;
+          createArrays(size);
+        }
       } catch (OutOfMemoryError e) {
         myMaxLength = length;
         if (arraySize > 0) {
@@ -2167,64 +2376,35 @@ oScore[split][end][br.rightChild] = totR;
         }
         throw e;
       }
-      arraySize = length + 1;
+      arraySize = size;
       if (op.testOptions.verbose) {
         System.err.println("Created PCFG parser arrays of size " + arraySize);
       }
     }
   }
 
+  private long chartBytes(int size) {
+    return ChartArena.bytesFor(size, numStates, op.doDep && ! op.testOptions.useFastFactored, op.testOptions.lengthNormalization);
+  }
+
   protected void createArrays(int length) {
     // zero out some stuff first in case we recently ran out of memory and are reallocating
     clearArrays();
 
     int numTags = tagIndex.size();
-    // allocate just the parts of iScore and oScore used (end > start, etc.)
-    // todo: with some modifications to doInsideScores, we wouldn't need to allocate iScore[i,length] for i != 0 and i != length
-    //    System.out.println("initializing iScore arrays with length " + length + " and numStates " + numStates);
-    iScore = new float[length][length + 1][];
-    for (int start = 0; start < length; start++) {
-      for (int end = start + 1; end <= length; end++) {
-        iScore[start][end] = new float[numStates];
-      }
-    }
-    //    System.out.println("finished initializing iScore arrays");
-    if (op.doDep && ! op.testOptions.useFastFactored) {
-      //      System.out.println("initializing oScore arrays with length " + length + " and numStates " + numStates);
-      oScore = new float[length][length + 1][];
-      for (int start = 0; start < length; start++) {
-        for (int end = start + 1; end <= length; end++) {
-          oScore[start][end] = new float[numStates];
-        }
-      }
-      // System.out.println("finished initializing oScore arrays");
-    }
+    // one flat array each for iScore, oScore and wordsInSpan, with a cell for
+    // every span that a sentence of up to this length has
+    chart = new ChartArena(length, numStates, op.doDep && ! op.testOptions.useFastFactored, op.testOptions.lengthNormalization);
     narrowRExtent = new int[length][numStates];
     wideRExtent = new int[length][numStates];
     narrowLExtent = new int[length + 1][numStates];
     wideLExtent = new int[length + 1][numStates];
-    if (op.doDep && ! op.testOptions.useFastFactored) {
-      iPossibleByL = new boolean[length][numStates];
-      iPossibleByR = new boolean[length + 1][numStates];
-      oPossibleByL = new boolean[length][numStates];
-      oPossibleByR = new boolean[length + 1][numStates];
-    }
     tags = new boolean[length][numTags];
-
-    if (op.testOptions.lengthNormalization) {
-      wordsInSpan = new int[length][length + 1][];
-      for (int start = 0; start < length; start++) {
-        for (int end = start + 1; end <= length; end++) {
-          wordsInSpan[start][end] = new int[numStates];
-        }
-      }
-    }
     //    System.out.println("ExhaustivePCFGParser constructor finished.");
   }
 
   private void clearArrays() {
-    iScore = oScore = null;
-    iPossibleByL = iPossibleByR = oPossibleByL = oPossibleByR = null;
+    chart = null;
     oFilteredEnd = oFilteredStart = null;
     tags = null;
     narrowRExtent = wideRExtent = narrowLExtent = wideLExtent = null;
@@ -0,0 +1,429 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.nlp.io.IOUtils;
+import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.Timing;
+
+/**
+ * Saves and loads a LexicalizedParser in a flat binary format, which loads
+ * several times faster than a serialized parser.  The bulk of a model, its
+ * state, word and tag indices, its binary and unary rules and its
+ * lexicon's seen and unseen tagging counts, is written as plain arrays of
+ * numbers and characters that are read straight into the parser's data
+ * structures.  Everything else, such as the Options and the dependency
+ * grammar, is serialized as usual, with the flat parts standing in by
+ * reference.
+ * <br>
+ * A model file on disk is read through a read-only memory map, so parser
+ * processes loading the same model share its pages in the OS file cache
+ * instead of each reading their own copy.  The parsers still build their
+ * own rule tables and indices from it.  A model in the class path or at a
+ * URL is read into memory first; it may be gzipped, but then can't be
+ * mapped.
+ * <br>
+ * {@link LexicalizedParser#loadModel(String, String...)} recognizes these
+ * files by their first bytes, so they can be used wherever a serialized
+ * parser can.  To make one, load a parser and save it with
+ * {@link LexicalizedParser#saveParserToFlatFile}, or use the
+ * <code>-saveToFlatFile</code> option of LexicalizedParser.
+ */
+public class FlatParserModel {
+
+  private FlatParserModel() {} // static methods only
+
+  private static final byte[] MAGIC = { 'L', 'P', 'F', 'L', 'A', 'T', '\r', '\n' };
+  private static final int VERSION = 1;
+
+  /** A flat part of the model, in the serialized remainder. */
+  private static class FlatPart implements Serializable {
+    final int part;
+    FlatPart(int part) {
+      this.part = part;
+    }
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Whether the file or URL holds a parser in this format, judged by its
+   * first few bytes.  Anything that can't be read isn't.
+   */
+  public static boolean isFlatModel(String fileOrUrl) {
+    InputStream in = null;
+    try {
+      in = IOUtils.getInputStreamFromURLOrClasspathOrFileSystem(fileOrUrl);
+      byte[] header = new byte[MAGIC.length];
+      int n = 0;
+      while (n < header.length) {
+        int read = in.read(header, n, header.length - n);
+        if (read < 0) {
+          return false;
+        }
+        n += read;
+      }
+      return Arrays.equals(header, MAGIC);
+    } catch (IOException e) {
+      return false;
+    } finally {
+      IOUtils.closeIgnoringExceptions(in);
+    }
+  }
+
+  /**
+   * Saves the parser to the given file in this format.
+   *
+   * @throws IllegalArgumentException If the parser's indices aren't
+   *     HashIndexes, which are all this format stores
+   * @throws RuntimeIOException If the file can't be written
+   */
+  public static void save(LexicalizedParser lp, String filename) {
+    for (Index<String> index : Arrays.asList(lp.stateIndex, lp.wordIndex, lp.tagIndex)) {
+      if (index.getClass() != HashIndex.class) {
+        throw new IllegalArgumentException("Only parsers with HashIndex indices can be saved flat, not " + index.getClass().getName());
+      }
+    }
+    // the flat parts, in the order they are written and read
+    final List<Object> parts = new ArrayList<Object>();
+    parts.add(lp.stateIndex);
+    parts.add(lp.wordIndex);
+    parts.add(lp.tagIndex);
+    parts.add(lp.bg);
+    parts.add(lp.ug);
+    List<ClassicCounter<IntTaggedWord>> counters = taggingCounters(lp.lex);
+    parts.addAll(counters);
+    final Map<Object,FlatPart> flatParts = new IdentityHashMap<Object,FlatPart>();
+    for (int i = 0; i < parts.size(); i++) {
+      if (parts.get(i) != null && ! flatParts.containsKey(parts.get(i))) {
+        flatParts.put(parts.get(i), new FlatPart(i));
+      }
+    }
+
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      writeIndex(out, lp.stateIndex);
+      writeIndex(out, lp.wordIndex);
+      writeIndex(out, lp.tagIndex);
+      writeBinaryGrammar(out, lp.bg);
+      writeUnaryGrammar(out, lp.ug);
+      out.writeInt(counters.size());
+      for (ClassicCounter<IntTaggedWord> counter : counters) {
+        writeCounter(out, counter);
+      }
+
+      ByteArrayOutputStream rest = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(rest) {
+        {
+          enableReplaceObject(true);
+        }
+        @Override
+        protected Object replaceObject(Object obj) {
+          FlatPart part = flatParts.get(obj);
+          return (part != null) ? part : obj;
+        }
+      };
+      oos.writeObject(lp);
+      oos.close();
+      out.writeInt(rest.size());
+      rest.writeTo(out);
+      out.close();
+    } catch (IOException e) {
+      throw new RuntimeIOException(e);
+    }
+  }
+
+  /**
+   * Loads a parser saved in this format from a file, class path resource
+   * or URL.
+   *
+   * @throws RuntimeIOException If the parser can't be read, or isn't in
+   *     this format
+   */
+  public static LexicalizedParser load(String fileOrUrl) {
+    try {
+      File file = new File(fileOrUrl);
+      if (file.isFile() && ! fileOrUrl.endsWith(".gz")) {
+        FileInputStream in = new FileInputStream(file);
+        try {
+          FileChannel channel = in.getChannel();
+          // the mapping stays valid after the channel is closed
+          return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+          in.close();
+        }
+      }
+      InputStream in = IOUtils.getInputStreamFromURLOrClasspathOrFileSystem(fileOrUrl);
+      try {
+        return read(ByteBuffer.wrap(readAll(in)));
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeIOException(e);
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[65536];
+    for (int n; (n = in.read(chunk)) >= 0; ) {
+      bytes.write(chunk, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static LexicalizedParser read(ByteBuffer buf) throws IOException, ClassNotFoundException {
+    byte[] header = new byte[MAGIC.length];
+    buf.get(header);
+    if ( ! Arrays.equals(header, MAGIC)) {
+      throw new IOException("Not a flat parser model");
+    }
+    int version = buf.getInt();
+    if (version != VERSION) {
+      throw new IOException("Flat parser model version " + version + "; only version " + VERSION + " can be read");
+    }
+    final List<Object> parts = new ArrayList<Object>();
+    Index<String> stateIndex = readIndex(buf);
+    parts.add(stateIndex);
+    parts.add(readIndex(buf));
+    parts.add(readIndex(buf));
+    parts.add(readBinaryGrammar(buf, stateIndex));
+    parts.add(readUnaryGrammar(buf, stateIndex));
+    int numCounters = buf.getInt();
+    for (int i = 0; i < numCounters; i++) {
+      parts.add(readCounter(buf));
+    }
+
+    int restLength = buf.getInt();
+    ByteBuffer rest = buf.slice();
+    rest.limit(restLength);
+    ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(rest)) {
+      {
+        enableResolveObject(true);
+      }
+      @Override
+      protected Object resolveObject(Object obj) {
+        return (obj instanceof FlatPart) ? parts.get(((FlatPart) obj).part) : obj;
+      }
+    };
+    Object o = ois.readObject();
+    ois.close();
+    if ( ! (o instanceof LexicalizedParser)) {
+      throw new ClassCastException("Wanted LexicalizedParser, got " + o.getClass());
+    }
+    return (LexicalizedParser) o;
+  }
+
+  /**
+   * The lexicon's counts of seen and unseen word taggings, where it has
+   * them.  These are always made with the default HashMap backing, which
+   * is what they are read back with.
+   */
+  @SuppressWarnings("unchecked")
+  private static List<ClassicCounter<IntTaggedWord>> taggingCounters(Lexicon lex) {
+    List<Counter<IntTaggedWord>> candidates = new ArrayList<Counter<IntTaggedWord>>();
+    if (lex instanceof BaseLexicon) {
+      candidates.add(((BaseLexicon) lex).seenCounter);
+    }
+    if (lex != null && lex.getUnknownWordModel() != null) {
+      candidates.add(lex.getUnknownWordModel().unSeenCounter());
+    }
+    List<ClassicCounter<IntTaggedWord>> counters = new ArrayList<ClassicCounter<IntTaggedWord>>();
+    for (Counter<IntTaggedWord> counter : candidates) {
+      if (counter != null && counter.getClass() == ClassicCounter.class) {
+        counters.add((ClassicCounter<IntTaggedWord>) counter);
+      }
+    }
+    return counters;
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    // as UTF-16, so that any String comes back exactly
+    out.writeInt(s.length());
+    out.writeChars(s);
+  }
+
+  private static String readString(ByteBuffer buf) {
+    char[] chars = new char[buf.getInt()];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = buf.getChar();
+    }
+    return new String(chars);
+  }
+
+  private static void writeIndex(DataOutputStream out, Index<String> index) throws IOException {
+    out.writeBoolean(((HashIndex<String>) index).isLocked());
+    out.writeInt(index.size());
+    for (String s : index) {
+      writeString(out, s);
+    }
+  }
+
+  private static Index<String> readIndex(ByteBuffer buf) {
+    boolean locked = buf.get() != 0;
+    int size = buf.getInt();
+    HashIndex<String> index = new HashIndex<String>(size);
+    for (int i = 0; i < size; i++) {
+      index.add(readString(buf));
+    }
+    if (locked) {
+      index.lock();
+    }
+    return index;
+  }
+
+  private static void writeBinaryGrammar(DataOutputStream out, BinaryGrammar bg) throws IOException {
+    if (bg == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(bg.numRules());
+    for (BinaryRule br : bg) {
+      out.writeInt(br.parent);
+      out.writeInt(br.leftChild);
+      out.writeInt(br.rightChild);
+      out.writeFloat(br.score);
+    }
+  }
+
+  private static BinaryGrammar readBinaryGrammar(ByteBuffer buf, Index<String> stateIndex) {
+    int numRules = buf.getInt();
+    if (numRules < 0) {
+      return null;
+    }
+    BinaryGrammar bg = new BinaryGrammar(stateIndex);
+    for (int i = 0; i < numRules; i++) {
+      bg.addRule(new BinaryRule(buf.getInt(), buf.getInt(), buf.getInt(), buf.getFloat()));
+    }
+    bg.splitRules();
+    return bg;
+  }
+
+  private static void writeUnaryGrammar(DataOutputStream out, UnaryGrammar ug) throws IOException {
+    if (ug == null) {
+      out.writeInt(-1);
+      return;
+    }
+    // just the core rules; their closure is remade on loading, as when
+    // a serialized grammar is read
+    out.writeInt(ug.numRules());
+    for (UnaryRule ur : ug) {
+      out.writeInt(ur.parent);
+      out.writeInt(ur.child);
+      out.writeFloat(ur.score);
+    }
+  }
+
+  private static UnaryGrammar readUnaryGrammar(ByteBuffer buf, Index<String> stateIndex) {
+    int numRules = buf.getInt();
+    if (numRules < 0) {
+      return null;
+    }
+    UnaryGrammar ug = new UnaryGrammar(stateIndex);
+    for (int i = 0; i < numRules; i++) {
+      ug.addRule(new UnaryRule(buf.getInt(), buf.getInt(), buf.getFloat()));
+    }
+    ug.purgeRules();
+    return ug;
+  }
+
+  private static void writeCounter(DataOutputStream out, ClassicCounter<IntTaggedWord> counter) throws IOException {
+    out.writeDouble(counter.defaultReturnValue());
+    out.writeInt(counter.size());
+    for (IntTaggedWord itw : counter.keySet()) {
+      out.writeInt(itw.word);
+      out.writeShort(itw.tag);
+      out.writeDouble(counter.getCount(itw));
+    }
+  }
+
+  /** Reads a counter back.  Its total is summed up again, so may differ
+   *  from the saved one in the last bits; nothing in parsing uses it. */
+  private static ClassicCounter<IntTaggedWord> readCounter(ByteBuffer buf) {
+    double defaultValue = buf.getDouble();
+    int size = buf.getInt();
+    ClassicCounter<IntTaggedWord> counter = new ClassicCounter<IntTaggedWord>(size);
+    counter.setDefaultReturnValue(defaultValue);
+    for (int i = 0; i < size; i++) {
+      int word = buf.getInt();
+      int tag = buf.getShort();
+      counter.setCount(new IntTaggedWord(word, tag), buf.getDouble());
+    }
+    return counter;
+  }
+
+  /** Reads the serialized remainder straight out of the buffer. */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if ( ! buf.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buf.remaining());
+      buf.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+  }
+
+  /**
+   * Converts a parser to this format: <code>java
+   * edu.stanford.nlp.parser.lexparser.FlatParserModel parserFile
+   * flatParserFile</code>.
+   */
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Usage: java edu.stanford.nlp.parser.lexparser.FlatParserModel parserFile flatParserFile");
+      System.exit(1);
+    }
+    LexicalizedParser lp = LexicalizedParser.loadModel(args[0]);
+    Timing tim = new Timing();
+    System.err.print("Writing flat parser to " + args[1] + " ...");
+    save(lp, args[1]);
+    System.err.println(" done [" + tim.toSecondsString() + " sec].");
+  }
+
+}
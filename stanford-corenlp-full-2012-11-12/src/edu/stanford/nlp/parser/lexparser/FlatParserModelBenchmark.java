@@ -0,0 +1,66 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Times loading a parser from a serialized file and from a
+ * {@link FlatParserModel} file made from it.  The two are loaded in turn,
+ * a number of rounds each.  The first round, before the JIT has compiled
+ * the loading code, is what a parsing server pays on starting up, so it
+ * is reported on its own as well as the median and fastest rounds.
+ * <br>
+ * Usage: <code>java edu.stanford.nlp.parser.lexparser.FlatParserModelBenchmark
+ * parserFile flatParserFile [rounds]</code>
+ * <br>
+ * If flatParserFile doesn't exist, it is written from parserFile first.
+ */
+public class FlatParserModelBenchmark {
+
+  private FlatParserModelBenchmark() {} // main method only
+
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println("Usage: java edu.stanford.nlp.parser.lexparser.FlatParserModelBenchmark parserFile flatParserFile [rounds]");
+      System.exit(1);
+    }
+    String serialized = args[0];
+    String flat = args[1];
+    int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+    if ( ! new File(flat).exists()) {
+      FlatParserModel.save(LexicalizedParser.loadModel(serialized), flat);
+    }
+
+    double[] serializedMillis = new double[rounds];
+    double[] flatMillis = new double[rounds];
+    // the loaders' progress messages would swamp the report
+    PrintStream err = System.err;
+    System.setErr(new PrintStream(new ByteArrayOutputStream()));
+    try {
+      for (int round = 0; round < rounds; round++) {
+        long start = System.nanoTime();
+        LexicalizedParser.getParserFromSerializedFile(serialized);
+        serializedMillis[round] = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        FlatParserModel.load(flat);
+        flatMillis[round] = (System.nanoTime() - start) / 1e6;
+      }
+    } finally {
+      System.setErr(err);
+    }
+
+    System.out.printf("%-12s %12s %12s %12s %12s%n", "", "file bytes", "first ms", "median ms", "fastest ms");
+    report("serialized", new File(serialized).length(), serializedMillis);
+    report("flat", new File(flat).length(), flatMillis);
+  }
+
+  private static void report(String name, long bytes, double[] millis) {
+    double first = millis[0];
+    double[] sorted = millis.clone();
+    Arrays.sort(sorted);
+    System.out.printf("%-12s %12d %12.1f %12.1f %12.1f%n", name, bytes, first, sorted[sorted.length / 2], sorted[0]);
+  }
+
+}
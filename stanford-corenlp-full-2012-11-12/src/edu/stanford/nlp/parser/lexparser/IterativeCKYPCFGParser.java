@@ -41,6 +41,8 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
    */
   private boolean doInsideScoresHelper(float threshold) {
     boolean prunedSomething = false;
+    final float[] iScore = chart.iScore;
+    final int[] wordsInSpan = chart.wordsInSpan;
     for (int diff = 2; diff <= length; diff++) {
       // usually stop one short because boundary symbol only combines
       // with whole sentence span
@@ -50,6 +52,10 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
           tick("Binaries for span " + diff + "...");
         }
         int end = start + diff;
+        // cleared the first time round only, so later passes build on earlier ones
+        int startEnd = chart.claim(start, end);
+        int[] leftCells = chart.cellsFrom[start];
+        int[] rightCells = chart.cellsTo[end];
 
         if (getConstraints() != null) {
           boolean skip = false;
@@ -96,7 +102,7 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
             }
             float pS = r.score;
             int parentState = r.parent;
-            float oldIScore = iScore[start][end][parentState];
+            float oldIScore = iScore[startEnd + parentState];
             float bestIScore = oldIScore;
             boolean foundBetter;  // always set below for this rule
             //System.out.println("Min "+min+" max "+max+" start "+start+" end "+end);
@@ -134,11 +140,11 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
                   }
                 }
 
-                float lS = iScore[start][split][leftState];
+                float lS = iScore[leftCells[split] + leftState];
                 if (lS == Float.NEGATIVE_INFINITY) {
                   continue;
                 }
-                float rS = iScore[split][end][r.rightChild];
+                float rS = iScore[rightCells[split] + r.rightChild];
                 if (rS == Float.NEGATIVE_INFINITY) {
                   continue;
                 }
@@ -150,22 +156,22 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
               foundBetter = bestIScore > oldIScore;
             } else {
               // find split that uses this rule to make the max *length normalized* score
-              int bestWordsInSpan = wordsInSpan[start][end][parentState];
+              int bestWordsInSpan = wordsInSpan[startEnd + parentState];
               float oldNormIScore = oldIScore / bestWordsInSpan;
               float bestNormIScore = oldNormIScore;
 
               for (int split = min; split <= max; split++) {
-                float lS = iScore[start][split][leftState];
+                float lS = iScore[leftCells[split] + leftState];
                 if (lS == Float.NEGATIVE_INFINITY) {
 
                   continue;
                 }
-                float rS = iScore[split][end][r.rightChild];
+                float rS = iScore[rightCells[split] + r.rightChild];
                 if (rS == Float.NEGATIVE_INFINITY) {
                   continue;
                 }
                 float tot = pS + lS + rS;
-                int newWordsInSpan = wordsInSpan[start][split][leftState] + wordsInSpan[split][end][r.rightChild];
+                int newWordsInSpan = wordsInSpan[leftCells[split] + leftState] + wordsInSpan[rightCells[split] + r.rightChild];
                 float normTot = tot / newWordsInSpan;
                 if (normTot > bestNormIScore) {
                   bestIScore = tot;
@@ -175,14 +181,14 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
               } // for split point
               foundBetter = bestNormIScore > oldNormIScore;
               if (foundBetter && bestIScore > threshold) {
-                wordsInSpan[start][end][parentState] = bestWordsInSpan;
+                wordsInSpan[startEnd + parentState] = bestWordsInSpan;
               }
             } // fi op.testOptions.lengthNormalization
             if (foundBetter) {
               if (bestIScore > threshold) {
                 // this way of making "parentState" is better than previous
                 // and sufficiently good to be stored on this iteration
-                iScore[start][end][parentState] = bestIScore;
+                iScore[startEnd + parentState] = bestIScore;
 
                 //              if (spillGuts) System.out.println("Could build " + stateIndex.get(parentState) + " from " + start + " to " + end);
                 if (oldIScore == Float.NEGATIVE_INFINITY) {
@@ -241,7 +247,7 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
             }
             float pS = r.score;
             int parentState = r.parent;
-            float oldIScore = iScore[start][end][parentState];
+            float oldIScore = iScore[startEnd + parentState];
             float bestIScore = oldIScore;
             boolean foundBetter; // always initialized below
             //System.out.println("Start "+start+" end "+end+" min "+min+" max "+max);
@@ -280,11 +286,11 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
                   }
                 }
 
-                float lS = iScore[start][split][r.leftChild];
+                float lS = iScore[leftCells[split] + r.leftChild];
                 if (lS == Float.NEGATIVE_INFINITY) {
                   continue;
                 }
-                float rS = iScore[split][end][rightState];
+                float rS = iScore[rightCells[split] + rightState];
                 if (rS == Float.NEGATIVE_INFINITY) {
                   continue;
                 }
@@ -296,20 +302,20 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
               foundBetter = bestIScore > oldIScore;
             } else {
               // find split that uses this rule to make the max *length normalized* score
-              int bestWordsInSpan = wordsInSpan[start][end][parentState];
+              int bestWordsInSpan = wordsInSpan[startEnd + parentState];
               float oldNormIScore = oldIScore / bestWordsInSpan;
               float bestNormIScore = oldNormIScore;
               for (int split = min; split <= max; split++) {
-                float lS = iScore[start][split][r.leftChild];
+                float lS = iScore[leftCells[split] + r.leftChild];
                 if (lS == Float.NEGATIVE_INFINITY) {
                   continue;
                 }
-                float rS = iScore[split][end][rightState];
+                float rS = iScore[rightCells[split] + rightState];
                 if (rS == Float.NEGATIVE_INFINITY) {
                   continue;
                 }
                 float tot = pS + lS + rS;
-                int newWordsInSpan = wordsInSpan[start][split][r.leftChild] + wordsInSpan[split][end][rightState];
+                int newWordsInSpan = wordsInSpan[leftCells[split] + r.leftChild] + wordsInSpan[rightCells[split] + rightState];
                 float normTot = tot / newWordsInSpan;
                 if (normTot > bestNormIScore) {
                   bestIScore = tot;
@@ -319,12 +325,12 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
               } // end for split
               foundBetter = bestNormIScore > oldNormIScore;
               if (foundBetter) {
-                wordsInSpan[start][end][parentState] = bestWordsInSpan;
+                wordsInSpan[startEnd + parentState] = bestWordsInSpan;
               }
             } // end if lengthNormalization
             if (foundBetter) { // this way of making "parentState" is better than previous
               if (bestIScore > threshold) {
-                iScore[start][end][parentState] = bestIScore;
+                iScore[startEnd + parentState] = bestIScore;
                 //              if (spillGuts) System.out.println("Could build " + stateIndex.get(parentState) + " from " + start + " to " + end);
                 if (oldIScore == Float.NEGATIVE_INFINITY) {
                   if (start > narrowLExtent[end][parentState]) {
@@ -355,7 +361,7 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
         }
         // do unary rules -- one could promote this loop and put start inside
         for (int state = 0; state < numStates; state++) {
-          float iS = iScore[start][end][state];
+          float iS = iScore[startEnd + state];
           if (iS == Float.NEGATIVE_INFINITY) {
             continue;
           }
@@ -385,16 +391,16 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
             int parentState = ur.parent;
             float pS = ur.score;
             float tot = iS + pS;
-            float cur = iScore[start][end][parentState];
+            float cur = iScore[startEnd + parentState];
             boolean foundBetter;  // always set below
             if (op.testOptions.lengthNormalization) {
-              int totWordsInSpan = wordsInSpan[start][end][state];
+              int totWordsInSpan = wordsInSpan[startEnd + state];
               float normTot = tot / totWordsInSpan;
-              int curWordsInSpan = wordsInSpan[start][end][parentState];
+              int curWordsInSpan = wordsInSpan[startEnd + parentState];
               float normCur = cur / curWordsInSpan;
               foundBetter = normTot > normCur;
               if (foundBetter && tot > threshold) {
-                wordsInSpan[start][end][parentState] = wordsInSpan[start][end][state];
+                wordsInSpan[startEnd + parentState] = wordsInSpan[startEnd + state];
               }
             } else {
               foundBetter = (tot > cur);
@@ -402,7 +408,7 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
             if (foundBetter) {
               //              if (spillGuts) System.out.println("Could build " + stateIndex.get(parentState) + " from " + start + " to " + end);
               if (tot > threshold) {
-                iScore[start][end][parentState] = tot;
+                iScore[startEnd + parentState] = tot;
                 if (cur == Float.NEGATIVE_INFINITY) {
                   if (start > narrowLExtent[end][parentState]) {
                     narrowLExtent[end][parentState] = start;
@@ -431,7 +437,7 @@ public class IterativeCKYPCFGParser extends ExhaustivePCFGParser {
     } // for diff (i.e., span)
     int goal = stateIndex.indexOf(goalStr);
     // return true if found the goal, or nothing was pruned (i.e., sentence has no parse)
-    return iScore[0][length][goal] > Float.NEGATIVE_INFINITY || ! prunedSomething;
+    return iScore[chart.cell(0, length) + goal] > Float.NEGATIVE_INFINITY || ! prunedSomething;
   } // end doInsideScoresHelper()
 
 }
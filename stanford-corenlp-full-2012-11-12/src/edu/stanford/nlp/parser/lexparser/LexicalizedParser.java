@@ -325,6 +325,9 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
   }
 
   public static LexicalizedParser getParserFromFile(String parserFileOrUrl, Options op) {
+    if (FlatParserModel.isFlatModel(parserFileOrUrl)) {
+      return getParserFromFlatFile(parserFileOrUrl);
+    }
     LexicalizedParser pd = getParserFromSerializedFile(parserFileOrUrl);
     if (pd == null) {
       pd = getParserFromTextFile(parserFileOrUrl, op);
@@ -379,6 +382,17 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
     }
   }
 
+  /**
+   * Saves the parser defined by pd to the given filename, in the fast
+   * loading format of {@link FlatParserModel}.
+   * If there is an error, a RuntimeIOException is thrown.
+   */
+  public void saveParserToFlatFile(String filename) {
+    System.err.print("Writing parser in flat format to file " + filename + ' ');
+    FlatParserModel.save(this, filename);
+    System.err.println("done.");
+  }
+
   /**
    * Saves the parser defined by pd to the given filename.
    * If there is an error, a RuntimeIOException is thrown.
@@ -523,6 +537,15 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
   }
 
 
+  public static LexicalizedParser getParserFromFlatFile(String flatFileOrUrl) {
+    Timing tim = new Timing();
+    System.err.print("Loading parser from flat file " + flatFileOrUrl + " ...");
+    LexicalizedParser pd = FlatParserModel.load(flatFileOrUrl);
+    System.err.println(" done [" + tim.toSecondsString() + " sec].");
+    return pd;
+  }
+
+
   public static LexicalizedParser getParserFromSerializedFile(String serializedFileOrUrl) {
     try {
       Timing tim = new Timing();
@@ -844,6 +867,10 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
    * [-v] -train
    * trainFilesPath [fileRange] [-saveToSerializedFile grammarPath]
    * [-saveToTextFile grammarPath]</code><p>
+   * A grammar can also be saved with <code>-saveToFlatFile grammarPath</code>
+   * in the flat binary format of {@link FlatParserModel}, which loads much
+   * faster than a serialized grammar.  Wherever a serialized grammar can be
+   * given, a flat one can be too; it is recognized by its contents.<p>
    * If no files are supplied to parse, then a hardwired sentence
    * is parsed. <p>
    *
@@ -938,6 +965,19 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
    * needed for the parser). If this is not specified, the parser will
    * try to dynamically grow its parse chart when long sentence are
    * encountered, but may run out of memory trying to do so.</LI>
+   * <LI><code>-chartMemoryBudget mb</code> Allocate the PCFG parse chart
+   * once, as big as fits in this many megabytes, rather than growing it as
+   * longer sentences come along.  Sentences that would need more are
+   * skipped as if memory had run out.</LI>
+   * <LI><code>-coarseToFine logProb</code> Parse with the PCFG in two
+   * passes: first with a grammar of basic categories, and then with the
+   * full grammar over only the categories that came within this log
+   * probability of the best basic category parse.  Faster on long
+   * sentences, at some risk of missing the best parse.</LI>
+   * <LI><code>-insideThreads n</code> Fill in the PCFG chart on n threads,
+   * working on all the spans of one length at a time.  Useful for parsing
+   * single long sentences quickly; to parse many sentences, parsing
+   * several at once is better.</LI>
    * <LI><code>-outputFormat styles</code> Choose the style(s) of output
    * sentences: <code>penn</code> for prettyprinting as in the Penn
    * treebank files, or <code>oneline</code> for printing sentences one
@@ -973,6 +1013,7 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
     boolean train = false;
     boolean saveToSerializedFile = false;
     boolean saveToTextFile = false;
+    String flatOutputFile = null;
     String serializedInputFileOrUrl = null;
     String textInputFileOrUrl = null;
     String serializedOutputFileOrUrl = null;
@@ -1120,6 +1161,10 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
         saveToTextFile = true;
         textOutputFileOrUrl = args[argIndex + 1];
         argIndex += 2;
+      } else if (args[argIndex].equalsIgnoreCase("-saveToFlatFile")) {
+        // save the parser in the fast loading flat format
+        flatOutputFile = args[argIndex + 1];
+        argIndex += 2;
       } else if (args[argIndex].equalsIgnoreCase("-saveTrainTrees")) {
         // save the training trees to a binary file
         op.trainOptions.trainTreeFile = args[argIndex + 1];
@@ -1323,6 +1368,9 @@ public class LexicalizedParser implements Function<Object,Tree>, Serializable {
         System.err.println("Usage: must specify a text grammar output path");
       }
     }
+    if (flatOutputFile != null) {
+      lp.saveParserToFlatFile(flatOutputFile);
+    }
     if (saveToSerializedFile) {
       if (serializedOutputFileOrUrl != null) {
         lp.saveParserToSerialized(serializedOutputFileOrUrl);
@@ -231,6 +231,15 @@ public class Options implements Serializable {
     } else if (args[i].equalsIgnoreCase("-maxLength") && (i + 1 < args.length)) {
       testOptions.maxLength = Integer.parseInt(args[i + 1]);
       i += 2;
+    } else if (args[i].equalsIgnoreCase("-chartMemoryBudget") && (i + 1 < args.length)) {
+      testOptions.chartMemoryBudget = Integer.parseInt(args[i + 1]);
+      i += 2;
+    } else if (args[i].equalsIgnoreCase("-coarseToFine") && (i + 1 < args.length)) {
+      testOptions.coarseToFine = Double.parseDouble(args[i + 1]);
+      i += 2;
+    } else if (args[i].equalsIgnoreCase("-insideThreads") && (i + 1 < args.length)) {
+      testOptions.insideThreads = Integer.parseInt(args[i + 1]);
+      i += 2;
     } else if (args[i].equalsIgnoreCase("-MAX_ITEMS") && (i + 1 < args.length)) {
       testOptions.MAX_ITEMS = Integer.parseInt(args[i + 1]);
       i += 2;
@@ -0,0 +1,104 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+/** A coarser grammar made from a split one by mapping each state through a
+ *  TagProjection (such as {@link BasicCategoryTagProjection}), so that, say,
+ *  NP^S and NP^VP both become NP.  A coarse rule scores the best of the
+ *  split rules that project onto it, so the coarse Viterbi score of any
+ *  item is at least that of every split item that projects onto it.  This
+ *  is what lets {@link CoarseToFinePruner} use the coarse chart to bound
+ *  the split one.
+ */
+class ProjectedGrammar implements GrammarProjection {
+
+  private final BinaryGrammar sourceBG;
+  private final UnaryGrammar sourceUG;
+  private final BinaryGrammar targetBG;
+  private final UnaryGrammar targetUG;
+
+  final Index<String> targetIndex;
+  /** The coarse state of each split state. */
+  final int[] projection;
+  /** The split grammar's closed unary rules, projected.  Closing these
+   *  again, as targetUG() does, only loosens the bound. */
+  final List<UnaryRule> closedUnaries;
+
+  ProjectedGrammar(BinaryGrammar bg, UnaryGrammar ug, Index<String> stateIndex, TagProjection tp) {
+    sourceBG = bg;
+    sourceUG = ug;
+    targetIndex = new HashIndex<String>();
+    projection = new int[stateIndex.size()];
+    for (int state = 0; state < projection.length; state++) {
+      projection[state] = targetIndex.indexOf(tp.project(stateIndex.get(state)), true);
+    }
+
+    Map<BinaryRule,BinaryRule> binaries = new HashMap<BinaryRule,BinaryRule>();
+    for (BinaryRule br : bg) {
+      BinaryRule coarse = new BinaryRule(projection[br.parent], projection[br.leftChild], projection[br.rightChild], br.score);
+      BinaryRule best = binaries.get(coarse);
+      if (best == null) {
+        binaries.put(coarse, coarse);
+      } else if (coarse.score > best.score) {
+        best.score = coarse.score;
+      }
+    }
+    targetBG = new BinaryGrammar(targetIndex);
+    for (BinaryRule br : binaries.keySet()) {
+      targetBG.addRule(br);
+    }
+    targetBG.splitRules();
+
+    // the split grammar's closure is projected, so the coarse pass still
+    // only needs one unary step per span
+    Map<UnaryRule,UnaryRule> unaries = new HashMap<UnaryRule,UnaryRule>();
+    for (Iterator<UnaryRule> it = ug.closedRuleIterator(); it.hasNext(); ) {
+      UnaryRule ur = it.next();
+      UnaryRule coarse = new UnaryRule(projection[ur.parent], projection[ur.child], ur.score);
+      if (coarse.parent == coarse.child) {
+        continue; // no better than staying put
+      }
+      UnaryRule best = unaries.get(coarse);
+      if (best == null) {
+        unaries.put(coarse, coarse);
+      } else if (coarse.score > best.score) {
+        best.score = coarse.score;
+      }
+    }
+    closedUnaries = new ArrayList<UnaryRule>(unaries.keySet());
+    targetUG = new UnaryGrammar(targetIndex);
+    for (UnaryRule ur : closedUnaries) {
+      // a copy, since closing the rules raises their scores in place
+      targetUG.addRule(new UnaryRule(ur.parent, ur.child, ur.score));
+    }
+    targetUG.purgeRules();
+  }
+
+  public int project(int state) {
+    return projection[state];
+  }
+
+  public UnaryGrammar sourceUG() {
+    return sourceUG;
+  }
+
+  public BinaryGrammar sourceBG() {
+    return sourceBG;
+  }
+
+  public UnaryGrammar targetUG() {
+    return targetUG;
+  }
+
+  public BinaryGrammar targetBG() {
+    return targetBG;
+  }
+
+}
@@ -0,0 +1,103 @@
+package edu.stanford.nlp.parser.lexparser;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Grammar rules laid out as parallel primitive arrays, for the parser's
+ * inner loops: rule i goes from {@code parent[i]} to {@code leftChild[i]}
+ * and {@code rightChild[i]} with score {@code score[i]}.  The rules are
+ * grouped by the state they are looked up by, so that the rules for
+ * state s are those from {@code start[s]} up to {@code start[s + 1]}, and
+ * within a group they are sorted by parent.
+ * <br>
+ * A table is a snapshot: it is made by {@link BinaryGrammar#splitRules()}
+ * and {@link UnaryGrammar#purgeRules()}, and doesn't see rules added or
+ * rescored after that.
+ */
+class RuleTable {
+
+  /** Where each state's rules start; one longer than the number of states. */
+  final int[] start;
+  final int[] parent;
+  /** The left child, or for unary rules the only child. */
+  final int[] leftChild;
+  /** The right child; null for unary rules. */
+  final int[] rightChild;
+  final float[] score;
+
+  private RuleTable(int numStates, int numRules, boolean binary) {
+    start = new int[numStates + 1];
+    parent = new int[numRules];
+    leftChild = new int[numRules];
+    rightChild = binary ? new int[numRules] : null;
+    score = new float[numRules];
+  }
+
+  /** The number of rules. */
+  int size() {
+    return parent.length;
+  }
+
+  /** Lays out binary rules already grouped by state, as in
+   *  {@code BinaryGrammar.splitRulesWithLC}. */
+  static RuleTable binary(BinaryRule[][] byState) {
+    RuleTable table = new RuleTable(byState.length, countRules(byState), true);
+    int i = 0;
+    for (int state = 0; state < byState.length; state++) {
+      table.start[state] = i;
+      BinaryRule[] rules = byState[state].clone();
+      Arrays.sort(rules, BY_BINARY_PARENT);
+      for (BinaryRule rule : rules) {
+        table.parent[i] = rule.parent;
+        table.leftChild[i] = rule.leftChild;
+        table.rightChild[i] = rule.rightChild;
+        table.score[i] = rule.score;
+        i++;
+      }
+    }
+    table.start[byState.length] = i;
+    return table;
+  }
+
+  /** Lays out unary rules already grouped by state, as in
+   *  {@code UnaryGrammar.closedRulesByChild}. */
+  static RuleTable unary(UnaryRule[][] byState) {
+    RuleTable table = new RuleTable(byState.length, countRules(byState), false);
+    int i = 0;
+    for (int state = 0; state < byState.length; state++) {
+      table.start[state] = i;
+      UnaryRule[] rules = byState[state].clone();
+      Arrays.sort(rules, BY_UNARY_PARENT);
+      for (UnaryRule rule : rules) {
+        table.parent[i] = rule.parent;
+        table.leftChild[i] = rule.child;
+        table.score[i] = rule.score;
+        i++;
+      }
+    }
+    table.start[byState.length] = i;
+    return table;
+  }
+
+  private static int countRules(Object[][] byState) {
+    int numRules = 0;
+    for (Object[] rules : byState) {
+      numRules += rules.length;
+    }
+    return numRules;
+  }
+
+  private static final Comparator<BinaryRule> BY_BINARY_PARENT = new Comparator<BinaryRule>() {
+    public int compare(BinaryRule r1, BinaryRule r2) {
+      return r1.parent - r2.parent;
+    }
+  };
+
+  private static final Comparator<UnaryRule> BY_UNARY_PARENT = new Comparator<UnaryRule>() {
+    public int compare(UnaryRule r1, UnaryRule r2) {
+      return r1.parent - r2.parent;
+    }
+  };
+
+}
@@ -71,6 +71,35 @@ public class TestOptions implements Serializable {
   public int maxLength = -0xDEADBEEF;
   // initial value is -0xDEADBEEF (actually positive because of 2s complement)
 
+  /**
+   * The memory, in megabytes, to give the PCFG parser's chart.  If this is
+   * set, the chart is allocated once, as big as fits in it (and maxLength),
+   * and sentences too long for it are refused as if memory had run out.
+   * If it is 0 (the default), the chart instead grows to fit the longest
+   * sentence seen so far.
+   */
+  public int chartMemoryBudget = 0;
+
+  /**
+   * If positive, the PCFG parser first parses with a coarser grammar, made
+   * by projecting each state onto its basic category, and then only builds
+   * states whose coarse projections over a span come within this much log
+   * probability of the best coarse parse.  A sentence pruned so hard that
+   * it no longer parses is parsed again in full.  Not used with
+   * lengthNormalization or iterativeCKY, or when maxSpanForTags is more than 1.
+   * 0 (the default) turns the coarse pass off.
+   */
+  public double coarseToFine = 0.0;
+
+  /**
+   * If more than 1, the PCFG parser's inside pass fills the spans of each
+   * length on this many threads, since each of those spans only reads
+   * shorter ones.  This speeds up single long sentences on a multicore
+   * machine; the parses are the same as with one thread.  Not used by
+   * iterativeCKY.  0 (the default) or 1 parses on the calling thread only.
+   */
+  public int insideThreads = 0;
+
   /**
    * The maximum number of edges and hooks combined that the factored parser
    * will build before giving up.  This number should probably be relative to
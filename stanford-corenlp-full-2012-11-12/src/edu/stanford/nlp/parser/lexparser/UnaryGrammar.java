@@ -23,6 +23,9 @@ public class UnaryGrammar implements Serializable, Iterable<UnaryRule> {
 
   private transient UnaryRule[][] closedRulesWithP; // = null;
   private transient UnaryRule[][] closedRulesWithC; // = null;
+  // the same rules as parallel arrays, for the parser's inner loops
+  private transient RuleTable closedTableWithP; // = null;
+  private transient RuleTable closedTableWithC; // = null;
 
   /** The basic list of UnaryRules.  Really this is treated as a set */
   private Map<UnaryRule,UnaryRule> coreRules; // = null;
@@ -173,6 +176,20 @@ public class UnaryGrammar implements Serializable, Iterable<UnaryRule> {
       closedRulesWithP[i] = closedRulesWithParent[i].toArray(new UnaryRule[closedRulesWithParent[i].size()]);
       closedRulesWithC[i] = closedRulesWithChild[i].toArray(new UnaryRule[closedRulesWithChild[i].size()]);
     }
+    closedTableWithP = RuleTable.unary(closedRulesWithP);
+    closedTableWithC = RuleTable.unary(closedRulesWithC);
+  }
+
+  /** The rules of every closedRulesByParent(state), in one table by parent.
+   *  It only covers the states there were when the rules were last purged. */
+  RuleTable closedTableByParent() {
+    return closedTableWithP;
+  }
+
+  /** The rules of every closedRulesByChild(state), in one table by child.
+   *  It only covers the states there were when the rules were last purged. */
+  RuleTable closedTableByChild() {
+    return closedTableWithC;
   }
 
   public UnaryRule[] closedRulesByParent(int state) {